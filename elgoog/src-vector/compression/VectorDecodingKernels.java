@@ -0,0 +1,111 @@
+package compression;
+
+import java.nio.ByteBuffer;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * DecodingKernels on top of the JDK Vector API.
+ * Never referred to directly - DecodingKernels loads it by name, and only
+ * if the jdk.incubator.vector module is present.
+ *
+ * This is in a source folder of its own (src-vector), compiled on its own
+ * with --add-modules jdk.incubator.vector, so that the rest of the sources
+ * build without the module. Without this class the scalar kernels are used.
+ *
+ * A block is unpacked 4 lanes at a time with the same shift/mask/or sequence
+ * the scalar code does one lane at a time.
+ *
+ * The prefix-sum can be a scan within each vector of 4 deltas (shift-and-add,
+ * twice) plus the running total broadcast to all lanes. On JDK 17 that's about
+ * half as fast as the scalar loop (see DecodingBenchmark) - the lane shifts
+ * don't get compiled into single instructions - so the scalar prefix-sum is used
+ * unless the JVM is run with -Dcompression.vectorPrefixSum=true.
+ */
+class VectorDecodingKernels extends ScalarDecodingKernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_128;
+
+    private static final boolean VECTOR_PREFIX_SUM = Boolean
+            .getBoolean("compression.vectorPrefixSum");
+
+    // the packed words of the block being unpacked
+    private int[] words = new int[LANES * 32];
+
+    @Override
+    protected DecodingKernels newKernels() {
+        return new VectorDecodingKernels();
+    }
+
+    @Override
+    public void unpackBlock(ByteBuffer src, int[] dst, int offset, int b) {
+        int start = src.position();
+        int perLane = BlockCompressor.BLOCK_SIZE / LANES;
+
+        if (b == 0) {
+            for (int i = offset; i < offset + BlockCompressor.BLOCK_SIZE; i++)
+                dst[i] = 0;
+            return;
+        }
+
+        // the words are copied out in bulk first - the Vector API can't
+        // load from a ByteBuffer on every JDK it ships with
+        src.asIntBuffer().get(words, 0, LANES * b);
+
+        int mask = (b == 32) ? -1 : (1 << b) - 1;
+        int word = 0, bit = 0;
+        IntVector current = IntVector.fromArray(SPECIES, words, 0);
+
+        for (int j = 0; j < perLane; j++) {
+            IntVector v = current.lanewise(VectorOperators.LSHR, bit);
+            bit += b;
+            if (bit >= 32) {
+                // this integer ends in (or right at the end of) the current word
+                word++;
+                bit -= 32;
+                if (word < b) {
+                    current = IntVector.fromArray(SPECIES, words, word * LANES);
+                    if (bit > 0)
+                        v = v.or(current.lanewise(VectorOperators.LSHL, b - bit));
+                }
+            }
+            v.and(mask).intoArray(dst, offset + j * LANES);
+        }
+        src.position(start + 16 * b);
+    }
+
+    @Override
+    public int prefixSum(int[] values, int offset, int length, int previous) {
+        if (!VECTOR_PREFIX_SUM)
+            return super.prefixSum(values, offset, length, previous);
+
+        int end = offset + length, i = offset;
+        IntVector zero = IntVector.zero(SPECIES);
+        IntVector carry = IntVector.broadcast(SPECIES, previous);
+
+        for (; i + LANES <= end; i += LANES) {
+            IntVector v = IntVector.fromArray(SPECIES, values, i);
+            // [a, b, c, d] -> [a, a+b, b+c, c+d] -> [a, a+b, a+b+c, a+b+c+d]
+            v = v.add(zero.slice(LANES - 1, v));
+            v = v.add(zero.slice(LANES - 2, v));
+            v = v.add(carry);
+            v.intoArray(values, i);
+            carry = IntVector.broadcast(SPECIES, v.lane(LANES - 1));
+        }
+
+        // what's left over is less than a vector
+        previous = carry.lane(0);
+        for (; i < end; i++) {
+            values[i] += previous;
+            previous = values[i];
+        }
+        return previous;
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+}
@@ -0,0 +1,143 @@
+package apps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import index.InvertedFileIndex;
+import index.MappedInvertedFileIndex;
+import retriever.DocAtATimeRetriever;
+import retriever.evaluation.BM25Evaluator;
+
+/*
+ * A load test for serving queries from many threads at once over one shared
+ * index. Every thread has a DocAtATimeRetriever (and evaluators) of its own -
+ * those aren't thread-safe - and they all read their lists from the same
+ * InvertedFileIndex (or MappedInvertedFileIndex) instance.
+ *
+ * The query set is run a number of times with 1, 2, 4, .. threads, up to the
+ * number of cores (or the number passed in), and the queries per second are
+ * printed for each. Every result is checked against the result of running the
+ * same query on a single thread, so a race on the index shows up as a mismatch.
+ */
+
+public class ConcurrentQueryBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2, TIMED_ROUNDS = 10;
+
+    private static String[] QUERY_SET = { "the king queen royalty", "servant guard soldier",
+            "hope dream sleep", "ghost spirit", "fool jester player", "to be or not to be", "alas",
+            "alas poor", "alas poor yorick", "antony strumpet" };
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Pass the path to the index (compressed or uncompressed) "
+                    + "location on disk as argument.\n"
+                    + "Optionally pass the largest number of threads to try, "
+                    + "and then the queries to run, one query per argument.");
+            return;
+        }
+
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 1)
+            maxThreads = Integer.valueOf(args[1]);
+
+        String[] queries = QUERY_SET;
+        if (args.length > 2) {
+            queries = new String[args.length - 2];
+            System.arraycopy(args, 2, queries, 0, queries.length);
+        }
+
+        System.out.println(Runtime.getRuntime().availableProcessors() + " cores, "
+                + queries.length + " queries x " + TIMED_ROUNDS + " rounds\n");
+
+        for (boolean mmap : new boolean[] { false, true }) {
+            InvertedFileIndex index = mmap ? new MappedInvertedFileIndex(args[0])
+                    : new InvertedFileIndex(args[0]);
+            String name = mmap ? "mmap" : "file";
+
+            // what every query should come back with
+            List<List<Entry<Integer, Double>>> expected = runQueries(index, queries);
+
+            double singleThreaded = 0;
+            // (the largest number is tried too when it isn't a power of 2)
+            for (int threads = 1; threads <= maxThreads; threads = (threads < maxThreads
+                    && threads * 2 > maxThreads) ? maxThreads : threads * 2) {
+                double qps = timeQueries(index, queries, threads, expected);
+                if (threads == 1)
+                    singleThreaded = qps;
+                System.out.println(String.format("%-5s %3d threads: %10.1f queries/s  (%.2fx)",
+                        name, threads, qps, qps / singleThreaded));
+            }
+        }
+    }
+
+    // runs every query once on this thread
+    private static List<List<Entry<Integer, Double>>> runQueries(InvertedFileIndex index,
+            String[] queries) {
+        DocAtATimeRetriever retriever = new DocAtATimeRetriever(index);
+
+        List<List<Entry<Integer, Double>>> results = new ArrayList<List<Entry<Integer, Double>>>();
+        for (String s : queries) {
+            String[] query = s.split("\\s+");
+            results.add(retriever.retrieveQuery(query, 10, new BM25Evaluator(index, query)));
+        }
+        return results;
+    }
+
+    // returns the queries answered per second by the given number of threads
+    // sharing the index, after checking every answer against the expected one
+    private static double timeQueries(InvertedFileIndex index, String[] queries, int numThreads,
+            List<List<Entry<Integer, Double>>> expected) {
+
+        // the threads take the next query to run from here
+        AtomicInteger nextQuery = new AtomicInteger();
+        AtomicInteger mismatches = new AtomicInteger();
+        int numQueries = queries.length * (WARMUP_ROUNDS + TIMED_ROUNDS);
+        int numWarmupQueries = queries.length * WARMUP_ROUNDS;
+
+        // the clock starts when the first query after the warm-up is taken
+        long[] startTime = new long[1];
+
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            threads[t] = new Thread(() -> {
+                DocAtATimeRetriever retriever = new DocAtATimeRetriever(index);
+
+                int q;
+                while ((q = nextQuery.getAndIncrement()) < numQueries) {
+                    if (q == numWarmupQueries)
+                        startTime[0] = System.nanoTime();
+
+                    String[] query = queries[q % queries.length].split("\\s+");
+                    List<Entry<Integer, Double>> result = retriever.retrieveQuery(query, 10,
+                            new BM25Evaluator(index, query));
+                    if (!result.equals(expected.get(q % queries.length)))
+                        mismatches.incrementAndGet();
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the "
+                        + numThreads + " query threads", e);
+            }
+        }
+        long endTime = System.nanoTime();
+
+        if (mismatches.get() > 0)
+            System.out.println(mismatches.get() + " of " + numQueries + " queries came back "
+                    + "different with " + numThreads + " threads!");
+
+        // (join() makes the thread's write of the start time visible here)
+        return (numQueries - numWarmupQueries) / ((endTime - startTime[0]) / 1e9);
+    }
+}
@@ -0,0 +1,291 @@
+package apps;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import compression.Compressor;
+import compression.DecodingKernels;
+import compression.PForDeltaEncoder;
+import compression.Simple8bEncoder;
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import index.InvertedList;
+
+/*
+ * Compares how fast the codecs decode posting lists:
+ * v-byte vs PForDelta (scalar and SIMD kernels) vs Simple-8b.
+ * Also times the prefix-sum (delta decoding) of the scalar and SIMD kernels on its own
+ * (the SIMD one isn't used for decoding unless -Dcompression.vectorPrefixSum=true).
+ *
+ * The lists are the (delta-encoded) inverted lists of an index on disk,
+ * if a path to one is passed, and synthetic lists with Zipfian term frequencies.
+ *
+ * It's run the way JMH runs a benchmark: every benchmark is run in FORKS fresh
+ * JVMs one after the other (so what the JIT did for one codec can't help or
+ * hurt another), and in each of them WARMUP_ITERATIONS iterations are run and
+ * thrown away before MEASURED_ITERATIONS are timed. An iteration decodes every
+ * list ROUNDS_PER_ITERATION times. The mean time of an iteration over all the
+ * forks is printed with its standard deviation.
+ *
+ * The SIMD kernels are only used if the JVM is run with
+ * --add-modules jdk.incubator.vector (and the src-vector sources were compiled).
+ * The forks get the same JVM arguments as this one.
+ */
+
+public class DecodingBenchmark {
+
+    private static final int FORKS = 3, WARMUP_ITERATIONS = 5, MEASURED_ITERATIONS = 10;
+    private static final int ROUNDS_PER_ITERATION = 5;
+
+    private static final String[] BENCHMARKS = { "vbyte", "pfor-scalar", "pfor-simd",
+            "simple8b", "prefix-sum-scalar", "prefix-sum-simd" };
+
+    // what a fork is started with, followed by the lists to use and the benchmark
+    private static final String FORK_ARGUMENT = "--fork";
+    private static final String SYNTHETIC_LISTS = "synthetic";
+
+    // lists of the synthetic collection
+    private static final int SYNTHETIC_DOCS = 100000, SYNTHETIC_TERMS = 2000;
+
+    public static void main(String[] args) {
+
+        if (args.length == 3 && args[0].equals(FORK_ARGUMENT)) {
+            runFork(args[1], args[2]);
+            return;
+        }
+
+        if (DecodingKernels.newInstance().isVectorized())
+            System.out.println("Vector API available.");
+        else
+            System.out.println("Vector API not available - pass "
+                    + "--add-modules jdk.incubator.vector to the JVM to use it.");
+        System.out.println(FORKS + " forks x " + MEASURED_ITERATIONS + " iterations (after "
+                + WARMUP_ITERATIONS + " warm-up iterations) of " + ROUNDS_PER_ITERATION
+                + " rounds over all the lists");
+
+        // the lists of a real index e.g. the Shakespeare one
+        if (args.length > 0)
+            runBenchmarks(args[0]);
+
+        runBenchmarks(SYNTHETIC_LISTS);
+    }
+
+    private static ArrayList<int[]> loadLists(String lists) {
+        if (lists.equals(SYNTHETIC_LISTS))
+            return createZipfianLists();
+
+        InvertedFileIndex index = new InvertedFileIndex(lists);
+        ArrayList<int[]> indexLists = new ArrayList<int[]>();
+        for (String term : index.getVocabListFromIndex()) {
+            indexLists.add(index.getInvertedListForTerm(term).getList(true));
+        }
+        return indexLists;
+    }
+
+    // runs every benchmark in forks of its own, and prints the results
+    private static void runBenchmarks(String lists) {
+        ArrayList<int[]> loaded = loadLists(lists);
+        long numIntegers = 0;
+        for (int[] list : loaded) {
+            numIntegers += list.length;
+        }
+        System.out.println("\n" + lists + ": " + loaded.size() + " lists, " + numIntegers
+                + " integers");
+
+        for (String benchmark : BENCHMARKS) {
+            ArrayList<Double> millis = new ArrayList<Double>();
+            String extra = "";
+            for (int fork = 0; fork < FORKS; fork++) {
+                for (String line : fork(lists, benchmark)) {
+                    if (line.startsWith("iteration "))
+                        millis.add(Double.valueOf(line.substring("iteration ".length())));
+                    else
+                        extra = line;
+                }
+            }
+            report(benchmark, millis, numIntegers, extra);
+        }
+    }
+
+    // runs a benchmark in a new JVM and returns what it printed
+    private static List<String> fork(String lists, String benchmark) {
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        // the vector kernels only use their prefix-sum when asked to
+        if (benchmark.equals("prefix-sum-simd"))
+            command.add("-Dcompression.vectorPrefixSum=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DecodingBenchmark.class.getName());
+        command.add(FORK_ARGUMENT);
+        command.add(lists);
+        command.add(benchmark);
+
+        ArrayList<String> output = new ArrayList<String>();
+        try {
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream()));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(line);
+            }
+            if (process.waitFor() != 0)
+                throw new IllegalStateException("The fork for " + benchmark + " failed: "
+                        + output);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't fork a JVM for " + benchmark, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running " + benchmark, e);
+        }
+        return output;
+    }
+
+    // what a fork does: runs the one benchmark and prints the time of every measured iteration
+    private static void runFork(String lists, String benchmark) {
+        ArrayList<int[]> loaded = loadLists(lists);
+        int longest = 0;
+        for (int[] list : loaded) {
+            longest = Math.max(longest, list.length);
+        }
+        int[] decoded = new int[longest];
+
+        Iteration iteration;
+        if (benchmark.equals("vbyte"))
+            iteration = decoding(new VByteEncoder(), loaded, decoded);
+        else if (benchmark.equals("pfor-scalar"))
+            iteration = decoding(new PForDeltaEncoder(DecodingKernels.newScalarInstance()),
+                    loaded, decoded);
+        else if (benchmark.equals("pfor-simd"))
+            iteration = decoding(new PForDeltaEncoder(DecodingKernels.newInstance()), loaded,
+                    decoded);
+        else if (benchmark.equals("simple8b"))
+            iteration = decoding(new Simple8bEncoder(), loaded, decoded);
+        else if (benchmark.equals("prefix-sum-scalar"))
+            iteration = prefixSum(DecodingKernels.newScalarInstance(), loaded, decoded);
+        else if (benchmark.equals("prefix-sum-simd"))
+            iteration = prefixSum(DecodingKernels.newInstance(), loaded, decoded);
+        else
+            throw new IllegalArgumentException("No benchmark called " + benchmark);
+
+        // (the checksum keeps the JIT from throwing the work away)
+        long checksum = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS + MEASURED_ITERATIONS; i++) {
+            long startTime = System.nanoTime();
+            checksum += iteration.run();
+            long nanos = System.nanoTime() - startTime;
+            if (i >= WARMUP_ITERATIONS)
+                System.out.println("iteration " + nanos / 1e6);
+        }
+        System.out.println(iteration.describe() + " (checksum " + checksum + ")");
+    }
+
+    // one iteration of a benchmark - returns a checksum of what it decoded
+    private interface Iteration {
+        long run();
+
+        default String describe() {
+            return "";
+        }
+    }
+
+    /*
+     * Lists in the same form as InvertedList.getList(true) makes them
+     * - the term of rank r occurs about 1/r as often as the most frequent one
+     */
+    private static ArrayList<int[]> createZipfianLists() {
+        Random random = new Random(42);
+        ArrayList<int[]> lists = new ArrayList<int[]>();
+
+        for (int rank = 1; rank <= SYNTHETIC_TERMS; rank++) {
+            int df = Math.max(1, SYNTHETIC_DOCS / rank);
+            InvertedList list = new InvertedList("t" + rank);
+
+            // spread the documents evenly, with some jitter
+            int docId = 0, gap = SYNTHETIC_DOCS / df;
+            for (int i = 0; i < df && docId < SYNTHETIC_DOCS; i++) {
+                int tf = 1 + (int) (-Math.log(1 - random.nextDouble()) * 4 / Math.sqrt(rank));
+                int position = 0;
+                for (int j = 0; j < tf; j++) {
+                    position += 1 + random.nextInt(200);
+                    list.addPositionToPosting(docId, position);
+                }
+                docId += 1 + random.nextInt(2 * gap);
+            }
+            lists.add(list.getList(true));
+        }
+        return lists;
+    }
+
+    private static Iteration decoding(Compressor compressor, ArrayList<int[]> lists,
+            int[] decoded) {
+
+        long numIntegers = 0, numBytes = 0;
+        ArrayList<ByteBuffer> encoded = new ArrayList<ByteBuffer>();
+        for (int[] list : lists) {
+            byte[] bytes = compressor.encodeIntegers(list, 0, list.length);
+            numIntegers += list.length;
+            numBytes += bytes.length;
+            encoded.add(ByteBuffer.wrap(bytes));
+        }
+        String bytesPerInteger = String.format("%.2f bytes/int", (double) numBytes / numIntegers);
+
+        return new Iteration() {
+            public long run() {
+                long checksum = 0;
+                for (int round = 0; round < ROUNDS_PER_ITERATION; round++) {
+                    for (int i = 0; i < lists.size(); i++) {
+                        ByteBuffer buffer = encoded.get(i);
+                        buffer.rewind();
+                        int n = compressor.decodeIntegers(buffer, decoded, 0,
+                                lists.get(i).length);
+                        checksum += decoded[n - 1];
+                    }
+                }
+                return checksum;
+            }
+
+            public String describe() {
+                return bytesPerInteger;
+            }
+        };
+    }
+
+    private static Iteration prefixSum(DecodingKernels kernels, ArrayList<int[]> lists,
+            int[] decoded) {
+        return () -> {
+            long checksum = 0;
+            for (int round = 0; round < ROUNDS_PER_ITERATION; round++) {
+                for (int[] list : lists) {
+                    System.arraycopy(list, 0, decoded, 0, list.length);
+                    checksum += kernels.prefixSum(decoded, 0, list.length, 0);
+                }
+            }
+            return checksum;
+        };
+    }
+
+    private static void report(String name, List<Double> millis, long numIntegers,
+            String extra) {
+        double mean = 0, variance = 0;
+        for (double m : millis) {
+            mean += m / millis.size();
+        }
+        for (double m : millis) {
+            variance += (m - mean) * (m - mean) / Math.max(1, millis.size() - 1);
+        }
+        double integersPerIteration = (double) numIntegers * ROUNDS_PER_ITERATION;
+        System.out.println(String.format("%-18s %8.2f +- %6.2f ms/iteration %8.1f M ints/s  %s",
+                name, mean, Math.sqrt(variance), integersPerIteration / mean / 1000, extra));
+    }
+}
@@ -112,8 +112,8 @@ public class DiceCoefficientCalculator {
         int numDocs = index.getNumDocs();
         System.out.println("There are " + numDocs + " docs in the collection.");
 
-        // Pass the invertedFileIndex and numDocs into the retriever
-        DocAtATimeRetriever retriever = new DocAtATimeRetriever(index, numDocs);
+        // Pass the invertedFileIndex into the retriever
+        DocAtATimeRetriever retriever = new DocAtATimeRetriever(index);
 
         ArrayList<String> vocabList = index.getVocabListFromIndex();
 
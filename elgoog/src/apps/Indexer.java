@@ -7,6 +7,11 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import compression.Compressor;
+import compression.EmptyCompressor;
+import compression.PForDeltaEncoder;
+import compression.Simple8bEncoder;
+import compression.VByteEncoder;
 import index.InvertedFileIndex;
 import reader.SceneReader;
 
@@ -16,6 +21,11 @@ import reader.SceneReader;
  * run validation-tests on indexes such as:
  * a) in-memory index vs index created from file on disk
  * b) compressed vs uncompressed indexes
+ *
+ * An index can be compressed using v-byte (-c), or using one of
+ * the block codecs, PForDelta or Simple-8b (-z pfor / -z simple8b).
+ * With -s, an impact-ordered copy of the index is written as well, and
+ * with -b, an index of the adjacent term pairs that occur often enough.
  */
 
 public class Indexer {
@@ -29,14 +39,25 @@ public class Indexer {
         String docStorePath = args[0];
 
         boolean createIndex = false, compressIndex = false, indexValidation = false,
-                comprValidation = false, completeInMemoryIndex = false;
+                comprValidation = false, completeInMemoryIndex = false, impactOrdered = false;
         String indexInPath = null, indexOutPath = null, indexValidationPath = null;
+        int biwordThreshold = 0;
+        Compressor compressor = new EmptyCompressor();
 
         // parse the arguments using Apache-CLI
         Options options = new Options();
         options.addOption("i", true, "create index from document-store and write it to disk. "
                 + "Requires as argument the path on disk to create the index at.");
         options.addOption("c", false, "compress index before writing to disk.");
+        options.addOption("z", "codec", true,
+                "compress index before writing to disk using the given codec. "
+                        + "Requires as argument one of vbyte (same as -c), pfor or simple8b.");
+        options.addOption("s", "impacts", false,
+                "also write an impact-ordered copy of the index (.impacts) "
+                        + "for score-at-a-time retrieval.");
+        options.addOption("b", "biwords", true,
+                "also index the adjacent term pairs (.biwords) for exact-phrase queries. "
+                        + "Requires as argument how many times a pair has to occur to be kept.");
         options.addOption("d", true, "create fully in-memory index from file on disk. "
                 + "This is mostly for validation purposes - usually indexes are too big too be housed in memory.");
         options.addOption("v", true,
@@ -58,6 +79,30 @@ public class Indexer {
 
             if (cmd.hasOption("c")) {
                 compressIndex = true;
+                compressor = new VByteEncoder();
+            }
+
+            if (cmd.hasOption("z")) {
+                compressIndex = true;
+                String codec = cmd.getOptionValue("z");
+                if (codec.equals("pfor")) {
+                    compressor = new PForDeltaEncoder();
+                } else if (codec.equals("simple8b")) {
+                    compressor = new Simple8bEncoder();
+                } else if (codec.equals("vbyte")) {
+                    compressor = new VByteEncoder();
+                } else {
+                    System.out.println("Unknown codec " + codec + ", using vbyte.");
+                    compressor = new VByteEncoder();
+                }
+            }
+
+            if (cmd.hasOption("s")) {
+                impactOrdered = true;
+            }
+
+            if (cmd.hasOption("b")) {
+                biwordThreshold = Integer.valueOf(cmd.getOptionValue("b"));
             }
 
             if (cmd.hasOption("v")) {
@@ -88,7 +133,7 @@ public class Indexer {
             InvertedFileIndex index1 = new InvertedFileIndex(indexValidationPath);
             index1.createIndexFromDocumentStore(sceneReader.getDocuments());
             // index.printSelf();
-            index1.writeSelfToDisk(compressIndex);
+            index1.writeSelfToDisk(compressor);
             // index1.printSelf();
 
             // construct index from disk from the file written by the previous step
@@ -112,7 +157,7 @@ public class Indexer {
             // create an index with compression
             InvertedFileIndex index2 = new InvertedFileIndex(indexValidationPath + ".compressed");
             index2.createIndexFromDocumentStore(sceneReader.getDocuments());
-            index2.writeSelfToDisk(true);
+            index2.writeSelfToDisk(compressIndex ? compressor : new VByteEncoder());
 
             // compare index1 vs index2 after reading from disk
             InvertedFileIndex index3 = new InvertedFileIndex(indexValidationPath + ".uncompressed");
@@ -131,9 +176,12 @@ public class Indexer {
         } else if (createIndex) {
             // create an index
             InvertedFileIndex index = new InvertedFileIndex(indexOutPath);
+            index.setBiwordThreshold(biwordThreshold);
             index.createIndexFromDocumentStore(sceneReader.getDocuments());
             // index.printSelf();
-            index.writeSelfToDisk(compressIndex);
+            index.writeSelfToDisk(compressor);
+            if (impactOrdered)
+                index.writeImpactOrderedToDisk();
             index.writeDocumentVectorsToJSON();
 
         } else if (completeInMemoryIndex) {
@@ -0,0 +1,94 @@
+package apps;
+
+import index.InvertedFileIndex;
+import retriever.DocAtATimeRetriever;
+import retriever.evaluation.DirichletEvaluator;
+import retriever.evaluation.Evaluator;
+import retriever.evaluation.JelinekMercerEvaluator;
+
+/*
+ * Times query-likelihood retrieval (Dirichlet and Jelinek-Mercer) with the
+ * collection statistics read once from the .metadata file, against the same
+ * retrieval with the number of words in the collection added up from the
+ * term-dictionary on every call - which is what every scored (term, doc) pair
+ * used to cost.
+ *
+ * The queries are run a number of times to warm the JIT up before they're timed.
+ */
+
+public class QueryLikelihoodBenchmark {
+
+    private static final int WARMUP_ROUNDS = 2, TIMED_ROUNDS = 5;
+
+    private static String[] QUERY_SET = { "the king queen royalty", "servant guard soldier",
+            "hope dream sleep", "ghost spirit", "fool jester player", "to be or not to be", "alas",
+            "alas poor", "alas poor yorick", "antony strumpet" };
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Pass the path to the index (compressed or uncompressed) "
+                    + "location on disk as argument.\n"
+                    + "Optionally pass the queries to run, one query per argument.");
+            return;
+        }
+
+        String[] queries = QUERY_SET;
+        if (args.length > 1) {
+            queries = new String[args.length - 1];
+            System.arraycopy(args, 1, queries, 0, queries.length);
+        }
+
+        InvertedFileIndex index = new InvertedFileIndex(args[0]);
+
+        // the same index, but it recomputes the statistic on every call
+        InvertedFileIndex recomputingIndex = new InvertedFileIndex(args[0]) {
+            @Override
+            public long getNumWordsInCollection() {
+                if (dictionary == null) {
+                    loadLookupTable();
+                }
+
+                long count = 0;
+                for (int i = 0; i < dictionary.getNumTerms(); i++) {
+                    count += dictionary.getCollectionFrequency(i);
+                }
+                return count;
+            }
+        };
+
+        System.out.println(index.getNumDocs() + " documents, " + index.getNumWordsInCollection()
+                + " words, " + index.getVocabularySize() + " terms, "
+                + String.format("%.1f", index.getAverageDocumentLength())
+                + " words per document on average\n");
+
+        for (boolean dirichlet : new boolean[] { true, false }) {
+            String model = dirichlet ? "ql-dir" : "ql-jm";
+            double recomputed = timeQueries(recomputingIndex, queries, dirichlet);
+            double cached = timeQueries(index, queries, dirichlet);
+            System.out.println(String.format("%-8s recomputed: %10.2f ms/round", model, recomputed));
+            System.out.println(String.format("%-8s cached:     %10.2f ms/round  (%.1fx)", model,
+                    cached, recomputed / cached));
+        }
+    }
+
+    // returns the average time (in ms) to run all the queries once
+    private static double timeQueries(InvertedFileIndex index, String[] queries,
+            boolean dirichlet) {
+
+        DocAtATimeRetriever retriever = new DocAtATimeRetriever(index);
+
+        long startTime = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + TIMED_ROUNDS; round++) {
+            if (round == WARMUP_ROUNDS)
+                startTime = System.nanoTime();
+
+            for (String s : queries) {
+                Evaluator evaluator = dirichlet ? new DirichletEvaluator(index)
+                        : new JelinekMercerEvaluator(index);
+                retriever.retrieveQuery(s.split("\\s+"), 10, evaluator);
+            }
+        }
+
+        return (System.nanoTime() - startTime) / 1e6 / TIMED_ROUNDS;
+    }
+}
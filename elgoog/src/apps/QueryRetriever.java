@@ -366,7 +366,7 @@ public class QueryRetriever {
             InvertedFileIndex index = new InvertedFileIndex(indexPath);
 
             // Pass the invertedFileIndex into the retriever
-            DocAtATimeRetriever retriever = new DocAtATimeRetriever(index, index.getNumDocs());
+            DocAtATimeRetriever retriever = new DocAtATimeRetriever(index);
 
             // query retrieval using 7 terms from the array at a time
             runQueries(retriever, SEVEN_TERM_QUERY_SET, 7);
@@ -387,10 +387,9 @@ public class QueryRetriever {
             }
 
             // find average length of a scene
-            int numWords = index.getNumWordsInCollection();
             int numDocs = index.getNumDocs();
-            System.out.println("Average length of document: "
-                    + (double) (numWords) / (double) (numDocs) + " words");
+            System.out.println(
+                    "Average length of document: " + index.getAverageDocumentLength() + " words");
 
             // find length of all documents in the document store for other statistics
             ArrayList<Integer> docLength = new ArrayList<Integer>();
@@ -1,10 +1,19 @@
 package apps;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
 
+import index.Index;
 import index.InvertedFileIndex;
+import index.MappedInvertedFileIndex;
+import retriever.BlockMaxWandRetriever;
 import retriever.DocAtATimeRetriever;
 import retriever.Retriever;
+import retriever.ScoreAtATimeRetriever;
+import retriever.TermAtATimeRetriever;
+import retriever.evaluation.BM25Evaluator;
 import retriever.evaluation.RawCountEvaluator;
 
 public class TimingExperiment {
@@ -267,41 +276,177 @@ public class TimingExperiment {
             "pompey", "abhorr", "dst", "zenelophon", "and", "ale", "rascal", "respect", "tradition",
             "elm", "answer", "elbe", "where", "savour", "nobly" };
 
-    public static void runQueries(Retriever r, String[] set, int numTerms) {
+    public static void runQueries(Retriever r, Index index, String[] set, int numTerms) {
         int len = set.length;
         for (int i = 0; i < len;) {
             String[] query = Arrays.copyOfRange(set, i, i + numTerms);
             // System.out.println("Query #" + queryNum + ": " + Arrays.toString(query));
             // top 10 results - but don't print them since
             // this is a timing experiment anyways
-            RawCountEvaluator evaluator = new RawCountEvaluator();
+            // the index gives the evaluator the upper bounds of the scores for MaxScore
+            RawCountEvaluator evaluator = new RawCountEvaluator(index);
             r.retrieveQuery(query, 10, evaluator);
             i += numTerms;
         }
     }
 
+    // runs BM25 queries and returns their top 10 results
+    private static ArrayList<List<Entry<Integer, Double>>> runBM25Queries(Retriever r,
+            Index index, String[] set, int numTerms) {
+        ArrayList<List<Entry<Integer, Double>>> results = new ArrayList<List<Entry<Integer, Double>>>();
+        for (int i = 0; i < set.length; i += numTerms) {
+            String[] query = Arrays.copyOfRange(set, i, i + numTerms);
+            results.add(r.retrieveQuery(query, 10, new BM25Evaluator(index, query)));
+        }
+        return results;
+    }
+
+    // Times the DocAtATimeRetriever against the BlockMaxWandRetriever with BM25,
+    // on the 7-term and the 14-term query sets, and counts the docs each one scores
+    private static void compareBlockMaxWand(InvertedFileIndex index) {
+        for (int numTerms : new int[] { 7, 14 }) {
+            String[] set = (numTerms == 7) ? SEVEN_TERM_QUERY_SET : FOURTEEN_TERM_QUERY_SET;
+
+            Retriever[] retrievers = { new DocAtATimeRetriever(index),
+                    new BlockMaxWandRetriever(index) };
+            long[] millis = new long[2], docsScored = new long[2];
+            ArrayList<ArrayList<List<Entry<Integer, Double>>>> results = new ArrayList<ArrayList<List<Entry<Integer, Double>>>>();
+
+            for (int i = 0; i < 2; i++) {
+                // the first run is just to flush out the disk caches (and warm up the JIT)
+                runBM25Queries(retrievers[i], index, set, numTerms);
+
+                long scoredBefore = retrievers[i].getNumDocumentsScored();
+                long startTime = System.currentTimeMillis();
+                results.add(runBM25Queries(retrievers[i], index, set, numTerms));
+                millis[i] = System.currentTimeMillis() - startTime;
+                docsScored[i] = retrievers[i].getNumDocumentsScored() - scoredBefore;
+            }
+
+            System.out.println(numTerms + "-term queries with BM25:");
+            System.out.println("  document-at-a-time: " + millis[0] + " milliseconds, "
+                    + docsScored[0] + " documents scored");
+            System.out.println("  block-max wand:     " + millis[1] + " milliseconds, "
+                    + docsScored[1] + " documents scored");
+            System.out.println(String.format("  speedup: %.2fx, %.1f%% of the documents scored",
+                    (double) millis[0] / Math.max(1, millis[1]),
+                    100.0 * docsScored[1] / Math.max(1, docsScored[0])));
+            if (!results.get(0).equals(results.get(1)))
+                System.out.println("  the two retrievers returned different results!");
+        }
+    }
+
+    // Runs the 14-term query set score-at-a-time (over the .impacts file) with
+    // different budgets, and compares each run's top 10 against exact BM25
+    private static void compareScoreAtATime(InvertedFileIndex index) {
+        String[] set = FOURTEEN_TERM_QUERY_SET;
+        int numTerms = 14;
+
+        ArrayList<List<Entry<Integer, Double>>> exact = runBM25Queries(
+                new DocAtATimeRetriever(index), index, set, numTerms);
+
+        ScoreAtATimeRetriever retriever = new ScoreAtATimeRetriever(index);
+        long[] postingsBudgets = { Long.MAX_VALUE, 1000, 200, Long.MAX_VALUE };
+        long[] timeBudgets = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, 1 };
+
+        for (int b = 0; b < postingsBudgets.length; b++) {
+            retriever.setPostingsBudget(postingsBudgets[b]);
+            retriever.setTimeBudget(timeBudgets[b]);
+
+            long startTime = System.currentTimeMillis();
+            long postingsProcessed = 0, postingsInQueries = 0;
+            int queriesCompleted = 0, overlap = 0, expected = 0;
+            for (int i = 0; i < set.length; i += numTerms) {
+                String[] query = Arrays.copyOfRange(set, i, i + numTerms);
+                List<Entry<Integer, Double>> result = retriever.retrieveQuery(query, 10,
+                        new BM25Evaluator(index, query));
+
+                postingsProcessed += retriever.getNumPostingsProcessed();
+                postingsInQueries += retriever.getNumPostingsInQuery();
+                if (retriever.isComplete())
+                    queriesCompleted++;
+
+                // how many of the exact top 10 made it
+                for (Entry<Integer, Double> e : exact.get(i / numTerms)) {
+                    expected++;
+                    for (Entry<Integer, Double> r : result) {
+                        if (r.getKey().equals(e.getKey()))
+                            overlap++;
+                    }
+                }
+            }
+            long millis = System.currentTimeMillis() - startTime;
+
+            System.out.println("score-at-a-time, "
+                    + (postingsBudgets[b] < Long.MAX_VALUE ? postingsBudgets[b] + " postings"
+                            : timeBudgets[b] < Long.MAX_VALUE ? timeBudgets[b] + " ms"
+                                    : "no budget")
+                    + ": " + millis + " milliseconds, " + postingsProcessed + " of "
+                    + postingsInQueries + " postings, " + queriesCompleted + " of "
+                    + (set.length / numTerms) + " queries complete, "
+                    + String.format("%.1f%%", 100.0 * overlap / Math.max(1, expected))
+                    + " of the BM25 top 10 found");
+        }
+    }
+
+    private static Retriever createRetriever(Index index, boolean termAtATime,
+            boolean maxScore, boolean parallel) {
+        if (termAtATime)
+            return new TermAtATimeRetriever(index);
+
+        DocAtATimeRetriever retriever = new DocAtATimeRetriever(index);
+        retriever.setMaxScore(maxScore);
+        if (parallel)
+            retriever.setNumRanges(Runtime.getRuntime().availableProcessors());
+        return retriever;
+    }
+
     public static void main(String[] args) {
 
-        if (args.length != 2) {
+        if (args.length < 2) {
             System.out.println("Pass (only) the path to the index (compressed or uncompressed) "
                     + "location on disk as argument.\n"
-                    + "Also pass which experiment you want to perform, the \"7\"-term or the \"14\"-term one?");
+                    + "Also pass which experiment you want to perform, the \"7\"-term or the \"14\"-term one?\n"
+                    + "Or pass \"bmw\" to compare document-at-a-time and Block-Max WAND "
+                    + "retrieval on both.\n"
+                    + "Or pass \"saat\" to run score-at-a-time retrieval with different budgets "
+                    + "(needs the .impacts file, see apps.Indexer -s).\n"
+                    + "Optionally pass \"mmap\" to read the index through a memory-mapped file.\n"
+                    + "Optionally pass \"maxscore\" to skip the documents that can't make it "
+                    + "into the top 10 (MaxScore).\n"
+                    + "Optionally pass \"taat\" to retrieve term-at-a-time where it's cheaper.\n"
+                    + "Optionally pass \"parallel\" to score ranges of docIds on all the cores.");
         }
 
         String indexPath = args[0];
         System.out.println(indexPath);
-        InvertedFileIndex index = new InvertedFileIndex(indexPath);
+
+        // the memory-mapped index is a drop-in replacement for the RAF-backed one
+        boolean mapped = Arrays.asList(args).contains("mmap");
+        boolean maxScore = Arrays.asList(args).contains("maxscore");
+        boolean termAtATime = Arrays.asList(args).contains("taat");
+        boolean parallel = Arrays.asList(args).contains("parallel");
+        InvertedFileIndex index = mapped ? new MappedInvertedFileIndex(indexPath)
+                : new InvertedFileIndex(indexPath);
 
         boolean sevenTermQuery = args[1].equals("7");
 
-        if (sevenTermQuery) {
+        if (args[1].equals("bmw")) {
+
+            compareBlockMaxWand(index);
+
+        } else if (args[1].equals("saat")) {
+
+            compareScoreAtATime(index);
+
+        } else if (sevenTermQuery) {
 
-            DocAtATimeRetriever retriever = new DocAtATimeRetriever(index, index.getNumDocs());
+            Retriever retriever = createRetriever(index, termAtATime, maxScore, parallel);
 
             long startTime = System.currentTimeMillis(), endTime = 0;
 
             // query retrieval using 7 terms from the array at a time
-            runQueries(retriever, SEVEN_TERM_QUERY_SET, 7);
+            runQueries(retriever, index, SEVEN_TERM_QUERY_SET, 7);
 
             endTime = System.currentTimeMillis();
 
@@ -312,7 +457,7 @@ public class TimingExperiment {
             // do it again - the first run was just to flush out the disk caches
             startTime = System.currentTimeMillis();
 
-            runQueries(retriever, SEVEN_TERM_QUERY_SET, 7);
+            runQueries(retriever, index, SEVEN_TERM_QUERY_SET, 7);
 
             endTime = System.currentTimeMillis();
             System.out.println("It took " + (endTime - startTime)
@@ -321,12 +466,12 @@ public class TimingExperiment {
 
         } else {
 
-            DocAtATimeRetriever retriever = new DocAtATimeRetriever(index, index.getNumDocs());
+            Retriever retriever = createRetriever(index, termAtATime, maxScore, parallel);
 
             long startTime = System.currentTimeMillis(), endTime = 0;
 
             // query retrieval using 14 terms from the array at a time
-            runQueries(retriever, FOURTEEN_TERM_QUERY_SET, 14);
+            runQueries(retriever, index, FOURTEEN_TERM_QUERY_SET, 14);
 
             endTime = System.currentTimeMillis();
 
@@ -337,7 +482,7 @@ public class TimingExperiment {
             // do it again - the first run was just to flush out the disk caches
             startTime = System.currentTimeMillis();
 
-            runQueries(retriever, FOURTEEN_TERM_QUERY_SET, 14);
+            runQueries(retriever, index, FOURTEEN_TERM_QUERY_SET, 14);
 
             endTime = System.currentTimeMillis();
             System.out.println("It took " + (endTime - startTime)
@@ -0,0 +1,56 @@
+package compression;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Packs integers into (and unpacks them from) a stream of 'b' bits each.
+ * The bits of an integer are laid out lowest first, and the
+ * integers follow each other without any padding in between.
+ * 'length' integers take exactly ceil(length * b / 8) bytes.
+ */
+final class BitPacking {
+
+    private BitPacking() {
+    }
+
+    static void pack(int[] values, int offset, int length, int b, ByteBuffer out) {
+        if (b == 0)
+            return;
+
+        long mask = (1L << b) - 1;
+        long accumulator = 0;
+        int bits = 0;
+        for (int i = offset; i < offset + length; i++) {
+            accumulator |= (values[i] & mask) << bits;
+            bits += b;
+            while (bits >= 8) {
+                out.put((byte) accumulator);
+                accumulator >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0)
+            out.put((byte) accumulator);
+    }
+
+    static void unpack(ByteBuffer src, int[] dst, int offset, int length, int b) {
+        if (b == 0) {
+            for (int i = offset; i < offset + length; i++)
+                dst[i] = 0;
+            return;
+        }
+
+        long mask = (1L << b) - 1;
+        long accumulator = 0;
+        int bits = 0;
+        for (int i = offset; i < offset + length; i++) {
+            while (bits < b) {
+                accumulator |= (long) (src.get() & 0xFF) << bits;
+                bits += 8;
+            }
+            dst[i] = (int) (accumulator & mask);
+            accumulator >>>= b;
+            bits -= b;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package compression;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/*
+ * Base class of the codecs that compress integers in blocks of (up to) BLOCK_SIZE.
+ * Every block is written as:
+ * [number of integers - 1 : 1 byte][payload length : 2 bytes][payload]
+ * so that a reader can hop from block to block without decoding them.
+ *
+ * A block can only be decoded as a whole. The integers of the last decoded block
+ * are kept around until they are asked for, which makes a BlockCompressor
+ * stateful - use a fresh instance for every list that is decoded.
+ */
+public abstract class BlockCompressor extends Compressor {
+
+    public static final int BLOCK_SIZE = 128;
+
+    private static final int BLOCK_HEADER_SIZE = 3;
+
+    // no codec needs more than this to encode a block
+    private static final int MAX_PAYLOAD_SIZE = 4096;
+
+    // integers of the last decoded block which haven't been handed out yet
+    private int[] block = new int[BLOCK_SIZE];
+    private int blockLength = 0, blockIndex = 0;
+
+    /*
+     * encodes 'length' (<= BLOCK_SIZE) integers of values starting at 'offset'
+     * into out
+     */
+    protected abstract void encodeBlock(int[] values, int offset, int length, ByteBuffer out);
+
+    /*
+     * decodes a block of 'length' integers from the buffer's position into dst
+     * starting at 'offset'. Has to consume exactly the block's payload.
+     */
+    protected abstract void decodeBlock(ByteBuffer src, int[] dst, int offset, int length);
+
+    @Override
+    public byte[] encodeIntegers(int[] values, int offset, int length) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ByteBuffer payload = ByteBuffer.allocate(MAX_PAYLOAD_SIZE);
+
+        for (int start = offset; start < offset + length; start += BLOCK_SIZE) {
+            int n = Math.min(BLOCK_SIZE, offset + length - start);
+
+            payload.clear();
+            encodeBlock(values, start, n, payload);
+
+            bos.write(n - 1);
+            bos.write(payload.position() >>> 8);
+            bos.write(payload.position() & 0xFF);
+            bos.write(payload.array(), 0, payload.position());
+        }
+        return bos.toByteArray();
+    }
+
+    @Override
+    public int decodeIntegers(ByteBuffer src, int[] dst, int offset, int count) {
+        int n = 0;
+        while (n < count) {
+            if (blockIndex == blockLength) {
+                // nothing left over from the previous block; decode the next one
+                if (src.remaining() < BLOCK_HEADER_SIZE)
+                    break;
+
+                int length = (src.get() & 0xFF) + 1;
+                src.getShort(); // payload length is only needed for hopping blocks
+
+                if (count - n >= length) {
+                    // the whole block is wanted - decode it straight into dst
+                    decodeBlock(src, dst, offset + n, length);
+                    n += length;
+                    continue;
+                }
+
+                decodeBlock(src, block, 0, length);
+                blockLength = length;
+                blockIndex = 0;
+            }
+
+            int toCopy = Math.min(count - n, blockLength - blockIndex);
+            System.arraycopy(block, blockIndex, dst, offset + n, toCopy);
+            blockIndex += toCopy;
+            n += toCopy;
+        }
+        return n;
+    }
+
+    @Override
+    public int lastIntegerBoundary(ByteBuffer buffer) {
+        // integers can only be split between blocks,
+        // so hop over all the blocks that end before the limit
+        int position = buffer.position(), end = buffer.limit();
+        while (position + BLOCK_HEADER_SIZE <= end) {
+            int next = position + BLOCK_HEADER_SIZE + (buffer.getShort(position + 1) & 0xFFFF);
+            if (next > end)
+                break;
+            position = next;
+        }
+        return position;
+    }
+}
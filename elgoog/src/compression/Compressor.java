@@ -1,16 +1,51 @@
 package compression;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
 public abstract class Compressor {
 
     /*
-     * returns byte[] after compressing all the integers in list
+     * returns byte[] after compressing 'length' integers of values starting at
+     * 'offset'
      */
-    public abstract byte[] encodeIntegerList(ArrayList<Integer> list);
+    public abstract byte[] encodeIntegers(int[] values, int offset, int length);
 
     /*
-     * returns ArrayList of integers after de-compressing them from the byte[]
+     * de-compresses (at most) 'count' integers from the buffer's position into
+     * dst starting at 'offset', and advances the buffer's position past them.
+     * Fewer integers are decoded only if the buffer runs out (i.e. hits its
+     * limit) first. Returns the number of integers decoded.
+     * Nothing is allocated; dst has to be big enough.
      */
-    public abstract ArrayList<Integer> decodeIntegerList(byte[] data);
+    public abstract int decodeIntegers(ByteBuffer src, int[] dst, int offset, int count);
+
+    /*
+     * returns the largest limit (<= buffer's limit) such that the bytes between
+     * the buffer's position and that limit hold only whole integers
+     */
+    public abstract int lastIntegerBoundary(ByteBuffer buffer);
+
+    /*
+     * returns the byte that is written at the beginning of an index file
+     * to record that the index was written using this compressor
+     */
+    public abstract byte getIndexHeader();
+
+    /*
+     * returns a new compressor of the kind that wrote an index with this header
+     */
+    public static Compressor forIndexHeader(byte header) {
+        switch (header) {
+        case 'U':
+            return new EmptyCompressor();
+        case 'C':
+            return new VByteEncoder();
+        case 'P':
+            return new PForDeltaEncoder();
+        case 'S':
+            return new Simple8bEncoder();
+        default:
+            throw new IllegalArgumentException("Unknown index header: " + (char) header);
+        }
+    }
 }
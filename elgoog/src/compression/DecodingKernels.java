@@ -0,0 +1,104 @@
+package compression;
+
+import java.nio.ByteBuffer;
+
+/*
+ * The two inner loops of decoding a posting list:
+ * a) unpacking a full block of bit-packed integers, and
+ * b) turning a run of deltas back into the original integers (prefix-sum).
+ *
+ * There is a scalar implementation that works everywhere, and one that uses
+ * the (incubating) JDK Vector API. The vector one is only picked if the
+ * jdk.incubator.vector module has been added to the JVM
+ * (--add-modules jdk.incubator.vector) and the vector kernels, which are in
+ * src-vector, have been compiled. Otherwise the scalar one is used.
+ *
+ * A full block of BLOCK_SIZE integers of b bits each is packed "vertically"
+ * into 4 lanes, the way a 128-bit SIMD register sees them: integer i goes into
+ * lane (i % 4), and the 4*b 32-bit words of a block are laid out as
+ * [word 0 of lane 0..3][word 1 of lane 0..3]... So unpacking the 4 lanes
+ * involves exactly the same shifts and masks, which is what lets it be vectorized.
+ */
+public abstract class DecodingKernels {
+
+    public static final int LANES = 4;
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNELS = "compression.VectorDecodingKernels";
+
+    // an instance of the vector kernels to create more from, null if the Vector API isn't there
+    private static final DecodingKernels VECTOR_KERNELS_PROTOTYPE = loadVectorKernels();
+
+    /*
+     * returns new vector kernels if the Vector API is available, scalar ones otherwise.
+     * Kernels keep scratch space, so every decoder needs its own.
+     */
+    public static DecodingKernels newInstance() {
+        if (VECTOR_KERNELS_PROTOTYPE != null)
+            return VECTOR_KERNELS_PROTOTYPE.newKernels();
+        return new ScalarDecodingKernels();
+    }
+
+    public static DecodingKernels newScalarInstance() {
+        return new ScalarDecodingKernels();
+    }
+
+    private static DecodingKernels loadVectorKernels() {
+        if (!ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent())
+            return null;
+
+        // loaded by name so that nothing links against the Vector API
+        // unless the module is actually there
+        try {
+            return (DecodingKernels) Class.forName(VECTOR_KERNELS).getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    // returns new kernels of the same kind as this one
+    protected abstract DecodingKernels newKernels();
+
+    /*
+     * unpacks BLOCK_SIZE integers of b bits each (packed by packBlock) from the
+     * buffer's position into dst starting at offset, and moves the buffer's
+     * position past them
+     */
+    public abstract void unpackBlock(ByteBuffer src, int[] dst, int offset, int b);
+
+    /*
+     * replaces the 'length' deltas in values starting at offset with their running
+     * sum, starting from 'previous'. Returns the last of the sums.
+     */
+    public abstract int prefixSum(int[] values, int offset, int length, int previous);
+
+    // true if this is not the scalar implementation
+    public abstract boolean isVectorized();
+
+    /*
+     * packs BLOCK_SIZE integers of values starting at offset, b bits each, into
+     * out in the vertical layout described above. Takes exactly 16 * b bytes.
+     */
+    public static void packBlock(int[] values, int offset, int b, ByteBuffer out) {
+        int start = out.position();
+        long mask = (b == 32) ? 0xFFFFFFFFL : (1L << b) - 1;
+        int perLane = BlockCompressor.BLOCK_SIZE / LANES;
+
+        for (int lane = 0; lane < LANES; lane++) {
+            long accumulator = 0;
+            int bits = 0, word = 0;
+            for (int j = 0; j < perLane; j++) {
+                accumulator |= (values[offset + j * LANES + lane] & mask) << bits;
+                bits += b;
+                if (bits >= 32) {
+                    out.putInt(start + 4 * (word * LANES + lane), (int) accumulator);
+                    accumulator >>>= 32;
+                    bits -= 32;
+                    word++;
+                }
+            }
+        }
+        out.position(start + 16 * b);
+    }
+}
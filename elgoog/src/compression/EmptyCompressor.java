@@ -1,41 +1,44 @@
 package compression;
 
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
 
 public class EmptyCompressor extends Compressor {
 
     /*
-     * Returns byte[] from list without any compression
+     * Returns byte[] from values without any compression
      */
     @Override
-    public byte[] encodeIntegerList(ArrayList<Integer> list) {
+    public byte[] encodeIntegers(int[] values, int offset, int length) {
 
-        ByteBuffer byteBuffer = ByteBuffer.allocate(4 * list.size());
-        IntBuffer intBuffer = byteBuffer.asIntBuffer();
-        for (Integer integer : list) {
-            intBuffer.put(integer);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(4 * length);
+        for (int i = offset; i < offset + length; i++) {
+            byteBuffer.putInt(values[i]);
         }
 
         return byteBuffer.array();
     }
 
     /*
-     * Returns list from byte[] without any decompression
+     * Reads integers from the buffer without any decompression
      */
     @Override
-    public ArrayList<Integer> decodeIntegerList(byte[] data) {
-        ArrayList<Integer> result = new ArrayList<Integer>();
-
-        int i = 0, len = data.length;
-        while (i < len) {
-            result.add(ByteBuffer.wrap(Arrays.copyOfRange(data, i, i + 4)).getInt());
-            i += 4;
+    public int decodeIntegers(ByteBuffer src, int[] dst, int offset, int count) {
+        int n = Math.min(count, src.remaining() / 4);
+        for (int i = offset; i < offset + n; i++) {
+            dst[i] = src.getInt();
         }
+        return n;
+    }
 
-        return result;
+    @Override
+    public int lastIntegerBoundary(ByteBuffer buffer) {
+        // fixed 4 bytes per integer
+        int start = buffer.position(), end = buffer.limit();
+        return end - ((end - start) % 4);
     }
 
+    @Override
+    public byte getIndexHeader() {
+        return 'U';
+    }
 }
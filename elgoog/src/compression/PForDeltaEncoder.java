@@ -0,0 +1,113 @@
+package compression;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Patched frame-of-reference (PForDelta) codec over blocks of 128 integers.
+ * The integers are expected to be small (i.e. delta-encoded) already.
+ * For every block a bit-width b is picked, and the low b bits of every integer
+ * are bit-packed. The few integers that don't fit in b bits are "exceptions";
+ * their index in the block and their remaining high bits are patched in after unpacking.
+ * b is picked so that the packed bits plus the exceptions take the least space.
+ *
+ * Payload of a block:
+ * [b : 1 byte][number of exceptions : 1 byte][packed low bits]
+ * [exception index : 1 byte, high bits : v-byte] for every exception
+ *
+ * The low bits of a full block are packed in the vertical (4-lane) layout of
+ * DecodingKernels, which can unpack them with SIMD instructions; the shorter
+ * last block of a list is packed one integer after the other by BitPacking.
+ */
+public class PForDeltaEncoder extends BlockCompressor {
+
+    // bytes an exception costs on top of its packed bits (index + v-byte)
+    private static final int EXCEPTION_COST = 3;
+
+    private DecodingKernels kernels = null;
+
+    public PForDeltaEncoder() {
+        this(DecodingKernels.newInstance());
+    }
+
+    // decodes using the given kernels i.e. to compare the scalar and vector ones
+    public PForDeltaEncoder(DecodingKernels kernels) {
+        this.kernels = kernels;
+    }
+
+    private static int bitWidth(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    @Override
+    protected void encodeBlock(int[] values, int offset, int length, ByteBuffer out) {
+
+        // how many integers need exactly 'i' bits
+        int[] widths = new int[33];
+        for (int i = offset; i < offset + length; i++) {
+            widths[bitWidth(values[i])]++;
+        }
+
+        // pick the bit-width which takes the least space
+        int b = 32, bestCost = Integer.MAX_VALUE, exceptions = 0;
+        int wider = length; // integers that need more than 'width' bits
+        for (int width = 0; width <= 32; width++) {
+            wider -= widths[width];
+            int cost = (length * width + 7) / 8 + wider * EXCEPTION_COST;
+            if (cost < bestCost) {
+                bestCost = cost;
+                b = width;
+                exceptions = wider;
+            }
+        }
+
+        out.put((byte) b);
+        out.put((byte) exceptions);
+        if (length == BLOCK_SIZE)
+            DecodingKernels.packBlock(values, offset, b, out);
+        else
+            BitPacking.pack(values, offset, length, b, out);
+
+        if (exceptions > 0) {
+            for (int i = offset; i < offset + length; i++) {
+                if (bitWidth(values[i]) > b) {
+                    out.put((byte) (i - offset));
+                    int high = values[i] >>> b;
+                    while ((high & ~0x7F) != 0) {
+                        out.put((byte) (high & 0x7F));
+                        high >>>= 7;
+                    }
+                    out.put((byte) (high | 0x80));
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void decodeBlock(ByteBuffer src, int[] dst, int offset, int length) {
+        int b = src.get() & 0xFF;
+        int exceptions = src.get() & 0xFF;
+
+        if (length == BLOCK_SIZE)
+            kernels.unpackBlock(src, dst, offset, b);
+        else
+            BitPacking.unpack(src, dst, offset, length, b);
+
+        // patch in the high bits of the exceptions
+        for (int e = 0; e < exceptions; e++) {
+            int index = offset + (src.get() & 0xFF);
+            int high = 0, shift = 0;
+            byte x;
+            while (((x = src.get()) & 0x80) == 0) {
+                high |= (x & 0x7F) << shift;
+                shift += 7;
+            }
+            high |= (x & 0x7F) << shift;
+            dst[index] |= high << b;
+        }
+    }
+
+    @Override
+    public byte getIndexHeader() {
+        return 'P';
+    }
+}
@@ -0,0 +1,58 @@
+package compression;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Plain-Java DecodingKernels, used when the Vector API isn't available.
+ */
+class ScalarDecodingKernels extends DecodingKernels {
+
+    @Override
+    protected DecodingKernels newKernels() {
+        return new ScalarDecodingKernels();
+    }
+
+    @Override
+    public void unpackBlock(ByteBuffer src, int[] dst, int offset, int b) {
+        int start = src.position();
+        int perLane = BlockCompressor.BLOCK_SIZE / LANES;
+
+        if (b == 0) {
+            for (int i = offset; i < offset + BlockCompressor.BLOCK_SIZE; i++)
+                dst[i] = 0;
+            return;
+        }
+
+        long mask = (b == 32) ? 0xFFFFFFFFL : (1L << b) - 1;
+        for (int lane = 0; lane < LANES; lane++) {
+            long accumulator = 0;
+            int bits = 0, word = 0;
+            for (int j = 0; j < perLane; j++) {
+                if (bits < b) {
+                    int packed = src.getInt(start + 4 * (word * LANES + lane));
+                    accumulator |= (packed & 0xFFFFFFFFL) << bits;
+                    bits += 32;
+                    word++;
+                }
+                dst[offset + j * LANES + lane] = (int) (accumulator & mask);
+                accumulator >>>= b;
+                bits -= b;
+            }
+        }
+        src.position(start + 16 * b);
+    }
+
+    @Override
+    public int prefixSum(int[] values, int offset, int length, int previous) {
+        for (int i = offset; i < offset + length; i++) {
+            values[i] += previous;
+            previous = values[i];
+        }
+        return previous;
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return false;
+    }
+}
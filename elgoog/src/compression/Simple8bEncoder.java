@@ -0,0 +1,78 @@
+package compression;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Simple-8b codec over blocks of 128 integers.
+ * Integers are packed into 64-bit words. The top 4 bits of a word (the selector)
+ * say how many integers the remaining 60 bits hold and how many bits each one takes.
+ * The encoder greedily picks the selector that fits the most upcoming integers.
+ * The block header knows how many integers there are, so the last word
+ * of a block may be only partly used.
+ */
+public class Simple8bEncoder extends BlockCompressor {
+
+    // integers per word, for each selector
+    private static final int[] COUNTS = { 240, 120, 60, 30, 20, 15, 12, 10, 8, 7, 6, 5, 4, 3, 2,
+            1 };
+
+    // bits per integer, for each selector
+    private static final int[] BITS = { 0, 0, 1, 2, 3, 4, 5, 6, 7, 8, 10, 12, 15, 20, 30, 60 };
+
+    @Override
+    protected void encodeBlock(int[] values, int offset, int length, ByteBuffer out) {
+        int i = offset, end = offset + length;
+        while (i < end) {
+            for (int selector = 0; selector < 16; selector++) {
+                int n = Math.min(COUNTS[selector], end - i);
+                long limit = 1L << BITS[selector];
+
+                // do the next n integers fit in this selector's bits?
+                boolean fits = true;
+                for (int j = i; j < i + n; j++) {
+                    if ((values[j] & 0xFFFFFFFFL) >= limit) {
+                        fits = false;
+                        break;
+                    }
+                }
+                if (!fits)
+                    continue;
+
+                long word = (long) selector << 60;
+                for (int j = 0; j < n; j++) {
+                    word |= (values[i + j] & 0xFFFFFFFFL) << (j * BITS[selector]);
+                }
+                out.putLong(word);
+                i += n;
+                break;
+            }
+        }
+    }
+
+    @Override
+    protected void decodeBlock(ByteBuffer src, int[] dst, int offset, int length) {
+        int i = offset, end = offset + length;
+        while (i < end) {
+            long word = src.getLong();
+            int selector = (int) (word >>> 60);
+            int b = BITS[selector];
+            int n = Math.min(COUNTS[selector], end - i);
+
+            if (b == 0) {
+                for (int j = 0; j < n; j++)
+                    dst[i++] = 0;
+            } else {
+                long mask = (1L << b) - 1;
+                for (int j = 0; j < n; j++) {
+                    dst[i++] = (int) (word & mask);
+                    word >>>= b;
+                }
+            }
+        }
+    }
+
+    @Override
+    public byte getIndexHeader() {
+        return 'S';
+    }
+}
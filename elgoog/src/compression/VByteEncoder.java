@@ -1,44 +1,64 @@
 package compression;
 
-import java.io.ByteArrayOutputStream;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
 public class VByteEncoder extends Compressor {
 
     @Override
-    public byte[] encodeIntegerList(ArrayList<Integer> list) {
-        // Use ByteArrayOutputStream instead of ByteBuffer
-        // since ByteBuffer requires early allocation
-        // and we don't know the size post-encoding yet
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    public byte[] encodeIntegers(int[] values, int offset, int length) {
+        // find the size post-encoding first so that
+        // the result can be allocated exactly once
+        int size = 0;
+        for (int j = offset; j < offset + length; j++) {
+            int i = values[j];
+            do {
+                size++;
+                i >>>= 7;
+            } while (i != 0);
+        }
 
-        for (Integer i : list) {
-            while (i >= 128) {
-                bos.write((byte) (i & 0x7F));
+        byte[] result = new byte[size];
+        int k = 0;
+        for (int j = offset; j < offset + length; j++) {
+            int i = values[j];
+            while ((i & ~0x7F) != 0) {
+                result[k++] = (byte) (i & 0x7F);
                 i >>>= 7;
             }
-            bos.write((byte) (i | 0x80));
+            result[k++] = (byte) (i | 0x80);
         }
-        return bos.toByteArray();
+        return result;
     }
 
     @Override
-    public ArrayList<Integer> decodeIntegerList(byte[] data) {
-        ArrayList<Integer> result = new ArrayList<Integer>();
-        int len = data.length;
-        for (int i = 0; i < len; i++) {
-            int position = 0;
-            int decode = (int) (data[i] & 0x7F);
-
-            while ((data[i] & 0x80) == 0) {
-                i += 1;
-                position += 1;
-                int unsignedByte = (int) (data[i] & 0x7F);
-                decode |= (unsignedByte << (7 * position));
+    public int decodeIntegers(ByteBuffer src, int[] dst, int offset, int count) {
+        int n = 0;
+        while (n < count && src.hasRemaining()) {
+            // the last byte of an integer has its high-bit set
+            int decode = 0, shift = 0;
+            byte b;
+            while (((b = src.get()) & 0x80) == 0) {
+                decode |= (b & 0x7F) << shift;
+                shift += 7;
             }
+            dst[offset + n] = decode | ((b & 0x7F) << shift);
+            n++;
+        }
+        return n;
+    }
 
-            result.add(decode);
+    @Override
+    public int lastIntegerBoundary(ByteBuffer buffer) {
+        // an integer ends at the byte with its high-bit set
+        int start = buffer.position(), end = buffer.limit();
+        while (end > start && (buffer.get(end - 1) & 0x80) == 0) {
+            end--;
         }
-        return result;
+        return end;
+    }
+
+    @Override
+    public byte getIndexHeader() {
+        return 'C';
     }
 }
@@ -0,0 +1,139 @@
+package index;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/* The impact-ordered copy of an InvertedFileIndex (the .impacts file, see
+ * InvertedFileIndex.writeImpactOrderedToDisk()), for score-at-a-time retrieval.
+ *
+ * The file is
+ * [number of terms] [score per impact level (double)]
+ * [offset of each term's list, and of the end of the last (long x (number of terms + 1))]
+ * followed by the lists in the order of the terms in the dictionary. A list is
+ * split into segments of postings with the same impact, highest impact first
+ * (see ImpactOrderedList).
+ *
+ * A single mapping can't be bigger than 2GB, so the file is mapped in segments
+ * the way a MappedInvertedFileIndex is: segment i starts at i * SEGMENT_SIZE
+ * and is (up to) twice as long, so a list of at most SEGMENT_SIZE bytes lies
+ * within the segment it starts in. A longer list (it still has to be under
+ * 2GB, it's written from one byte[]) is mapped on its own when it's asked for.
+ */
+
+public class ImpactOrderedIndex {
+
+    // the impacts are quantized into 1 .. IMPACT_LEVELS
+    public static final int IMPACT_LEVELS = 255;
+
+    private static final long SEGMENT_SIZE = InvertedFileIndex.MAX_PIECE_SIZE;
+
+    // the index whose dictionary has the terms
+    private InvertedFileIndex index;
+
+    private String filename;
+
+    // the whole .impacts file mapped into memory
+    private MappedByteBuffer[] segments = null;
+    private int numTerms = 0;
+    private double scorePerLevel = 1.0;
+
+    public ImpactOrderedIndex(InvertedFileIndex i) {
+        index = i;
+        filename = index.indexFileNameString + ".impacts";
+
+        try {
+            RandomAccessFile file = new RandomAccessFile(filename, "r");
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+
+            int numSegments = (int) Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[numSegments];
+            for (int s = 0; s < numSegments; s++) {
+                long start = s * SEGMENT_SIZE;
+                long length = Math.min(size - start, 2 * SEGMENT_SIZE - 1);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+            // the mapping stays valid even after the channel is closed
+            file.close();
+
+            numTerms = segments[0].getInt(0);
+            scorePerLevel = segments[0].getDouble(4);
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Couldn't map the impact-ordered index of " + index.indexFileNameString, e);
+        }
+    }
+
+    // size of the header and the table of offsets, where the first list begins
+    static long headerSize(int numTerms) {
+        return 4 + 8 + 8L * (numTerms + 1);
+    }
+
+    /**
+     * @return the BM25 score that one impact level stands for
+     */
+    public double getScorePerLevel() {
+        return scorePerLevel;
+    }
+
+    /**
+     * @return the impact-ordered list of the term or null if the term isn't in
+     *         the index
+     */
+    public ImpactOrderedList getImpactOrderedListForTerm(String term) {
+        if (segments == null)
+            return null;
+
+        // load the lookup table if not already done
+        if (index.dictionary == null) {
+            index.loadLookupTable();
+        }
+
+        int ordinal = index.dictionary.lookup(term);
+        if (ordinal < 0 || ordinal >= numTerms) {
+            // term not present in index
+            return null;
+        }
+
+        // the offsets come after the number of terms and the score per level
+        long offsetOfOffset = 4 + 8 + 8L * ordinal;
+        long start = getLong(offsetOfOffset);
+        long end = getLong(offsetOfOffset + 8);
+
+        return new ImpactOrderedList(term, getBytes(start, end));
+    }
+
+    // the long at the position in the file - it lies within the segment
+    // the position is in
+    private long getLong(long position) {
+        int segment = (int) (position / SEGMENT_SIZE);
+        return segments[segment].getLong((int) (position - segment * SEGMENT_SIZE));
+    }
+
+    // the bytes of the file from start up to end, out of the segment they're in
+    // (or a mapping of their own, if they're too many for that)
+    private ByteBuffer getBytes(long start, long end) {
+        if (end - start > SEGMENT_SIZE) {
+            try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                    StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Couldn't map a list of " + filename, e);
+            }
+        }
+
+        // through a duplicate, so the position of the shared mapping is never touched
+        int segment = (int) (start / SEGMENT_SIZE);
+        int offset = (int) (start - segment * SEGMENT_SIZE);
+        ByteBuffer list = segments[segment].duplicate();
+        list.limit(offset + (int) (end - start));
+        list.position(offset);
+        return list.slice();
+    }
+}
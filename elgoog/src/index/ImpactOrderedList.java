@@ -0,0 +1,95 @@
+package index;
+
+import java.nio.ByteBuffer;
+
+import compression.VByteEncoder;
+
+/*
+ * A term's postings, impact-ordered (see ImpactOrderedIndex): segments of the
+ * docs with the same (quantized) impact, highest impact first. The list is
+ * [number of segments] [impact, number of postings, number of bytes] per segment
+ * and then the docIds of each segment, in increasing order as v-byte encoded gaps.
+ * A segment's docIds are decoded only when asked for.
+ */
+
+public class ImpactOrderedList {
+
+    private String term;
+
+    private int numSegments;
+    private int[] impacts;
+    private int[] segmentLengths;
+
+    // where each segment's docIds begin in the buffer
+    private int[] segmentOffsets;
+
+    private ByteBuffer list;
+
+    private static final VByteEncoder decoder = new VByteEncoder();
+
+    ImpactOrderedList(String t, ByteBuffer l) {
+        term = t;
+        list = l;
+
+        numSegments = list.getInt(0);
+        impacts = new int[numSegments];
+        segmentLengths = new int[numSegments];
+        segmentOffsets = new int[numSegments];
+
+        int offset = 4 + 12 * numSegments;
+        for (int s = 0; s < numSegments; s++) {
+            impacts[s] = list.getInt(4 + 12 * s);
+            segmentLengths[s] = list.getInt(4 + 12 * s + 4);
+            segmentOffsets[s] = offset;
+            offset += list.getInt(4 + 12 * s + 8);
+        }
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public int getNumSegments() {
+        return numSegments;
+    }
+
+    /**
+     * @return the impact level of the segment's postings
+     */
+    public int getImpact(int segment) {
+        return impacts[segment];
+    }
+
+    /**
+     * @return the number of postings in the segment
+     */
+    public int getSegmentLength(int segment) {
+        return segmentLengths[segment];
+    }
+
+    /**
+     * @return the number of postings in the list (that have an impact)
+     */
+    public int getNumPostings() {
+        int numPostings = 0;
+        for (int length : segmentLengths) {
+            numPostings += length;
+        }
+        return numPostings;
+    }
+
+    /**
+     * decodes the docIds of the segment into docIds, which has to have room for
+     * getSegmentLength(segment) of them
+     */
+    public void decodeSegment(int segment, int[] docIds) {
+        ByteBuffer segmentBytes = list.duplicate();
+        segmentBytes.position(segmentOffsets[segment]);
+
+        int n = segmentLengths[segment];
+        decoder.decodeIntegers(segmentBytes, docIds, 0, n);
+        for (int i = 1; i < n; i++) {
+            docIds[i] += docIds[i - 1];
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package index;
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 
 public abstract class Index {
@@ -8,14 +9,29 @@ public abstract class Index {
 
     public abstract int getNumDocs();
 
-    public abstract int getNumWordsInCollection();
+    // the collection statistics are computed once at index time,
+    // so these are constant-time
+    public abstract long getNumWordsInCollection();
+
+    public abstract int getVocabularySize();
+
+    public abstract double getAverageDocumentLength();
 
     public abstract ArrayList<String> getVocabListFromIndex();
 
     public abstract int getCollectionFrequencyForTerm(String term);
 
+    // upper bounds on what a term can score in any one document,
+    // computed at index time
+    public abstract int getMaxTermFrequencyForTerm(String term);
+
+    public abstract double getMaxBM25TermFrequencyComponentForTerm(String term);
+
     public abstract int getNumWordsInDocument(int docId);
 
+    // the length (number of words) of every document, indexed by docId
+    public abstract IntBuffer getDocumentLengths();
+
     public abstract ArrayList<String> getBackingDocumentIDs();
 
     public abstract Double getPriorForDocument(int docId, String priorLookupFile);
@@ -1,60 +1,78 @@
 package index;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
-import java.util.AbstractMap.SimpleEntry;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map.Entry;
 
 import org.apache.commons.io.IOUtils;
 import org.json.JSONObject;
 
 import cluster.DocumentVectorFactory;
+import compression.Compressor;
 import compression.EmptyCompressor;
 import compression.VByteEncoder;
 import reader.Document;
+import retriever.evaluation.BM25Evaluator;
 
 /* This is the InvertedFile-Index class.
  * This class can be used to:
  * 1) create an in-memory index from a document store and write that to disk
  * 2) create an in-memory index from a file on disk.
+ *
+ * Once written, an index can be read by any number of threads at once - the
+ * lists are read with positional reads that don't move a shared file pointer,
+ * and whatever is loaded lazily (dictionary, statistics, document lengths) is
+ * loaded once and published safely. Retrievers and evaluators aren't
+ * thread-safe, so each thread serving queries has its own over the shared index.
  */
 
 public class InvertedFileIndex extends Index {
 
-    // the inverted index file on disk
+    // the inverted index file on disk, while it is being written
     private RandomAccessFile binaryFile = null;
 
+    // the index file opened for reading, shared by all the threads reading lists
+    // (a thread that's interrupted while reading closes it for everyone - it's
+    // opened again by the next read, see readIndexFile())
+    private volatile FileChannel indexChannel = null;
+
+    // read once from the first byte of the index file when it is opened
+    private byte indexHeader = 'U';
+
     // filename where the index will be written or will be read from
-    private String indexFileNameString = null;
+    protected String indexFileNameString = null;
 
     // list of inverted-lists for every term in the vocab
     private HashMap<String, InvertedList> invListLookup;
 
-    // This map will be loaded from the lookup file
-    // when you want to reconstruct the index from disk.
-    // note that the offset here is where the list for a term BEGINS
-    private LinkedHashMap<String, Integer> termToOffsetMap = null;
-
-    // Map of term to Document-frequency
-    // will be constructed from the index file on disk
-    private HashMap<String, Integer> termtoDFMap = null;
-
-    // Map of term to Collection-frequency
-    // will be constructed from the index file on disk
-    private HashMap<String, Integer> termtoCFMap = null;
-
-    // Map of term to the number of bytes to read for this term
-    private HashMap<String, Integer> termToReadBytesMap = null;
+    // The binary term-dictionary (.dict file) which has the offset, length,
+    // document-frequency and collection-frequency of every term.
+    // It will be loaded when you want to reconstruct the index from disk.
+    // It is set last when loading, so a thread that sees it sees the statistics too.
+    protected volatile TermDictionary dictionary = null;
 
     private ArrayList<String> backingDocumentIDs = null;
 
@@ -62,12 +80,31 @@ public class InvertedFileIndex extends Index {
     // and read from the .metadata file
     private int numDocs = 0;
 
+    // total number of words in the collection and number of distinct terms.
+    // These are computed once at index time and read from the .metadata file
+    // along with the number of docs
+    private long numWordsInCollection = 0;
+    private int vocabularySize = 0;
+
+    // length of every document, indexed by docId. This will be written to
+    // and memory-mapped from the .lengths file (an int per document)
+    private volatile IntBuffer documentLengths = null;
+
     // Document-vector factory of this index for clustering
     DocumentVectorFactory documentVectorFactory = null;
 
     // the file to load the priors from
     private String priorFile = null;
 
+    // The index of adjacent term pairs ("biwords", keyed by the two terms with a
+    // space in between) which is written along with this one into files with
+    // BIWORD_EXTENSION added to the name. A pair is kept if it occurs at least
+    // biwordThreshold times in the collection, and none are if that is 0.
+    public static final String BIWORD_EXTENSION = ".biwords";
+    private int biwordThreshold = 0;
+    private volatile InvertedFileIndex biwordIndex = null;
+    private volatile boolean biwordIndexOpened = false;
+
     public InvertedFileIndex(String filename) {
         super();
         invListLookup = new HashMap<String, InvertedList>();
@@ -75,24 +112,27 @@ public class InvertedFileIndex extends Index {
     }
 
     public void createIndexFromDocumentStore(ArrayList<Document> docs) {
-        // write the number of docs into a metadata file
-        PrintWriter pw = null;
-        try {
-            pw = new PrintWriter(indexFileNameString + ".metadata");
-        } catch (FileNotFoundException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-        pw.write(docs.size() + "\n");
 
         documentVectorFactory = new DocumentVectorFactory();
+        backingDocumentIDs = new ArrayList<String>();
+        int[] lengths = new int[docs.size()];
+        numWordsInCollection = 0;
+
+        // the lists of adjacent term pairs, if they're to be indexed too
+        HashMap<String, InvertedList> biwordLookup = (biwordThreshold > 0)
+                ? new HashMap<String, InvertedList>()
+                : null;
 
         for (Document doc : docs) {
-            // write the backing document id of each doc into a separate line
-            pw.write(doc.getBackingId() + "\n");
+            backingDocumentIDs.add(doc.getBackingId());
             String[] termVector = doc.getTermVector();
+            numWordsInCollection += termVector.length;
+            if (doc.getDocumentUniqueId() >= lengths.length)
+                lengths = Arrays.copyOf(lengths, doc.getDocumentUniqueId() + 1);
+            lengths[doc.getDocumentUniqueId()] = termVector.length;
             int termPosition = 1;
             InvertedList list = null;
+            String previousTerm = null;
             for (String term : termVector) {
                 // check if invertedList for this term exists
                 if (invListLookup.containsKey(term)) {
@@ -103,6 +143,19 @@ public class InvertedFileIndex extends Index {
                 }
                 list.addPositionToPosting(doc.getDocumentUniqueId(), termPosition);
                 invListLookup.put(term, list);
+
+                // the pair this term makes with the one before it is at the
+                // position of the one before it
+                if (biwordLookup != null && previousTerm != null) {
+                    String biword = previousTerm + " " + term;
+                    InvertedList biwordList = biwordLookup.get(biword);
+                    if (biwordList == null) {
+                        biwordList = new InvertedList(biword);
+                        biwordLookup.put(biword, biwordList);
+                    }
+                    biwordList.addPositionToPosting(doc.getDocumentUniqueId(), termPosition - 1);
+                }
+                previousTerm = term;
                 termPosition++;
 
                 // add into the document vector of this document
@@ -110,62 +163,236 @@ public class InvertedFileIndex extends Index {
             }
         }
 
-        // close the metadata file
-        pw.close();
+        numDocs = docs.size();
+        vocabularySize = invListLookup.size();
+        writeMetadata();
+
+        writeDocumentLengths(lengths);
+        documentLengths = IntBuffer.wrap(lengths);
+
+        if (biwordLookup != null)
+            createBiwordIndex(biwordLookup, lengths);
+    }
+
+    // The adjacent term pairs that occur at least this many times in the collection
+    // are indexed as well by createIndexFromDocumentStore(), to match exact phrases
+    // with (see OrderedWindowProximityNode). 0, the default, indexes none.
+    public void setBiwordThreshold(int minCollectionFrequency) {
+        biwordThreshold = minCollectionFrequency;
     }
 
-    private long writeToBinaryFile(ArrayList<Integer> list, boolean compress) {
+    // keeps the pairs that occur often enough in an index of their own,
+    // which is written to disk along with this one
+    private void createBiwordIndex(HashMap<String, InvertedList> biwordLookup, int[] lengths) {
+        InvertedFileIndex biwords = new InvertedFileIndex(indexFileNameString + BIWORD_EXTENSION);
+
+        long numBiwordsInCollection = 0;
+        for (Entry<String, InvertedList> entry : biwordLookup.entrySet()) {
+            int collectionFrequency = entry.getValue().getCollectionFrequency();
+            numBiwordsInCollection += collectionFrequency;
+            if (collectionFrequency >= biwordThreshold)
+                biwords.invListLookup.put(entry.getKey(), entry.getValue());
+        }
+
+        biwords.backingDocumentIDs = backingDocumentIDs;
+        biwords.numDocs = numDocs;
+        biwords.numWordsInCollection = numBiwordsInCollection;
+        biwords.vocabularySize = biwords.invListLookup.size();
+        biwords.writeMetadata();
+
+        // the docs are as long as they are in this index
+        biwords.writeDocumentLengths(lengths);
+        biwords.documentLengths = IntBuffer.wrap(lengths);
+
+        biwordIndex = biwords;
+        biwordIndexOpened = true;
+    }
+
+    /**
+     * @return the index of adjacent term pairs written along with this index,
+     *         or null if there's none
+     */
+    public InvertedFileIndex getBiwordIndex() {
+        if (!biwordIndexOpened) {
+            synchronized (this) {
+                if (!biwordIndexOpened) {
+                    String filename = indexFileNameString + BIWORD_EXTENSION;
+                    if (new File(filename + ".dict").exists())
+                        biwordIndex = openBiwordIndex(filename);
+                    biwordIndexOpened = true;
+                }
+            }
+        }
+
+        return biwordIndex;
+    }
+
+    // the biword index is read the same way as this one
+    protected InvertedFileIndex openBiwordIndex(String filename) {
+        return new InvertedFileIndex(filename);
+    }
+
+    // writes the collection statistics into the first line of
+    // index's file-name + ".metadata", and the backing document id
+    // of each doc into a separate line after that
+    private void writeMetadata() {
+        try {
+            PrintWriter pw = new PrintWriter(indexFileNameString + ".metadata");
+            pw.write(numDocs + " " + numWordsInCollection + " " + vocabularySize + "\n");
+            for (String backingId : backingDocumentIDs) {
+                pw.write(backingId + "\n");
+            }
+            pw.close();
+        } catch (FileNotFoundException e) {
+            throw new UncheckedIOException("Couldn't write the metadata of " + indexFileNameString,
+                    e);
+        }
+    }
+
+    // writes the length of every document (as a big-endian int, in docId order)
+    // into index's file-name + ".lengths"
+    private void writeDocumentLengths(int[] lengths) {
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFileNameString + ".lengths")));
+            for (int length : lengths) {
+                out.writeInt(length);
+            }
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Couldn't write the document lengths of " + indexFileNameString, e);
+        }
+    }
 
-        byte[] toWrite = null;
+    // memory-maps the .lengths file. An index written before there was one
+    // gets its lengths added up from the inverted lists instead, once.
+    private IntBuffer loadDocumentLengths() {
+        File file = new File(indexFileNameString + ".lengths");
+        if (file.exists()) {
+            try {
+                RandomAccessFile lengthsFile = new RandomAccessFile(file, "r");
+                FileChannel channel = lengthsFile.getChannel();
+                IntBuffer lengths = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                        .asIntBuffer();
+                // the mapping stays valid even after the channel is closed
+                lengthsFile.close();
+                return lengths;
+            } catch (IOException e) {
+                // (a .lengths file that's there but can't be read isn't
+                // worked around - the lengths from it would be wrong)
+                throw new UncheckedIOException("Couldn't read " + file, e);
+            }
+        }
 
-        if (compress) {
-            VByteEncoder compressor = new VByteEncoder();
-            toWrite = compressor.encodeIntegerList(list);
-        } else {
-            EmptyCompressor compressor = new EmptyCompressor();
-            toWrite = compressor.encodeIntegerList(list);
+        int[] lengths = new int[getNumDocs()];
+        for (String term : getVocabListFromIndex()) {
+            InvertedList list = getInvertedListForTerm(term);
+            for (int i = 0; i < list.getDocumentFrequency(); i++) {
+                Posting posting = list.getPostingAt(i);
+                lengths[posting.getDocId()] += posting.getTermFrequency();
+            }
         }
+        return IntBuffer.wrap(lengths);
+    }
+
+    private long writeToBinaryFile(byte[] toWrite) {
 
         try {
             binaryFile.write(toWrite);
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            throw new UncheckedIOException("Couldn't write to " + indexFileNameString, e);
         }
         return toWrite.length;
     }
 
-    private void writeLookupEntry(PrintWriter writer, String key, long length, int df, int cf) {
-        writer.println(key + " " + length + " " + df + " " + cf);
+    public void writeSelfToDisk(boolean compress) {
+        writeSelfToDisk(compress ? new VByteEncoder() : new EmptyCompressor());
     }
 
-    public void writeSelfToDisk(boolean compress) {
+    /*
+     * Writes the index using the given compressor. Its header byte is the first
+     * byte of the index file, so that a reader knows how to decode the lists.
+     * Every compressor other than the EmptyCompressor gets delta-encoded lists.
+     */
+    public void writeSelfToDisk(Compressor compressor) {
+
+        boolean compress = !(compressor instanceof EmptyCompressor);
+
+        // the dictionary needs the terms in sorted order
+        // so write the inverted lists to disk in that order as well
+        ArrayList<String> terms = new ArrayList<String>(invListLookup.keySet());
+        terms.sort(TermDictionary::compareTerms);
+
+        int numTerms = terms.size();
+        long[] offsets = new long[numTerms];
+        long[] lengths = new long[numTerms];
+        int[] documentFrequencies = new int[numTerms];
+        int[] collectionFrequencies = new int[numTerms];
+        int[] maxTermFrequencies = new int[numTerms];
+        float[] maxBM25TermFrequencyComponents = new float[numTerms];
 
-        // open RAF and lookup-table writer
+        // the documents' lengths go into the BM25 upper bounds
+        IntBuffer docLengths = getDocumentLengths();
+        double averageDocumentLength = (double) numWordsInCollection / (double) numDocs;
+
+        // open RAF
         try {
+            // a list read from here on has to come from the file being written
+            if (indexChannel != null) {
+                indexChannel.close();
+                indexChannel = null;
+            }
+
             binaryFile = new RandomAccessFile(indexFileNameString, "rw");
-            // the offset files have .ttol extension
-            PrintWriter termToOffsetLookupFile = new PrintWriter(indexFileNameString + ".ttol");
 
             // move raf to the beginning of the file every time before writing an index
             binaryFile.seek(0);
             binaryFile.setLength(0); // truncate any existing content
 
-            if (compress)
-                binaryFile.write('C');
-            else
-                binaryFile.write('U');
+            binaryFile.write(compressor.getIndexHeader());
 
             long totalBytesWritten = binaryFile.length();
 
-            for (Entry<String, InvertedList> list : invListLookup.entrySet()) {
-                InvertedList temp = list.getValue();
+            for (int i = 0; i < numTerms; i++) {
+                InvertedList temp = invListLookup.get(terms.get(i));
+
+                // upper bounds on what this term can score in any one doc
+                // of each block of its list, and of the whole list
+                int df = temp.getDocumentFrequency();
+                int numBlocks = PostingBlocks.numBlocks(df);
+                int[] blockMaxTermFrequencies = new int[numBlocks];
+                float[] blockMaxBM25TermFrequencyComponents = new float[numBlocks];
+                for (int block = 0; block < numBlocks; block++) {
+                    double maxBM25TermFrequencyComponent = 0;
+                    int from = block * PostingBlocks.SKIP_INTERVAL;
+                    for (int j = from; j < Math.min(df, from + PostingBlocks.SKIP_INTERVAL); j++) {
+                        Posting posting = temp.getPostingAt(j);
+                        blockMaxTermFrequencies[block] = Math.max(blockMaxTermFrequencies[block],
+                                posting.getTermFrequency());
+                        maxBM25TermFrequencyComponent = Math.max(maxBM25TermFrequencyComponent,
+                                BM25Evaluator.getTermFrequencyComponent(
+                                        posting.getTermFrequency(),
+                                        docLengths.get(posting.getDocId()),
+                                        averageDocumentLength));
+                    }
+                    blockMaxBM25TermFrequencyComponents[block] = roundUpToFloat(
+                            maxBM25TermFrequencyComponent);
+
+                    maxTermFrequencies[i] = Math.max(maxTermFrequencies[i],
+                            blockMaxTermFrequencies[block]);
+                    maxBM25TermFrequencyComponents[i] = Math.max(maxBM25TermFrequencyComponents[i],
+                            blockMaxBM25TermFrequencyComponents[block]);
+                }
 
-                // write this term's offset in the index into the lookup table
-                writeLookupEntry(termToOffsetLookupFile, list.getKey(), totalBytesWritten,
-                        temp.getDocumentFrequency(), temp.getCollectionFrequency());
+                // note down where this term's list begins in the index
+                offsets[i] = totalBytesWritten;
+                lengths[i] = writeToBinaryFile(PostingBlocks.encode(temp, compressor, compress,
+                        blockMaxTermFrequencies, blockMaxBM25TermFrequencyComponents));
+                documentFrequencies[i] = df;
+                collectionFrequencies[i] = temp.getCollectionFrequency();
 
-                totalBytesWritten += writeToBinaryFile(temp.getList(compress), compress);
+                totalBytesWritten += lengths[i];
             }
 
             // System.out.println("Total bytes written to disk: " + totalBytesWritten);
@@ -173,135 +400,329 @@ public class InvertedFileIndex extends Index {
             // close all files on disk
             binaryFile.close();
             binaryFile = null;
-            termToOffsetLookupFile.close();
-            termToOffsetLookupFile = null;
+
+            // the dictionary files have .dict extension
+            TermDictionary.writeToDisk(indexFileNameString + ".dict", terms, offsets, lengths,
+                    documentFrequencies, collectionFrequencies, maxTermFrequencies,
+                    maxBM25TermFrequencyComponents);
 
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            throw new UncheckedIOException("Couldn't write the index " + indexFileNameString, e);
         }
+
+        // the biword index built along with this one is written the same way
+        // (one that was opened from disk has no lists in memory to write)
+        if (biwordIndex != null && !biwordIndex.invListLookup.isEmpty())
+            biwordIndex.writeSelfToDisk(compressor);
     }
 
     /*
-     * This API reconstructs a completely in-memory index from the index-file on
-     * disk. ONLY FOR VALIDATION PURPOSES. Retrieval doesn't use this API!
+     * Writes an impact-ordered copy of the index into index's file-name +
+     * ".impacts" (see ImpactOrderedIndex), for score-at-a-time retrieval.
+     * Every posting's impact is what it scores with BM25 for a term that is in
+     * the query once, quantized into IMPACT_LEVELS levels of equal width up to
+     * the highest impact in the index. The postings of a term with the same
+     * impact make up a segment, and the segments are written in decreasing
+     * order of impact. Postings that score zero or below (of terms in at least
+     * half the docs) are left out.
+     * The lists are in the order of the terms in the dictionary, so the file
+     * goes with the .dict file that writeSelfToDisk() writes for this index.
      */
-    private InvertedList constructInvertedListFromByteArray(boolean compressed, byte[] buffer,
-            String term) {
-
-        ArrayList<Integer> list = null;
-        InvertedList invertedList = new InvertedList(term);
-
-        if (compressed) {
-            VByteEncoder vByteDecoder = new VByteEncoder();
-            list = vByteDecoder.decodeIntegerList(buffer);
-        } else {
-            EmptyCompressor emptyDecoder = new EmptyCompressor();
-            list = emptyDecoder.decodeIntegerList(buffer);
-        }
-
-        int index, len = list.size();
-        // System.out.println(list);
-        int prevDocId = 0;
-        for (index = 0; index < len;) {
-            int docId = list.get(index);
-
-            if (compressed) {
-                // delta decoding of docId
-                docId += prevDocId;
-                prevDocId = docId;
+    public void writeImpactOrderedToDisk() {
+
+        ArrayList<String> terms = new ArrayList<String>(invListLookup.keySet());
+        terms.sort(TermDictionary::compareTerms);
+        int numTerms = terms.size();
+
+        IntBuffer docLengths = getDocumentLengths();
+        double averageDocumentLength = getAverageDocumentLength();
+        int n = getNumDocs();
+
+        // the BM25 score of every posting, list by list
+        double[][] impacts = new double[numTerms][];
+        double maxImpact = 0.0;
+        for (int i = 0; i < numTerms; i++) {
+            InvertedList list = invListLookup.get(terms.get(i));
+            int df = list.getDocumentFrequency();
+            double idf = Math.log((n - df + 0.5) / (df + 0.5));
+
+            impacts[i] = new double[df];
+            for (int j = 0; j < df; j++) {
+                Posting posting = list.getPostingAt(j);
+                impacts[i][j] = idf * BM25Evaluator.getTermFrequencyComponent(
+                        posting.getTermFrequency(), docLengths.get(posting.getDocId()),
+                        averageDocumentLength);
+                maxImpact = Math.max(maxImpact, impacts[i][j]);
+            }
+        }
+
+        double scorePerLevel = (maxImpact > 0) ? maxImpact / ImpactOrderedIndex.IMPACT_LEVELS
+                : 1.0;
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFileNameString + ".impacts")));
+
+            // the lists go right after the header and the table of where each begins
+            byte[][] lists = new byte[numTerms][];
+            long offset = ImpactOrderedIndex.headerSize(numTerms);
+            out.writeInt(numTerms);
+            out.writeDouble(scorePerLevel);
+            for (int i = 0; i < numTerms; i++) {
+                lists[i] = encodeImpactOrderedList(invListLookup.get(terms.get(i)), impacts[i],
+                        scorePerLevel);
+                out.writeLong(offset);
+                offset += lists[i].length;
             }
-            index++;
-
-            // get tf, which is not delta-encoded
-            int tf = list.get(index);
-            index++;
-            int prevPosition = 0;
-            for (int i = 0; i < tf; i++) {
-                int position = list.get(index);
-                index++;
-                if (compressed) {
-                    // delta decoding
-                    position += prevPosition;
-                    prevPosition = position;
+            out.writeLong(offset);
+
+            for (byte[] list : lists) {
+                out.write(list);
+            }
+            out.close();
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Couldn't write the impact-ordered index of " + indexFileNameString, e);
+        }
+    }
+
+    // [number of segments] [impact, number of postings, number of bytes] per segment,
+    // and then the docIds of every segment (increasing, v-byte encoded gaps)
+    private static byte[] encodeImpactOrderedList(InvertedList list, double[] impacts,
+            double scorePerLevel) throws IOException {
+
+        // bucket the postings by their quantized impact, keeping them in docId order
+        int df = list.getDocumentFrequency();
+        int[] levels = new int[df];
+        int[] segmentSizes = new int[ImpactOrderedIndex.IMPACT_LEVELS + 1];
+        for (int j = 0; j < df; j++) {
+            if (impacts[j] > 0) {
+                levels[j] = Math.max(1, Math.min(ImpactOrderedIndex.IMPACT_LEVELS,
+                        (int) Math.round(impacts[j] / scorePerLevel)));
+                segmentSizes[levels[j]]++;
+            }
+        }
+
+        ByteArrayOutputStream segmentHeaders = new ByteArrayOutputStream();
+        DataOutputStream headers = new DataOutputStream(segmentHeaders);
+        ByteArrayOutputStream segmentDocIds = new ByteArrayOutputStream();
+        VByteEncoder encoder = new VByteEncoder();
+        int numSegments = 0;
+
+        for (int level = ImpactOrderedIndex.IMPACT_LEVELS; level > 0; level--) {
+            if (segmentSizes[level] == 0)
+                continue;
+
+            int[] gaps = new int[segmentSizes[level]];
+            int n = 0, previousDocId = 0;
+            for (int j = 0; j < df; j++) {
+                if (levels[j] == level) {
+                    int docId = list.getPostingAt(j).getDocId();
+                    gaps[n++] = docId - previousDocId;
+                    previousDocId = docId;
                 }
+            }
+
+            byte[] encoded = encoder.encodeIntegers(gaps, 0, n);
+            headers.writeInt(level);
+            headers.writeInt(n);
+            headers.writeInt(encoded.length);
+            segmentDocIds.write(encoded);
+            numSegments++;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(numSegments);
+        segmentHeaders.writeTo(out);
+        segmentDocIds.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // the smallest float that is not less than the value, so that
+    // it is still an upper bound after being written as a float
+    private static float roundUpToFloat(double value) {
+        float rounded = (float) value;
+        return (rounded < value) ? Math.nextUp(rounded) : rounded;
+    }
 
-                invertedList.addPositionToPosting(docId, position);
+    // Lists are read (and decoded) in pieces of at most this many bytes,
+    // so a list need not fit into a single byte[]
+    static final int MAX_PIECE_SIZE = 1 << 30;
+
+    // opens the index file for reading if not already done
+    private FileChannel getIndexChannel() throws IOException {
+        FileChannel channel = indexChannel;
+        if (channel != null)
+            return channel;
+
+        synchronized (this) {
+            if (indexChannel == null) {
+                channel = FileChannel.open(Paths.get(indexFileNameString),
+                        StandardOpenOption.READ);
+
+                // the first byte tells how the index was compressed
+                ByteBuffer header = ByteBuffer.allocate(1);
+                readFully(channel, header, 0);
+                indexHeader = header.get(0);
+                indexChannel = channel;
             }
+            return indexChannel;
         }
+    }
 
-        return invertedList;
+    // fills the buffer from the file starting at offset - without moving the
+    // channel's position, so any number of threads can do this at once
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset)
+            throws IOException {
+        long position = offset - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
     }
 
-    // This method loads the lookup-table.
-    // The lookup-table completely resides in memory.
-    private void loadLookupTable() {
-        if (termToOffsetMap == null) {
+    /*
+     * Fills the buffer from the index file starting at offset, like readFully().
+     * A FileChannel is interruptible: a thread that's interrupted while reading it
+     * closes it, and so every other thread's read fails too. Here the thread
+     * that was interrupted gets its ClosedByInterruptException, and the rest open
+     * the file again and read on - the reads after them as well.
+     */
+    private void readIndexFile(ByteBuffer buffer, long offset) throws IOException {
+        int start = buffer.position();
+        while (true) {
+            FileChannel channel = getIndexChannel();
             try {
-                BufferedReader termToOffsetLookupFile = new BufferedReader(
-                        new FileReader(indexFileNameString + ".ttol"));
-
-                // construct the term-offset lookup table first
-                // first add the entries from the file into a List.
-                String line;
-                List<Entry<String, Integer>> list = new ArrayList<Entry<String, Integer>>();
-                termtoDFMap = new HashMap<String, Integer>();
-                termtoCFMap = new HashMap<String, Integer>();
-                termToReadBytesMap = new HashMap<String, Integer>();
-
-                while ((line = termToOffsetLookupFile.readLine()) != null) {
-                    String[] terms = line.split("\\s+");
-                    int offset = Integer.valueOf(terms[1]);
-                    int df = Integer.valueOf(terms[2]); // document frequency
-                    int cf = Integer.valueOf(terms[3]); // collection-frequency
-                    list.add(new SimpleEntry<String, Integer>(terms[0], offset));
-                    termtoDFMap.put(terms[0], df);
-                    termtoCFMap.put(terms[0], cf);
-                }
+                readFully(channel, buffer, offset + buffer.position() - start);
+                return;
+            } catch (ClosedByInterruptException e) {
+                forgetIndexChannel(channel);
+                throw e;
+            } catch (ClosedChannelException e) {
+                forgetIndexChannel(channel);
+            }
+        }
+    }
 
-                // at this point, the List has entries in sorted order of offset-values
-                // we now create a LinkedHashMap out of this list.
-                // LinkedHashMap is used so that we fix the order
-                // of keys unlike HashMap which has arbitrary order.
-                termToOffsetMap = new LinkedHashMap<String, Integer>();
-
-                // put in first entry's start offset
-                termToOffsetMap.put(list.get(0).getKey(), list.get(0).getValue());
-
-                int i, bytesToRead;
-                Entry<String, Integer> curEntry, prevEntry = list.get(0);
-                for (i = 1; i < list.size(); i++) {
-                    curEntry = list.get(i);
-                    termToOffsetMap.put(curEntry.getKey(), curEntry.getValue());
-                    bytesToRead = curEntry.getValue() - prevEntry.getValue();
-                    termToReadBytesMap.put(prevEntry.getKey(), bytesToRead);
-                    prevEntry = curEntry;
-                }
+    // so the next read opens the index file again, unless it's been done already
+    private synchronized void forgetIndexChannel(FileChannel channel) {
+        if (indexChannel == channel)
+            indexChannel = null;
+    }
+
+    // reads 'length' bytes of the index file from offset
+    private byte[] readBytes(long offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        readIndexFile(ByteBuffer.wrap(bytes), offset);
+        return bytes;
+    }
+
+    /*
+     * Reads the bytes of a term's inverted list (at the offset and of the length
+     * that the dictionary has for the term's ordinal) from the index file and
+     * decodes them into an InvertedList.
+     * If lazy, a list that fits in one piece is decoded only as its postings are
+     * asked for, so that skipTo() can pass over blocks of postings without decoding them.
+     * Its positions aren't even read until they are asked for.
+     */
+    private InvertedList readInvertedList(byte indexHeader, int ordinal, String term,
+            boolean lazy) throws IOException {
+
+        long offset = dictionary.getOffset(ordinal), length = dictionary.getLength(ordinal);
+
+        if (lazy && length <= MAX_PIECE_SIZE) {
+            int df = dictionary.getDocumentFrequency(ordinal);
+            int skipTableSize = PostingBlocks.skipTableSize(df);
+            if (skipTableSize == 0) {
+                // a list of just one block is read whole
+                return new InvertedList(term, df, dictionary.getCollectionFrequency(ordinal),
+                        indexHeader, ByteBuffer.wrap(readBytes(offset, (int) length)), null);
+            }
+
+            // read only up to where the positions begin -
+            // they are read the first time they are needed
+            ByteBuffer skipTable = ByteBuffer.wrap(readBytes(offset, skipTableSize));
+            int positionsStart = (int) PostingBlocks.getDocumentStreamsEnd(skipTable, df);
+            ByteBuffer list = ByteBuffer.wrap(readBytes(offset, positionsStart));
+            int positionsLength = (int) length - positionsStart;
+
+            return new InvertedList(term, df, dictionary.getCollectionFrequency(ordinal),
+                    indexHeader, list, () -> {
+                        try {
+                            return ByteBuffer.wrap(
+                                    readBytes(offset + positionsStart, positionsLength));
+                        } catch (IOException e) {
+                            // no positions are better than wrong ones
+                            throw new UncheckedIOException(
+                                    "Couldn't read the positions of " + term, e);
+                        }
+                    });
+        }
 
-                // compute how many bytes to read for the last erm
-                // this should be the 'length of the index file' - 'start offset of term in the
-                // index' + 1
-                binaryFile = new RandomAccessFile(indexFileNameString, "r");
-                bytesToRead = (int) (binaryFile.length() - prevEntry.getValue());
-                termToReadBytesMap.put(prevEntry.getKey(), bytesToRead);
+        InvertedListDecoder decoder = new InvertedListDecoder(indexHeader, term,
+                dictionary.getDocumentFrequency(ordinal),
+                dictionary.getCollectionFrequency(ordinal));
+
+        // almost every list fits in one piece, and is then read in one go
+        byte[] buffer = new byte[(int) Math.min(length, MAX_PIECE_SIZE)];
+        long remaining = length;
+        int carried = 0;
+
+        long position = offset;
+        while (remaining > 0) {
+            int bytesToRead = (int) Math.min(remaining, buffer.length - carried);
+            readIndexFile(ByteBuffer.wrap(buffer, carried, bytesToRead), position);
+            position += bytesToRead;
+            remaining -= bytesToRead;
+
+            // decode only up to the last whole integer in the buffer and
+            // carry the rest over to the beginning of the next piece
+            ByteBuffer piece = ByteBuffer.wrap(buffer, 0, carried + bytesToRead);
+            if (remaining > 0)
+                piece.limit(decoder.lastIntegerBoundary(piece));
+            int decoded = piece.limit();
+            decoder.decode(piece);
+
+            carried = carried + bytesToRead - decoded;
+            System.arraycopy(buffer, decoded, buffer, 0, carried);
+        }
 
-                binaryFile.close();
-                binaryFile = null;
-                termToOffsetLookupFile.close();
-                termToOffsetLookupFile = null;
+        return decoder.getInvertedList();
+    }
 
-                // System.out.println(termToOffsetMap);
-                // System.out.println(termToReadBytesMap);
+    // This method loads the lookup-table i.e. the term-dictionary.
+    // The dictionary is memory-mapped, not read into the heap.
+    // Threads that get here at the same time load it just once.
+    protected synchronized void loadLookupTable() {
+        if (dictionary == null) {
+            try {
+                TermDictionary loaded = TermDictionary.loadFromDisk(indexFileNameString + ".dict");
 
                 // load the metadata file to find out the number of docs in the collection.
-                // the first line has that info.
                 // the metadata file will be named (and has to be)
                 // index's file-name + ".metadata" extension.
                 BufferedReader metadataReader = new BufferedReader(
                         new FileReader(indexFileNameString + ".metadata"));
-                numDocs = Integer.valueOf(metadataReader.readLine());
+                // the first line has the collection statistics:
+                // number of docs, number of words and vocabulary size
+                String[] statistics = metadataReader.readLine().trim().split("\\s+");
+                numDocs = Integer.valueOf(statistics[0]);
+                if (statistics.length >= 3) {
+                    numWordsInCollection = Long.valueOf(statistics[1]);
+                    vocabularySize = Integer.valueOf(statistics[2]);
+                } else {
+                    // an index written before the statistics were - add them up once
+                    numWordsInCollection = 0;
+                    for (int i = 0; i < loaded.getNumTerms(); i++) {
+                        numWordsInCollection += loaded.getCollectionFrequency(i);
+                    }
+                    vocabularySize = loaded.getNumTerms();
+                }
 
-                line = null;
+                String line = null;
                 backingDocumentIDs = new ArrayList<String>();
                 while ((line = metadataReader.readLine()) != null) {
                     backingDocumentIDs.add(line);
@@ -309,9 +730,15 @@ public class InvertedFileIndex extends Index {
 
                 metadataReader.close();
 
-            } catch (NumberFormatException | IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
+                // only now, with everything above in place
+                dictionary = loaded;
+
+            } catch (IOException e) {
+                throw new UncheckedIOException(
+                        "Couldn't load the dictionary of " + indexFileNameString, e);
+            } catch (NumberFormatException e) {
+                throw new IllegalStateException(
+                        "Malformed metadata file for " + indexFileNameString, e);
             }
         }
     }
@@ -321,37 +748,25 @@ public class InvertedFileIndex extends Index {
         try {
             loadLookupTable();
 
-            // at this point, we have map of term to offset/df/cf/bytesToRead
+            // at this point, we have the dictionary of term to offset/length/df/cf
             // we can start creating the in-memory index from the the index file
-            binaryFile = new RandomAccessFile(indexFileNameString, "r");
-            binaryFile.seek(0);
-
-            // read the first byte to find out if this is uncompressed or compressed index
-            boolean compressed = (binaryFile.readByte() == 'C');
+            // (opening it reads the first byte, which tells how it was compressed)
+            getIndexChannel();
 
-            for (Entry<String, Integer> entry : termToOffsetMap.entrySet()) {
-                String term = entry.getKey();
+            // the inverted lists are laid out in the order of the dictionary
+            ArrayList<String> terms = dictionary.getTerms();
+            for (int i = 0; i < terms.size(); i++) {
+                String term = terms.get(i);
 
-                // look up the termToReadBytesMap table to find how may bytes to
-                // read for this term.
-                int bytesToRead = termToReadBytesMap.get(term);
-                byte[] buffer = new byte[bytesToRead];
-                binaryFile.read(buffer, 0, bytesToRead);
-
-                InvertedList l = constructInvertedListFromByteArray(compressed, buffer, term);
+                // look up the dictionary to find where to read this term from
+                // and how may bytes to read.
+                InvertedList l = readInvertedList(indexHeader, i, term, false);
                 // l.printSelf();
                 invListLookup.put(term, l);
             }
 
-            binaryFile.close();
-            binaryFile = null;
-
-        } catch (FileNotFoundException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            throw new UncheckedIOException("Couldn't read the index " + indexFileNameString, e);
         }
 
     }
@@ -393,61 +808,40 @@ public class InvertedFileIndex extends Index {
     // Reads the index File and gets the InvertedList for a term
     public InvertedList getInvertedListForTerm(String term) {
 
-        boolean compressed = false;
-
         // load the lookup table if not already done
-        if (termToOffsetMap == null) {
+        if (dictionary == null) {
             loadLookupTable();
         }
 
-        try {
-            if (binaryFile == null)
-                binaryFile = new RandomAccessFile(indexFileNameString, "r");
-            binaryFile.seek(0);
-
-            // read the first byte to find out if this is uncompressed or compressed index
-            compressed = (binaryFile.readByte() == 'C');
-
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-
-        // look up the termToReadBytesMap table to find how may bytes to
-        // read for this term.
-        if (!termToOffsetMap.containsKey(term)) {
+        // look up the dictionary to find where the list for this term
+        // begins and how may bytes to read.
+        int ordinal = dictionary.lookup(term);
+        if (ordinal < 0) {
             // term not present in index
             return null;
         }
 
-        int bytesToRead = termToReadBytesMap.get(term);
-        byte[] buffer = new byte[bytesToRead];
-
         try {
-            binaryFile.seek(termToOffsetMap.get(term));
-            binaryFile.read(buffer, 0, bytesToRead);
+            // opening the index file reads the first byte,
+            // which tells how the index was compressed
+            getIndexChannel();
+
+            return readInvertedList(indexHeader, ordinal, term, true);
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            throw new UncheckedIOException("Couldn't read the list of " + term, e);
         }
-
-        return constructInvertedListFromByteArray(compressed, buffer, term);
     }
 
     @Override
     public ArrayList<String> getVocabListFromIndex() {
-        ArrayList<String> result = new ArrayList<String>();
 
         // load the lookup table if not already done
-        if (termToOffsetMap == null) {
+        if (dictionary == null) {
             loadLookupTable();
         }
 
-        // return the keys from the lookup-table
-        for (String s : termToOffsetMap.keySet()) {
-            result.add(s);
-        }
-        return result;
+        // return the terms from the dictionary
+        return dictionary.getTerms();
     }
 
     // returns frequency of a term over the entire corpus
@@ -455,12 +849,13 @@ public class InvertedFileIndex extends Index {
     public int getCollectionFrequencyForTerm(String term) {
 
         // load the lookup table if not already done
-        if (termToOffsetMap == null) {
+        if (dictionary == null) {
             loadLookupTable();
         }
 
-        if (termtoCFMap.containsKey(term))
-            return termtoCFMap.get(term);
+        int ordinal = dictionary.lookup(term);
+        if (ordinal >= 0)
+            return dictionary.getCollectionFrequency(ordinal);
 
         return 0;
     }
@@ -470,12 +865,45 @@ public class InvertedFileIndex extends Index {
     public int getDocumentFrequencyForTerm(String term) {
 
         // load the lookup table if not already done
-        if (termToOffsetMap == null) {
+        if (dictionary == null) {
+            loadLookupTable();
+        }
+
+        int ordinal = dictionary.lookup(term);
+        if (ordinal >= 0)
+            return dictionary.getDocumentFrequency(ordinal);
+
+        return 0;
+    }
+
+    // the largest number of times the term appears in any one document
+    @Override
+    public int getMaxTermFrequencyForTerm(String term) {
+
+        // load the lookup table if not already done
+        if (dictionary == null) {
             loadLookupTable();
         }
 
-        if (termtoDFMap.containsKey(term))
-            return termtoDFMap.get(term);
+        int ordinal = dictionary.lookup(term);
+        if (ordinal >= 0)
+            return dictionary.getMaxTermFrequency(ordinal);
+
+        return 0;
+    }
+
+    // the largest BM25 term-frequency component of the term in any one document
+    @Override
+    public double getMaxBM25TermFrequencyComponentForTerm(String term) {
+
+        // load the lookup table if not already done
+        if (dictionary == null) {
+            loadLookupTable();
+        }
+
+        int ordinal = dictionary.lookup(term);
+        if (ordinal >= 0)
+            return dictionary.getMaxBM25TermFrequencyComponent(ordinal);
 
         return 0;
     }
@@ -486,50 +914,67 @@ public class InvertedFileIndex extends Index {
         // load the lookup table if not already done
         // this will read the .metadata file as well which has
         // the total number of docs in the collection
-        if (termToOffsetMap == null) {
+        if (dictionary == null) {
             loadLookupTable();
         }
         return numDocs;
     }
 
     @Override
-    public int getNumWordsInCollection() {
+    public long getNumWordsInCollection() {
         // load the lookup table if not already done
-        if (termToOffsetMap == null) {
+        if (dictionary == null) {
             loadLookupTable();
         }
 
-        int count = 0;
-        for (Entry<String, Integer> entry : termtoCFMap.entrySet()) {
-            count += entry.getValue();
-        }
-
-        return count;
+        return numWordsInCollection;
     }
 
     @Override
-    public int getNumWordsInDocument(int docId) {
-
+    public int getVocabularySize() {
         // load the lookup table if not already done
-        if (termToOffsetMap == null) {
+        if (dictionary == null) {
             loadLookupTable();
         }
 
-        int count = 0;
-        for (String term : getVocabListFromIndex()) {
-            HashMap<Integer, Posting> posting = getInvertedListForTerm(term).getPostings();
-            if (posting.containsKey(docId)) {
-                count += posting.get(docId).getTermFrequency();
+        return vocabularySize;
+    }
+
+    @Override
+    public double getAverageDocumentLength() {
+        return (double) getNumWordsInCollection() / (double) getNumDocs();
+    }
+
+    @Override
+    public int getNumWordsInDocument(int docId) {
+        return getDocumentLengths().get(docId);
+    }
+
+    @Override
+    public IntBuffer getDocumentLengths() {
+
+        // an index that was just created has them in memory already
+        IntBuffer lengths = documentLengths;
+        if (lengths == null) {
+            // load the lookup table if not already done
+            if (dictionary == null) {
+                loadLookupTable();
+            }
+            synchronized (this) {
+                if (documentLengths == null)
+                    documentLengths = loadDocumentLengths();
+                lengths = documentLengths;
             }
         }
 
-        return count;
+        // (only ever read with get(index), which doesn't touch the shared position)
+        return lengths;
     }
 
     @Override
     public ArrayList<String> getBackingDocumentIDs() {
         // load the lookup table if not already done
-        if (termToOffsetMap == null) {
+        if (dictionary == null) {
             loadLookupTable();
         }
 
@@ -1,9 +1,8 @@
 package index;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Map.Entry;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Supplier;
 
 public class InvertedList {
 
@@ -14,66 +13,195 @@ public class InvertedList {
     String term;
 
     // how many docs soes this term appear in?
+    // this is also the number of postings in the arrays below
     private int numDocs;
 
     // count of occurrence across all docs
+    // this is also the number of positions in the flat positions-array
     private int collectionFrequency;
 
-    // Hashmap for quick lookup whether a doc-posting is already present
-    // The key is the unique identifier for doc. String because it accommodates most
-    // docIds. If passing integers, convert to String first.
-    // the value is the index in which this docId is added to list
-    LinkedHashMap<Integer, Posting> postings;
+    // The postings are stored as parallel primitive arrays, in increasing order
+    // of docId, so that neither docIds nor positions get boxed.
+    // Posting 'i' is (docIds[i], termFrequencies[i]) and its positions are
+    // positions[positionOffsets[i]] .. positions[positionOffsets[i] + termFrequencies[i] - 1]
+    int[] docIds;
+    int[] termFrequencies;
+    int[] positionOffsets;
+    int[] positions;
 
     // pointer to move around and skipping ahead
     private int postingsIndex;
 
-    private ArrayList<Integer> docSet = null;
+    // for a list read from disk: its blocks of postings which are decoded only
+    // when needed, and its skip data (null if the list is completely in memory)
+    private PostingBlocks blocks = null;
 
     public InvertedList(String s) {
+        this(s, 4, 4);
+    }
+
+    // creates an empty list with room for exactly these many postings and positions
+    InvertedList(String s, int numPostings, int numPositions) {
         term = s;
-        postings = new LinkedHashMap<Integer, Posting>();
+        docIds = new int[Math.max(1, numPostings)];
+        termFrequencies = new int[Math.max(1, numPostings)];
+        positionOffsets = new int[Math.max(1, numPostings)];
+        positions = new int[Math.max(1, numPositions)];
         numDocs = 0;
         collectionFrequency = 0;
         startIteration();
     }
 
+    /*
+     * creates a list out of its bytes on disk (see PostingBlocks), between the
+     * position and limit of the buffer. The postings are decoded block by block
+     * as and when they are asked for, and so are their positions.
+     * positionsReader, if not null, reads the positions streams of the list,
+     * which the buffer then need not have.
+     */
+    InvertedList(String s, int documentFrequency, int collectionFrequency, byte indexHeader,
+            ByteBuffer list, Supplier<ByteBuffer> positionsReader) {
+        this(s, documentFrequency, collectionFrequency);
+        setSize(documentFrequency, collectionFrequency);
+        blocks = new PostingBlocks(indexHeader, list, positionsReader, this);
+    }
+
+    // for when the arrays were filled in directly (see InvertedListDecoder)
+    void setSize(int numPostings, int numPositions) {
+        numDocs = numPostings;
+        collectionFrequency = numPositions;
+    }
+
+    // decodes the docIds and tfs of the block with the posting at index, if not already done
+    private void decodeBlockOf(int index) {
+        int block = index / PostingBlocks.SKIP_INTERVAL;
+        if (!blocks.isDecoded(block)) {
+            blocks.decode(block, numDocs);
+        }
+    }
+
+    // decodes the positions of the posting at index (and of the rest of its block),
+    // if not already done
+    void decodePositionsOf(int index) {
+        if (blocks == null)
+            return;
+
+        int block = index / PostingBlocks.SKIP_INTERVAL;
+        if (!blocks.arePositionsDecoded(block)) {
+            blocks.decodePositions(block, numDocs);
+        }
+    }
+
+    // decodes all the postings and positions that haven't been so far
+    private void decodeAll() {
+        if (blocks == null || blocks.isComplete())
+            return;
+
+        for (int block = 0; block < blocks.getNumBlocks(); block++) {
+            blocks.decode(block, numDocs);
+            blocks.decodePositions(block, numDocs);
+        }
+    }
+
     public String getTerm() {
         return term;
     }
 
+    // Positions have to be added in increasing order of docId.
+    // A position for the last docId added goes into its posting,
+    // anything else starts a new posting at the end of the list.
     public void addPositionToPosting(int docId, int position) {
-        Posting posting = null;
-        if (postings.containsKey(docId)) {
-            posting = postings.get(docId);
-        } else {
-            posting = new Posting(docId);
+        decodeAll();
+        blocks = null;
+
+        if (numDocs == 0 || docIds[numDocs - 1] != docId) {
+            if (numDocs > 0 && docIds[numDocs - 1] > docId) {
+                throw new IllegalArgumentException(
+                        "Postings must be added in increasing order of docId!");
+            }
+
+            if (numDocs == docIds.length) {
+                int capacity = 2 * numDocs;
+                docIds = Arrays.copyOf(docIds, capacity);
+                termFrequencies = Arrays.copyOf(termFrequencies, capacity);
+                positionOffsets = Arrays.copyOf(positionOffsets, capacity);
+            }
+            docIds[numDocs] = docId;
+            termFrequencies[numDocs] = 0;
+            positionOffsets[numDocs] = collectionFrequency;
             numDocs++;
         }
-        posting.addPosition(position);
-        postings.put(docId, posting);
+
+        if (collectionFrequency == positions.length) {
+            positions = Arrays.copyOf(positions, 2 * collectionFrequency);
+        }
+        positions[collectionFrequency] = position;
+        termFrequencies[numDocs - 1]++;
         collectionFrequency++;
     }
 
-    public ArrayList<Integer> getList(boolean compress) {
-        ArrayList<Integer> result = new ArrayList<Integer>();
+    // flattens the list into [docId, tf, positions...] for every posting
+    public int[] getList(boolean compress) {
+        decodeAll();
+
+        int[] result = new int[2 * numDocs + collectionFrequency];
+        int k = 0;
 
         int previousDocId = 0;
-        for (Entry<Integer, Posting> posting : postings.entrySet()) {
-            // if compression is enabled, we'll get the delta-encoded list from the
-            // "Posting" class. Note that only the positions will be delta-encoded at this
-            // stage, since Posting doesn'know about other docIds..
-            ArrayList<Integer> posList = posting.getValue().getPosting(compress);
-
-            if (compress) {
-                // delta-encode docId which is the first element in the flattened posting array
-                // returned by Posting class
-                int deltaDocId = posList.get(0) - previousDocId;
-                previousDocId = posList.get(0);
-                posList.set(0, deltaDocId);
+        for (int i = 0; i < numDocs; i++) {
+            // if compression is enabled, delta-encode the docId against the
+            // previous posting's docId and every position against the previous
+            // position in the same posting
+            int docId = docIds[i];
+            result[k++] = compress ? docId - previousDocId : docId;
+            previousDocId = docId;
+
+            // then add the term frequency in this document
+            result[k++] = termFrequencies[i];
+
+            int previousPosition = 0;
+            for (int j = positionOffsets[i]; j < positionOffsets[i] + termFrequencies[i]; j++) {
+                result[k++] = compress ? positions[j] - previousPosition : positions[j];
+                previousPosition = positions[j];
             }
+        }
+        return result;
+    }
 
-            result.addAll(posList);
+    // flattens the postings from 'from' up to (but not including) 'to' into
+    // [docId, tf] for every posting - the first docId is delta-encoded
+    // against the docId of the posting before 'from'
+    int[] getDocumentStream(boolean compress, int from, int to) {
+        decodeAll();
+
+        int[] result = new int[2 * (to - from)];
+        int k = 0;
+
+        int previousDocId = (from == 0) ? 0 : docIds[from - 1];
+        for (int i = from; i < to; i++) {
+            result[k++] = compress ? docIds[i] - previousDocId : docIds[i];
+            result[k++] = termFrequencies[i];
+            previousDocId = docIds[i];
+        }
+        return result;
+    }
+
+    // the positions of the postings from 'from' up to (but not including) 'to',
+    // one posting after the other - delta-encoded within a posting
+    int[] getPositionStream(boolean compress, int from, int to) {
+        decodeAll();
+
+        int start = positionOffsets[from];
+        int end = positionOffsets[to - 1] + termFrequencies[to - 1];
+        int[] result = new int[end - start];
+        int k = 0;
+
+        for (int i = from; i < to; i++) {
+            int previousPosition = 0;
+            for (int j = positionOffsets[i]; j < positionOffsets[i] + termFrequencies[i]; j++) {
+                result[k++] = compress ? positions[j] - previousPosition : positions[j];
+                previousPosition = positions[j];
+            }
         }
         return result;
     }
@@ -86,8 +214,46 @@ public class InvertedList {
         return collectionFrequency;
     }
 
-    public HashMap<Integer, Posting> getPostings() {
-        return postings;
+    /**
+     * @return the posting at the given index of the list
+     */
+    public Posting getPostingAt(int index) {
+        if (blocks != null)
+            decodeBlockOf(index);
+        return new Posting(this, index);
+    }
+
+    /**
+     * @return the posting for the docId or null if the term isn't in the doc
+     */
+    public Posting getPosting(int docId) {
+        int index = findPosting(docId);
+        return (index < 0) ? null : new Posting(this, index);
+    }
+
+    /**
+     * @return index of the posting for docId or -1 if the term isn't in the doc
+     */
+    public int findPosting(int docId) {
+        // we mostly get asked about the doc we have already skipped to
+        if (getCurrentDocId() == docId) {
+            return postingsIndex;
+        }
+
+        int from = 0, to = numDocs;
+        if (blocks != null) {
+            // only the block that would have the docId needs to be decoded and searched
+            int block = blocks.findBlock(docId, 0);
+            if (block == blocks.getNumBlocks())
+                return -1;
+
+            from = block * PostingBlocks.SKIP_INTERVAL;
+            to = Math.min(numDocs, from + PostingBlocks.SKIP_INTERVAL);
+            decodeBlockOf(from);
+        }
+
+        int index = Arrays.binarySearch(docIds, from, to, docId);
+        return (index < 0) ? -1 : index;
     }
 
     /**
@@ -99,51 +265,168 @@ public class InvertedList {
 
     /**
      * are there any more?
-     * 
+     *
      * @return true if there are remaining elements in the list
      */
     public boolean hasMore() {
-        return (postingsIndex >= 0 && postingsIndex < postings.size());
+        return (postingsIndex >= 0 && postingsIndex < numDocs);
+    }
+
+    /**
+     * move on to the next posting - cheaper than skipTo() when going through
+     * every posting of the list
+     */
+    public void next() {
+        if (hasMore())
+            postingsIndex++;
     }
 
     /**
      * skip to or past the specified document id
-     * 
+     *
      * @param docid the id to skip to
-     * 
+     *
      */
     public void skipTo(int docid) {
-        while (postingsIndex < postings.size() && getCurrentPosting().getDocId() < docid) {
+        if (blocks != null && postingsIndex < numDocs) {
+            // jump over the blocks that end before docid without decoding them
+            int block = blocks.findBlock(docid, postingsIndex / PostingBlocks.SKIP_INTERVAL);
+            postingsIndex = Math.max(postingsIndex,
+                    Math.min(numDocs, block * PostingBlocks.SKIP_INTERVAL));
+            if (postingsIndex == numDocs)
+                return;
+
+            // docid, if anywhere, is in this block
+            decodeBlockOf(postingsIndex);
+        }
+
+        while (postingsIndex < numDocs && docIds[postingsIndex] < docid) {
             postingsIndex++;
         }
     }
 
+    /**
+     * Finds the block of postings that would have docId, from the current posting
+     * on, without decoding anything. A list without skip data is a single block.
+     *
+     * @return index of the block or -1 if the list has no docId that large
+     */
+    public int findBlock(int docId) {
+        if (blocks == null)
+            return (hasMore() && docId <= docIds[numDocs - 1]) ? 0 : -1;
+
+        if (!hasMore())
+            return -1;
+
+        int block = blocks.findBlock(docId, postingsIndex / PostingBlocks.SKIP_INTERVAL);
+        return (block == blocks.getNumBlocks()) ? -1 : block;
+    }
+
+    /**
+     * @return the last docId of the block (see findBlock())
+     */
+    public int getBlockLastDocId(int block) {
+        if (blocks == null)
+            return docIds[numDocs - 1];
+
+        return blocks.getLastDocId(block);
+    }
+
+    /**
+     * @return the largest term-frequency in the block or Integer.MAX_VALUE if
+     *         the list has no such skip data
+     */
+    public int getBlockMaxTermFrequency(int block) {
+        if (blocks == null)
+            return Integer.MAX_VALUE;
+
+        return blocks.getMaxTermFrequency(block);
+    }
+
+    /**
+     * @return the largest BM25 term-frequency component in the block or infinity
+     *         if the list has no such skip data
+     */
+    public double getBlockMaxBM25TermFrequencyComponent(int block) {
+        if (blocks == null)
+            return Double.POSITIVE_INFINITY;
+
+        return blocks.getMaxBM25TermFrequencyComponent(block);
+    }
+
     /**
      * @return the current posting in the list or null if the list is empty or
      *         consumed
      */
     public Posting getCurrentPosting() {
-        Posting retval = null;
-        try {
-            if (docSet == null) {
-                docSet = new ArrayList<Integer>();
-                for (Integer docId : postings.keySet()) {
-                    docSet.add(docId);
-                }
-            }
+        if (!hasMore())
+            return null;
+
+        if (blocks != null)
+            decodeBlockOf(postingsIndex);
+        return new Posting(this, postingsIndex);
+    }
+
+    /**
+     * @return docId of the current posting or Integer.MAX_VALUE if the list is
+     *         empty or consumed
+     */
+    public int getCurrentDocId() {
+        if (!hasMore())
+            return Integer.MAX_VALUE;
+
+        if (blocks != null)
+            decodeBlockOf(postingsIndex);
+        return docIds[postingsIndex];
+    }
 
-            retval = postings.get(docSet.get(postingsIndex));
-        } catch (IndexOutOfBoundsException ex) {
-            // ex.printStackTrace();
+    /**
+     * @return term-frequency of the current posting or 0 if the list is empty or
+     *         consumed
+     */
+    public int getCurrentTermFrequency() {
+        if (!hasMore())
+            return 0;
+
+        if (blocks != null)
+            decodeBlockOf(postingsIndex);
+        return termFrequencies[postingsIndex];
+    }
+
+    /**
+     * The positions of the current posting, without copying them (unlike
+     * getCurrentPosting().getPositions()): they are the getCurrentTermFrequency()
+     * ones from getCurrentPositionsOffset() on. The array is the list's own, so
+     * it mustn't be changed.
+     *
+     * @return the array the positions of the current posting are in
+     */
+    public int[] getCurrentPositionsArray() {
+        if (hasMore() && blocks != null) {
+            decodeBlockOf(postingsIndex);
+            decodePositionsOf(postingsIndex);
         }
+        return positions;
+    }
+
+    /**
+     * @return where the positions of the current posting start in
+     *         getCurrentPositionsArray(), or 0 if the list is empty or consumed
+     */
+    public int getCurrentPositionsOffset() {
+        if (!hasMore())
+            return 0;
 
-        return retval;
+        if (blocks != null)
+            decodeBlockOf(postingsIndex);
+        return positionOffsets[postingsIndex];
     }
 
     public static boolean compareTwoInvertedLists(InvertedList l1, InvertedList l2) {
-        for (Entry<Integer, Posting> entry : l1.getPostings().entrySet()) {
-            Integer docId = entry.getKey();
-            if (!Posting.compareTwoPostings(entry.getValue(), l2.getPostings().get(docId))) {
+        for (int i = 0; i < l1.getDocumentFrequency(); i++) {
+            Posting p1 = l1.getPostingAt(i);
+            Posting p2 = l2.getPosting(p1.getDocId());
+            if (p2 == null || !Posting.compareTwoPostings(p1, p2)) {
                 return false;
             }
         }
@@ -152,8 +435,8 @@ public class InvertedList {
 
     public void printSelf() {
         System.out.println(term);
-        for (Entry<Integer, Posting> pos : postings.entrySet()) {
-            pos.getValue().printSelf();
+        for (int i = 0; i < numDocs; i++) {
+            getPostingAt(i).printSelf();
         }
     }
 }
@@ -0,0 +1,217 @@
+package index;
+
+import java.nio.ByteBuffer;
+
+import compression.Compressor;
+import compression.DecodingKernels;
+
+/* Decodes the bytes of an inverted list (as written by writeSelfToDisk) into an InvertedList.
+ * The list can be handed over in one go or in several pieces, as long as no piece
+ * splits an integer in two - the docId/tf/position state is carried across pieces.
+ * This is what lets a list that is bigger than a single byte[] (or mapping) be read.
+ *
+ * The document and collection frequency of the term (from the dictionary) size
+ * the result's arrays up front, and the compressor decodes straight into them,
+ * so nothing else gets allocated while decoding.
+ *
+ * The header byte of the index file says which compressor wrote the list.
+ * Every compressor other than the EmptyCompressor was handed delta-encoded docIds and positions.
+ *
+ * A whole list is its skip table, which is passed over, then the [docId, tf] stream of
+ * all postings and then the positions stream (see PostingBlocks).
+ * A decoder can also be used to decode single blocks of a list, one at a time
+ * and in any order, into an InvertedList that has been sized already:
+ * the docIds and tfs of a block (see startBlock) or its positions (see startPositions).
+ */
+
+class InvertedListDecoder {
+
+    // what the next integers in the stream are
+    private static final int EXPECT_POSTINGS = 0, EXPECT_POSITIONS = 1, EXPECT_NOTHING = 2;
+
+    private boolean compressed = false;
+    private Compressor compressor = null;
+    private DecodingKernels kernels = DecodingKernels.newInstance();
+    private InvertedList invertedList = null;
+
+    private int expect = EXPECT_POSTINGS;
+    private int prevDocId = 0, prevPosition = 0;
+
+    // postings with their docId and tf decoded; decoding stops at endPosting
+    private int numPostings = 0, endPosting = 0;
+
+    // the [docId, tf] pairs of the block being decoded, as they are in the stream,
+    // and how many integers of them there are so far
+    private int[] pairs = new int[2 * PostingBlocks.SKIP_INTERVAL];
+    private int numPairIntegers = 0;
+
+    // where in the positions-array the next posting's positions go
+    private int nextPositionOffset = 0;
+
+    // the posting whose positions are being decoded, where its next position goes
+    // and how many more of its positions there are
+    private int positionsPosting = 0, numPositions = 0, positionsLeft = 0;
+
+    // whether to go on to the positions after the [docId, tf] stream
+    private boolean decodeWholeList = false;
+    private int skipTableBytesLeft = 0;
+
+    // decodes a whole list
+    public InvertedListDecoder(byte indexHeader, String term, int documentFrequency,
+            int collectionFrequency) {
+        this.compressed = (indexHeader != 'U');
+        this.decodeWholeList = true;
+        this.endPosting = documentFrequency;
+        this.skipTableBytesLeft = PostingBlocks.skipTableSize(documentFrequency);
+        compressor = Compressor.forIndexHeader(indexHeader);
+        invertedList = new InvertedList(term, documentFrequency, collectionFrequency);
+        expect = (documentFrequency > 0) ? EXPECT_POSTINGS : EXPECT_NOTHING;
+    }
+
+    // decodes blocks of the postings of invertedList
+    InvertedListDecoder(byte indexHeader, InvertedList invertedList) {
+        this.compressed = (indexHeader != 'U');
+        compressor = Compressor.forIndexHeader(indexHeader);
+        this.invertedList = invertedList;
+        expect = EXPECT_NOTHING;
+    }
+
+    /*
+     * The next decode() decodes the docIds and tfs of one block: the postings from
+     * firstPosting up to (but not including) endPosting, whose positions start at
+     * firstPosition. prevDocId is the last docId of the block before.
+     */
+    void startBlock(int firstPosting, int endPosting, int firstPosition, int prevDocId) {
+        this.numPostings = firstPosting;
+        this.endPosting = endPosting;
+        this.nextPositionOffset = firstPosition;
+        this.prevDocId = prevDocId;
+        this.numPairIntegers = 0;
+        this.expect = (firstPosting < endPosting) ? EXPECT_POSTINGS : EXPECT_NOTHING;
+    }
+
+    /*
+     * The next decode() decodes the positions of the postings from firstPosting
+     * up to (but not including) endPosting, whose docIds and tfs are decoded already.
+     */
+    void startPositions(int firstPosting, int endPosting) {
+        this.endPosting = endPosting;
+        startPositions(firstPosting);
+    }
+
+    private void startPositions(int firstPosting) {
+        positionsPosting = firstPosting;
+        positionsLeft = 0;
+        if (firstPosting < endPosting) {
+            numPositions = invertedList.positionOffsets[firstPosting];
+            expect = EXPECT_POSITIONS;
+        } else {
+            expect = EXPECT_NOTHING;
+        }
+    }
+
+    public InvertedList getInvertedList() {
+        return invertedList;
+    }
+
+    // decode every integer between position and limit of the buffer
+    public void decode(ByteBuffer buffer) {
+        int[] docIds = invertedList.docIds;
+        int[] termFrequencies = invertedList.termFrequencies;
+        int[] positions = invertedList.positions;
+
+        if (skipTableBytesLeft > 0) {
+            // only the streams need decoding
+            int skip = Math.min(skipTableBytesLeft, buffer.remaining());
+            buffer.position(buffer.position() + skip);
+            skipTableBytesLeft -= skip;
+        }
+
+        // a block compressor may still hold integers after the buffer has run out,
+        // so keep going until everything is decoded or nothing more can be
+        while (expect != EXPECT_NOTHING) {
+
+            if (expect == EXPECT_POSTINGS) {
+                // the [docId, tf] pairs of a block were encoded in one go, and are
+                // decoded in one go - or in as few as the pieces of the list allow
+                int blockEnd = Math.min(endPosting,
+                        numPostings - numPostings % PostingBlocks.SKIP_INTERVAL
+                                + PostingBlocks.SKIP_INTERVAL);
+                int count = 2 * (blockEnd - numPostings);
+                int n = compressor.decodeIntegers(buffer, pairs, numPairIntegers,
+                        count - numPairIntegers);
+                numPairIntegers += n;
+                if (n == 0)
+                    break;
+                if (numPairIntegers < count)
+                    continue;
+                numPairIntegers = 0;
+
+                // tf, which is not delta-encoded, says where the next posting's positions go
+                for (int i = numPostings, j = 0; i < blockEnd; i++, j += 2) {
+                    docIds[i] = pairs[j];
+                    termFrequencies[i] = pairs[j + 1];
+                    invertedList.positionOffsets[i] = nextPositionOffset;
+                    nextPositionOffset += pairs[j + 1];
+                }
+                if (compressed) {
+                    // delta decoding of the docIds
+                    prevDocId = kernels.prefixSum(docIds, numPostings, blockEnd - numPostings,
+                            prevDocId);
+                }
+                numPostings = blockEnd;
+
+                if (numPostings < endPosting)
+                    expect = EXPECT_POSTINGS;
+                else if (decodeWholeList)
+                    startPositions(0);
+                else
+                    expect = EXPECT_NOTHING;
+
+            } else {
+                if (positionsLeft == 0) {
+                    // on to the next posting's positions
+                    positionsLeft = termFrequencies[positionsPosting];
+                    prevPosition = 0;
+                }
+
+                int n = compressor.decodeIntegers(buffer, positions, numPositions,
+                        positionsLeft);
+                if (n == 0 && positionsLeft > 0)
+                    break;
+                if (compressed) {
+                    // delta decoding
+                    prevPosition = kernels.prefixSum(positions, numPositions, n, prevPosition);
+                }
+                numPositions += n;
+                positionsLeft -= n;
+
+                if (positionsLeft == 0) {
+                    positionsPosting++;
+                    if (positionsPosting == endPosting)
+                        expect = EXPECT_NOTHING;
+                }
+            }
+        }
+
+        // a list decoded block by block has had its size all along
+        if (decodeWholeList)
+            invertedList.setSize(numPostings, numPositions);
+    }
+
+    /*
+     * Returns the largest limit (<= buffer's limit) such that the bytes between
+     * position and that limit hold only whole integers.
+     */
+    public int lastIntegerBoundary(ByteBuffer buffer) {
+        int start = buffer.position() + skipTableBytesLeft;
+        if (start >= buffer.limit()) {
+            // the skip table can be split anywhere
+            return buffer.limit();
+        }
+
+        ByteBuffer postings = buffer.duplicate();
+        postings.position(start);
+        return compressor.lastIntegerBoundary(postings);
+    }
+}
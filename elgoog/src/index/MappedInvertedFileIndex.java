@@ -0,0 +1,134 @@
+package index;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/* This is a read-only InvertedFile-Index that memory-maps the index file.
+ * The file is mapped exactly once, the first time an inverted list is asked for,
+ * and every lookup after that decodes the postings straight out of the mapped
+ * buffer - no seek(), no read() and no intermediate byte[] per term.
+ * Since this is still an InvertedFileIndex, the retrievers can use it as is.
+ *
+ * A single mapping can't be bigger than 2GB, so the file is mapped as a series
+ * of segments. Segment i starts at i * SEGMENT_SIZE and is (up to) twice as long,
+ * so any piece of at most SEGMENT_SIZE bytes lies entirely within the segment
+ * it starts in. An index smaller than SEGMENT_SIZE is just one mapping.
+ */
+
+public class MappedInvertedFileIndex extends InvertedFileIndex {
+
+    private static final long SEGMENT_SIZE = MAX_PIECE_SIZE;
+
+    // the whole index file mapped into memory
+    // (set last when mapping, so a thread that sees it sees indexHeader too)
+    private volatile MappedByteBuffer[] segments = null;
+
+    // read once from the first byte of the index file when it is mapped
+    private byte indexHeader = 'U';
+
+    public MappedInvertedFileIndex(String filename) {
+        super(filename);
+    }
+
+    // maps the index file into memory if not already done
+    // (threads that get here at the same time map it just once)
+    private synchronized void mapIndexFile() {
+        if (segments != null)
+            return;
+
+        try {
+            RandomAccessFile file = new RandomAccessFile(indexFileNameString, "r");
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+
+            int numSegments = (int) Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            MappedByteBuffer[] mapped = new MappedByteBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                long length = Math.min(size - start, 2 * SEGMENT_SIZE - 1);
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+
+            // the mapping stays valid even after the channel is closed
+            file.close();
+
+            // the first byte tells how the index was compressed
+            indexHeader = mapped[0].get(0);
+            segments = mapped;
+
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't map the index " + indexFileNameString, e);
+        }
+    }
+
+    // the biword index is memory-mapped as well
+    @Override
+    protected InvertedFileIndex openBiwordIndex(String filename) {
+        return new MappedInvertedFileIndex(filename);
+    }
+
+    // Decodes the InvertedList for a term from the mapped index file
+    @Override
+    public InvertedList getInvertedListForTerm(String term) {
+
+        // load the lookup table if not already done
+        if (dictionary == null) {
+            loadLookupTable();
+        }
+
+        int ordinal = dictionary.lookup(term);
+        if (ordinal < 0) {
+            // term not present in index
+            return null;
+        }
+
+        if (segments == null)
+            mapIndexFile();
+
+        long position = dictionary.getOffset(ordinal);
+        long end = position + dictionary.getLength(ordinal);
+
+        if (end - position <= SEGMENT_SIZE) {
+            // the whole list lies within one segment, so its postings
+            // can be decoded lazily, straight out of the mapping
+            int segment = (int) (position / SEGMENT_SIZE);
+            int start = (int) (position - segment * SEGMENT_SIZE);
+
+            ByteBuffer list = segments[segment].duplicate();
+            list.limit(start + (int) (end - position));
+            list.position(start);
+            return new InvertedList(term, dictionary.getDocumentFrequency(ordinal),
+                    dictionary.getCollectionFrequency(ordinal), indexHeader, list, null);
+        }
+
+        InvertedListDecoder decoder = new InvertedListDecoder(indexHeader, term,
+                dictionary.getDocumentFrequency(ordinal),
+                dictionary.getCollectionFrequency(ordinal));
+
+        while (position < end) {
+            // read through a duplicate so that the position of the
+            // shared mapping is never touched
+            int segment = (int) (position / SEGMENT_SIZE);
+            int start = (int) (position - segment * SEGMENT_SIZE);
+            long pieceLength = Math.min(end - position, SEGMENT_SIZE);
+
+            ByteBuffer piece = segments[segment].duplicate();
+            piece.limit(start + (int) pieceLength);
+            piece.position(start);
+
+            // a list longer than a segment is decoded in several pieces
+            // each of which ends at an integer boundary
+            if (position + pieceLength < end)
+                piece.limit(decoder.lastIntegerBoundary(piece));
+
+            position += piece.remaining();
+            decoder.decode(piece);
+        }
+
+        return decoder.getInvertedList();
+    }
+}
@@ -1,88 +1,60 @@
 package index;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Posting {
 
-    // this is a class that stores freq & pos of a term for a document
+    // this is a class that exposes freq & pos of a term for a document.
+    // It doesn't hold any data of its own; it is just a view over
+    // one entry of the parallel arrays of an InvertedList
 
-    private int docId; // integer id of the Document super-class
-    int termFrequency; // frequency of the term in this doc
-    private ArrayList<Integer> positions;
+    private InvertedList list;
+    private int index; // index of this posting in the list's arrays
 
-    public Posting(int id) {
-        docId = id;
-        termFrequency = 0;
-        positions = new ArrayList<Integer>();
+    Posting(InvertedList list, int index) {
+        this.list = list;
+        this.index = index;
     }
 
-    public void addPosition(int pos) {
-        termFrequency++;
-        positions.add(pos);
-    }
-    // we don't really support removing a position so "add" is pretty much it
-
     public int getDocId() {
-        return docId;
+        return list.docIds[index];
     }
 
     public int getTermFrequency() {
-        return termFrequency;
-    }
-
-    private ArrayList<Integer> deltaEncodeSelf() {
-        if (termFrequency > 0) {
-            ArrayList<Integer> encoding = new ArrayList<Integer>();
-            encoding.add(positions.get(0));
-            for (int i = 1; i < termFrequency; i++) {
-                encoding.add(positions.get(i) - positions.get(i - 1));
-            }
-            return encoding;
-        }
-        return null;
+        return list.termFrequencies[index];
     }
 
-    public ArrayList<Integer> getPosting(boolean compress) {
-        ArrayList<Integer> result = new ArrayList<Integer>();
-
-        // first add the doc id
-        result.add(docId);
-
-        // then add the term frequency in this document
-        result.add(termFrequency);
-
-        if (compress) {
-            result.addAll(deltaEncodeSelf());
-        } else {
-            result.addAll(positions);
-        }
-
-        return result;
+    // i-th position (0-based) of the term in this doc
+    // - positions of a list read from disk are decoded the first time one is asked for
+    public int getPosition(int i) {
+        list.decodePositionsOf(index);
+        return list.positions[list.positionOffsets[index] + i];
     }
 
     public void printSelf() {
-        System.out.println("Posting " + docId + ": [" + termFrequency + "] = " + positions);
+        System.out.println("Posting " + getDocId() + ": [" + getTermFrequency() + "] = "
+                + Arrays.toString(getPositions()));
     }
 
     public static boolean compareTwoPostings(Posting p1, Posting p2) {
-        ArrayList<Integer> pos1 = p1.getPositions(), pos2 = p2.getPositions();
-
         if (p1.getDocId() != p2.getDocId())
             return false;
 
-        if (pos1.size() != pos2.size())
+        if (p1.getTermFrequency() != p2.getTermFrequency())
             return false;
 
-        for (int i = 0; i < pos1.size(); i++) {
-            if (!pos1.get(i).equals(pos2.get(i)))
+        for (int i = 0; i < p1.getTermFrequency(); i++) {
+            if (p1.getPosition(i) != p2.getPosition(i))
                 return false;
-
         }
 
         return true;
     }
 
-    public ArrayList<Integer> getPositions() {
-        return positions;
+    // returns a copy of the positions of the term in this doc
+    public int[] getPositions() {
+        list.decodePositionsOf(index);
+        int start = list.positionOffsets[index];
+        return Arrays.copyOfRange(list.positions, start, start + getTermFrequency());
     }
 }
@@ -0,0 +1,274 @@
+package index;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+
+import compression.Compressor;
+
+/* Skip data of an inverted list on disk, and the lazy decoding that goes with it.
+ *
+ * The postings of a list are written in blocks of SKIP_INTERVAL postings.
+ * The [docId, tf] pairs of a block and the positions of a block are compressed
+ * separately, so that positions need not be decoded (or even read) unless asked for.
+ * A list is laid out as:
+ * [skip table][docId, tf stream of block 0, 1, ...][positions stream of block 0, 1, ...]
+ * The skip table (only for a list of more than one block) has an entry of
+ * SKIP_ENTRY_SIZE bytes for every block:
+ * [last docId in the block : int][index of the block's first position : int]
+ * [where the block's docId, tf stream ends, counted from the start of the docId, tf streams : long]
+ * [where the block's positions stream ends, counted from the start of the positions streams : long]
+ * [largest tf in the block : int][largest BM25 tf-component in the block : float]
+ * The number of blocks follows from the document frequency in the dictionary.
+ * A list that fits in one block has no skip table; its positions start
+ * right where decoding its docIds and tfs stops. Its largest tf and BM25
+ * tf-component are the term's, in the dictionary.
+ * The block maxima let a retriever pass over blocks none of whose docs
+ * can make it into the top-k (Block-Max WAND).
+ *
+ * An InvertedList read this way decodes a block only when a posting in it is
+ * asked for, so skipTo() can jump over whole blocks without decoding them.
+ * The positions of a block are decoded only when one of them is asked for.
+ */
+
+class PostingBlocks {
+
+    static final int SKIP_INTERVAL = 128;
+    static final int SKIP_ENTRY_SIZE = 32;
+
+    static int numBlocks(int documentFrequency) {
+        return Math.max(1, (documentFrequency + SKIP_INTERVAL - 1) / SKIP_INTERVAL);
+    }
+
+    static int skipTableSize(int documentFrequency) {
+        int numBlocks = numBlocks(documentFrequency);
+        return (numBlocks > 1) ? numBlocks * SKIP_ENTRY_SIZE : 0;
+    }
+
+    /*
+     * returns the list in the on-disk format described above; docIds and
+     * positions are delta-encoded if compress is true. The block maxima
+     * have an entry for every block.
+     */
+    static byte[] encode(InvertedList list, Compressor compressor, boolean compress,
+            int[] blockMaxTermFrequencies, float[] blockMaxBM25TermFrequencyComponents) {
+        int df = list.getDocumentFrequency();
+        int numBlocks = numBlocks(df);
+
+        ByteBuffer skipTable = ByteBuffer.allocate(skipTableSize(df));
+        ByteArrayOutputStream documents = new ByteArrayOutputStream();
+        ByteArrayOutputStream positions = new ByteArrayOutputStream();
+
+        for (int block = 0; block < numBlocks; block++) {
+            int from = block * SKIP_INTERVAL, to = Math.min(df, from + SKIP_INTERVAL);
+
+            int[] integers = list.getDocumentStream(compress, from, to);
+            byte[] encoded = compressor.encodeIntegers(integers, 0, integers.length);
+            documents.write(encoded, 0, encoded.length);
+
+            integers = list.getPositionStream(compress, from, to);
+            encoded = compressor.encodeIntegers(integers, 0, integers.length);
+            positions.write(encoded, 0, encoded.length);
+
+            if (numBlocks > 1) {
+                skipTable.putInt(list.docIds[to - 1]);
+                skipTable.putInt(list.positionOffsets[from]);
+                skipTable.putLong(documents.size());
+                skipTable.putLong(positions.size());
+                skipTable.putInt(blockMaxTermFrequencies[block]);
+                skipTable.putFloat(blockMaxBM25TermFrequencyComponents[block]);
+            }
+        }
+
+        byte[] result = new byte[skipTable.capacity() + documents.size() + positions.size()];
+        System.arraycopy(skipTable.array(), 0, result, 0, skipTable.capacity());
+        System.arraycopy(documents.toByteArray(), 0, result, skipTable.capacity(),
+                documents.size());
+        System.arraycopy(positions.toByteArray(), 0, result,
+                skipTable.capacity() + documents.size(), positions.size());
+        return result;
+    }
+
+    /*
+     * returns how many bytes at the start of a list (of more than one block) hold
+     * its skip table and docId, tf streams, given the skip table
+     */
+    static long getDocumentStreamsEnd(ByteBuffer skipTable, int documentFrequency) {
+        int numBlocks = numBlocks(documentFrequency);
+        return numBlocks * SKIP_ENTRY_SIZE
+                + skipTable.getLong(skipTable.position() + (numBlocks - 1) * SKIP_ENTRY_SIZE + 8);
+    }
+
+    private int numBlocks;
+    private int numDecoded = 0;
+
+    // the docId, tf streams of the blocks; the first one starts at 0
+    private ByteBuffer documents;
+    // the positions streams of the blocks; the first one starts at 0.
+    // null until they are needed the first time
+    private ByteBuffer positions = null;
+    // reads the positions streams, if they weren't passed in with the list
+    private Supplier<ByteBuffer> positionsReader;
+
+    // where block i's streams start (and end, at i + 1)
+    private int[] documentStarts;
+    private int[] positionStarts;
+    private int[] lastDocIds;
+    private int[] firstPositions;
+    private int[] blockMaxTermFrequencies;
+    private float[] blockMaxBM25TermFrequencyComponents;
+    private boolean[] decoded;
+    private boolean[] positionsDecoded;
+
+    private InvertedListDecoder decoder;
+
+    /*
+     * The bytes between position and limit of the buffer have to be a list
+     * (of less than 2GB) in the format described above. If positionsReader isn't null,
+     * the buffer need only have the skip table and the docId, tf streams, and
+     * positionsReader returns the positions streams when they are needed.
+     */
+    PostingBlocks(byte indexHeader, ByteBuffer list, Supplier<ByteBuffer> positionsReader,
+            InvertedList invertedList) {
+        int df = invertedList.getDocumentFrequency();
+        int start = list.position(), skipTableSize = skipTableSize(df);
+
+        this.positionsReader = positionsReader;
+        numBlocks = numBlocks(df);
+        documentStarts = new int[numBlocks + 1];
+        positionStarts = new int[numBlocks + 1];
+        lastDocIds = new int[numBlocks];
+        firstPositions = new int[numBlocks];
+        blockMaxTermFrequencies = new int[numBlocks];
+        blockMaxBM25TermFrequencyComponents = new float[numBlocks];
+        decoded = new boolean[numBlocks];
+        positionsDecoded = new boolean[numBlocks];
+
+        if (numBlocks == 1) {
+            // nothing to skip over, and the streams end where decoding them stops
+            lastDocIds[0] = Integer.MAX_VALUE;
+            documentStarts[1] = list.remaining();
+            // no bounds other than the term's
+            blockMaxTermFrequencies[0] = Integer.MAX_VALUE;
+            blockMaxBM25TermFrequencyComponents[0] = Float.POSITIVE_INFINITY;
+        } else {
+            for (int i = 0; i < numBlocks; i++) {
+                int entry = start + i * SKIP_ENTRY_SIZE;
+                lastDocIds[i] = list.getInt(entry);
+                firstPositions[i] = list.getInt(entry + 4);
+                documentStarts[i + 1] = (int) list.getLong(entry + 8);
+                positionStarts[i + 1] = (int) list.getLong(entry + 16);
+                blockMaxTermFrequencies[i] = list.getInt(entry + 24);
+                blockMaxBM25TermFrequencyComponents[i] = list.getFloat(entry + 28);
+            }
+        }
+
+        ByteBuffer duplicate = list.duplicate();
+        duplicate.position(start + skipTableSize);
+        documents = duplicate.slice();
+
+        if (numBlocks > 1 && positionsReader == null) {
+            duplicate.position(start + skipTableSize + documentStarts[numBlocks]);
+            positions = duplicate.slice();
+        }
+
+        decoder = new InvertedListDecoder(indexHeader, invertedList);
+    }
+
+    boolean isDecoded(int block) {
+        return decoded[block];
+    }
+
+    boolean arePositionsDecoded(int block) {
+        return positionsDecoded[block];
+    }
+
+    boolean isComplete() {
+        return numDecoded == 2 * numBlocks;
+    }
+
+    int getNumBlocks() {
+        return numBlocks;
+    }
+
+    int getLastDocId(int block) {
+        return lastDocIds[block];
+    }
+
+    int getMaxTermFrequency(int block) {
+        return blockMaxTermFrequencies[block];
+    }
+
+    float getMaxBM25TermFrequencyComponent(int block) {
+        return blockMaxBM25TermFrequencyComponents[block];
+    }
+
+    /*
+     * returns the first block at or after fromBlock whose last docId is >= docId,
+     * or the number of blocks if there is none
+     */
+    int findBlock(int docId, int fromBlock) {
+        // mostly, docId is in the block we're at already
+        if (fromBlock < numBlocks && lastDocIds[fromBlock] >= docId)
+            return fromBlock;
+
+        int low = fromBlock, high = numBlocks;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lastDocIds[mid] < docId)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    // decodes the docIds and tfs of a block into the list's arrays
+    void decode(int block, int documentFrequency) {
+        if (decoded[block])
+            return;
+
+        ByteBuffer bytes = documents.duplicate();
+        bytes.limit(documentStarts[block + 1]);
+        bytes.position(documentStarts[block]);
+
+        int firstPosting = block * SKIP_INTERVAL;
+        decoder.startBlock(firstPosting, Math.min(documentFrequency, firstPosting + SKIP_INTERVAL),
+                firstPositions[block], (block == 0) ? 0 : lastDocIds[block - 1]);
+        decoder.decode(bytes);
+
+        if (numBlocks == 1 && positionsReader == null) {
+            // the positions follow right after
+            positions = bytes.slice();
+        }
+
+        decoded[block] = true;
+        numDecoded++;
+    }
+
+    // decodes the positions of a block into the list's arrays
+    void decodePositions(int block, int documentFrequency) {
+        if (positionsDecoded[block])
+            return;
+
+        // the tfs say how many positions each posting has
+        decode(block, documentFrequency);
+
+        if (positions == null)
+            positions = positionsReader.get();
+
+        ByteBuffer bytes = positions.duplicate();
+        if (numBlocks > 1) {
+            bytes.limit(positionStarts[block + 1]);
+            bytes.position(positionStarts[block]);
+        }
+
+        int firstPosting = block * SKIP_INTERVAL;
+        decoder.startPositions(firstPosting,
+                Math.min(documentFrequency, firstPosting + SKIP_INTERVAL));
+        decoder.decode(bytes);
+
+        positionsDecoded[block] = true;
+        numDecoded++;
+    }
+}
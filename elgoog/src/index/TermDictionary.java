@@ -0,0 +1,299 @@
+package index;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/* This is the binary term-dictionary of an index (the .dict file).
+ * The terms are sorted (by their UTF-8 bytes) and every term has an ordinal
+ * i.e. its rank in that order. The per-term statistics are kept in parallel
+ * primitive arrays indexed by the ordinal:
+ * 1) offset of the term's inverted list in the index file
+ * 2) number of bytes in the term's inverted list
+ * 3) document-frequency
+ * 4) collection-frequency
+ * 5) the largest term-frequency in any one document
+ * 6) the largest BM25 term-frequency component of any one document (see
+ *    BM25Evaluator.getTermFrequencyComponent()), rounded up to a float
+ * The last two are upper bounds that let the retriever skip documents
+ * which can't make it into the top-k (MaxScore).
+ * The terms themselves are front-coded in blocks of BLOCK_SIZE terms. The first
+ * term of every block is written in full, the rest only as
+ * (length of prefix shared with previous term, remaining suffix).
+ *
+ * Layout of the file:
+ * [numTerms][numBlocks][maxTermLength]
+ * [offsets: long x numTerms][lengths: long x numTerms]
+ * [df: int x numTerms][cf: int x numTerms]
+ * [max-tf: int x numTerms][max-bm25-tf-component: float x numTerms]
+ * [block pointers: int x numBlocks][front-coded term blocks]
+ *
+ * The file is loaded with a single mmap and the arrays are just views over it.
+ */
+
+public class TermDictionary {
+
+    // number of terms that are front-coded together
+    public static final int BLOCK_SIZE = 16;
+
+    private static final int HEADER_SIZE = 3 * 4;
+
+    private int numTerms = 0;
+    private int numBlocks = 0;
+    private int maxTermLength = 0;
+
+    private LongBuffer offsets = null;
+    private LongBuffer lengths = null;
+    private IntBuffer documentFrequencies = null;
+    private IntBuffer collectionFrequencies = null;
+    private IntBuffer maxTermFrequencies = null;
+    private FloatBuffer maxBM25TermFrequencyComponents = null;
+
+    // where each block starts, relative to the start of the term-data
+    private IntBuffer blockPointers = null;
+
+    // front-coded term blocks
+    private ByteBuffer termData = null;
+
+    private TermDictionary() {
+    }
+
+    // maps the dictionary file and sets up the views over it
+    public static TermDictionary loadFromDisk(String filename) throws IOException {
+        TermDictionary dictionary = new TermDictionary();
+
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        FileChannel channel = file.getChannel();
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        // the mapping stays valid even after the channel is closed
+        file.close();
+
+        dictionary.numTerms = mapped.getInt(0);
+        dictionary.numBlocks = mapped.getInt(4);
+        dictionary.maxTermLength = mapped.getInt(8);
+
+        int n = dictionary.numTerms, position = HEADER_SIZE;
+        dictionary.offsets = slice(mapped, position, 8 * n).asLongBuffer();
+        position += 8 * n;
+        dictionary.lengths = slice(mapped, position, 8 * n).asLongBuffer();
+        position += 8 * n;
+        dictionary.documentFrequencies = slice(mapped, position, 4 * n).asIntBuffer();
+        position += 4 * n;
+        dictionary.collectionFrequencies = slice(mapped, position, 4 * n).asIntBuffer();
+        position += 4 * n;
+        dictionary.maxTermFrequencies = slice(mapped, position, 4 * n).asIntBuffer();
+        position += 4 * n;
+        dictionary.maxBM25TermFrequencyComponents = slice(mapped, position, 4 * n)
+                .asFloatBuffer();
+        position += 4 * n;
+        dictionary.blockPointers = slice(mapped, position, 4 * dictionary.numBlocks).asIntBuffer();
+        position += 4 * dictionary.numBlocks;
+        dictionary.termData = slice(mapped, position, mapped.capacity() - position);
+
+        return dictionary;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.limit(position + length);
+        return duplicate.slice();
+    }
+
+    // The terms must already be sorted using compareTerms()
+    // and the other arrays must be in the same order as the terms.
+    public static void writeToDisk(String filename, ArrayList<String> terms, long[] offsets,
+            long[] lengths, int[] documentFrequencies, int[] collectionFrequencies,
+            int[] maxTermFrequencies, float[] maxBM25TermFrequencyComponents)
+            throws IOException {
+
+        int numTerms = terms.size();
+        int numBlocks = (numTerms + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] blockPointers = new int[numBlocks];
+        int maxTermLength = 0;
+
+        // front-code the terms first so that we know where each block starts
+        ByteArrayOutputStream termData = new ByteArrayOutputStream();
+        byte[] previous = null;
+        for (int i = 0; i < numTerms; i++) {
+            byte[] current = terms.get(i).getBytes(StandardCharsets.UTF_8);
+            maxTermLength = Math.max(maxTermLength, current.length);
+
+            int prefix = 0;
+            if (i % BLOCK_SIZE == 0) {
+                // first term of a block is written in full
+                blockPointers[i / BLOCK_SIZE] = termData.size();
+            } else {
+                int limit = Math.min(previous.length, current.length);
+                while (prefix < limit && previous[prefix] == current[prefix]) {
+                    prefix++;
+                }
+                writeVByte(termData, prefix);
+            }
+            writeVByte(termData, current.length - prefix);
+            termData.write(current, prefix, current.length - prefix);
+            previous = current;
+        }
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(filename)));
+        out.writeInt(numTerms);
+        out.writeInt(numBlocks);
+        out.writeInt(maxTermLength);
+        for (int i = 0; i < numTerms; i++)
+            out.writeLong(offsets[i]);
+        for (int i = 0; i < numTerms; i++)
+            out.writeLong(lengths[i]);
+        for (int i = 0; i < numTerms; i++)
+            out.writeInt(documentFrequencies[i]);
+        for (int i = 0; i < numTerms; i++)
+            out.writeInt(collectionFrequencies[i]);
+        for (int i = 0; i < numTerms; i++)
+            out.writeInt(maxTermFrequencies[i]);
+        for (int i = 0; i < numTerms; i++)
+            out.writeFloat(maxBM25TermFrequencyComponents[i]);
+        for (int i = 0; i < numBlocks; i++)
+            out.writeInt(blockPointers[i]);
+        termData.writeTo(out);
+        out.close();
+    }
+
+    // the order in which terms have to be handed over to writeToDisk()
+    public static int compareTerms(String a, String b) {
+        return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8),
+                b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeVByte(ByteArrayOutputStream out, int value) {
+        while (value >= 128) {
+            out.write(value & 0x7F);
+            value >>>= 7;
+        }
+        out.write(value | 0x80);
+    }
+
+    private static int readVByte(ByteBuffer buffer) {
+        int decode = 0, shift = 0;
+        byte b;
+        while (((b = buffer.get()) & 0x80) == 0) {
+            decode |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return decode | ((b & 0x7F) << shift);
+    }
+
+    // compares the key with the term of 'length' bytes starting at 'position'
+    // of the term-data
+    private int compareWithTermAt(byte[] key, int position, int length) {
+        int limit = Math.min(key.length, length);
+        for (int i = 0; i < limit; i++) {
+            int diff = (key[i] & 0xFF) - (termData.get(position + i) & 0xFF);
+            if (diff != 0)
+                return diff;
+        }
+        return key.length - length;
+    }
+
+    /*
+     * returns the ordinal of the term or -1 if the term is not in the dictionary
+     */
+    public int lookup(String term) {
+        if (numTerms == 0)
+            return -1;
+
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        if (key.length > maxTermLength)
+            return -1;
+
+        ByteBuffer buffer = termData.duplicate();
+
+        // binary search for the last block whose first term is <= key
+        int low = 0, high = numBlocks - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            buffer.position(blockPointers.get(mid));
+            int length = readVByte(buffer);
+            if (compareWithTermAt(key, buffer.position(), length) >= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        // walk the block rebuilding each front-coded term
+        byte[] current = new byte[maxTermLength];
+        int currentLength = 0;
+        int first = low * BLOCK_SIZE, last = Math.min(numTerms, first + BLOCK_SIZE);
+        buffer.position(blockPointers.get(low));
+        for (int ordinal = first; ordinal < last; ordinal++) {
+            int prefix = (ordinal == first) ? 0 : readVByte(buffer);
+            int suffix = readVByte(buffer);
+            buffer.get(current, prefix, suffix);
+            currentLength = prefix + suffix;
+
+            int cmp = Arrays.compareUnsigned(key, 0, key.length, current, 0, currentLength);
+            if (cmp == 0)
+                return ordinal;
+            if (cmp < 0)
+                break; // terms are sorted; we have gone past the key
+        }
+
+        return -1;
+    }
+
+    // decodes all the terms in the order of their ordinals
+    public ArrayList<String> getTerms() {
+        ArrayList<String> result = new ArrayList<String>(numTerms);
+
+        ByteBuffer buffer = termData.duplicate();
+        buffer.position(0);
+        byte[] current = new byte[maxTermLength];
+        for (int ordinal = 0; ordinal < numTerms; ordinal++) {
+            int prefix = (ordinal % BLOCK_SIZE == 0) ? 0 : readVByte(buffer);
+            int suffix = readVByte(buffer);
+            buffer.get(current, prefix, suffix);
+            result.add(new String(current, 0, prefix + suffix, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    public int getNumTerms() {
+        return numTerms;
+    }
+
+    public long getOffset(int ordinal) {
+        return offsets.get(ordinal);
+    }
+
+    public long getLength(int ordinal) {
+        return lengths.get(ordinal);
+    }
+
+    public int getDocumentFrequency(int ordinal) {
+        return documentFrequencies.get(ordinal);
+    }
+
+    public int getCollectionFrequency(int ordinal) {
+        return collectionFrequencies.get(ordinal);
+    }
+
+    public int getMaxTermFrequency(int ordinal) {
+        return maxTermFrequencies.get(ordinal);
+    }
+
+    public float getMaxBM25TermFrequencyComponent(int ordinal) {
+        return maxBM25TermFrequencyComponents.get(ordinal);
+    }
+}
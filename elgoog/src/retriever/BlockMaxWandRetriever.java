@@ -0,0 +1,213 @@
+package retriever;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import index.Index;
+import index.InvertedFileIndex;
+import index.InvertedList;
+import retriever.evaluation.Evaluator;
+
+/*
+ * Block-Max WAND retrieval. Like the DocAtATimeRetriever, it goes through the
+ * docs of the query-terms' lists in increasing order of docId, but it skips
+ * the docs that can't make it into the top-k:
+ *
+ * 1) The lists are kept sorted by their current docId. Adding up the upper
+ * bounds of their terms' scores (see Evaluator.getMaxScoreForQueryTerm()) in
+ * that order, the first list at which the sum goes over the top-k threshold is
+ * the pivot. No doc before the pivot's doc can make it, since it can only be in
+ * the lists before the pivot.
+ * 2) The lists up to the pivot are then looked up (without decoding) for the
+ * blocks of postings the pivot's doc would be in. If the bounds of just those
+ * blocks don't add up to more than the threshold either, no doc up to the end of
+ * the first of those blocks to end can make it, and the lists skip past it.
+ * 3) Otherwise the lists are moved up to the pivot's doc, and once they are all
+ * there, the doc is scored.
+ *
+ * The top-k is exactly what the DocAtATimeRetriever returns. This only works
+ * for evaluators that score nothing but the docs which have the term; any other
+ * evaluator is handed over to a DocAtATimeRetriever.
+ */
+
+public class BlockMaxWandRetriever extends Retriever {
+
+    // for the evaluators that assign background probability
+    private DocAtATimeRetriever docAtATimeRetriever;
+
+    public BlockMaxWandRetriever(Index i) {
+        super(i);
+        docAtATimeRetriever = new DocAtATimeRetriever(i);
+    }
+
+    @Override
+    public List<Entry<Integer, Double>> retrieveQuery(String[] query, int k, Evaluator evaluator) {
+
+        // every doc gets scored anyway
+        if (evaluator.assignsBackgroundProbability()) {
+            long before = docAtATimeRetriever.getNumDocumentsScored();
+            List<Entry<Integer, Double>> result = docAtATimeRetriever.retrieveQuery(query, k,
+                    evaluator);
+            numDocumentsScored += docAtATimeRetriever.getNumDocumentsScored() - before;
+            return result;
+        }
+
+        topK.reset(k);
+
+        // list of InvertedLists for each (distinct) query term,
+        // and the term's ordinal in the compiled query
+        ArrayList<InvertedList> invertedLists = new ArrayList<InvertedList>();
+        String[] terms = evaluator.compileQuery(query);
+        int[] termOrdinals = new int[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            InvertedList list = ((InvertedFileIndex) index).getInvertedListForTerm(terms[t]);
+            // (a term that's in no doc has no list, and is just left out)
+            if (list == null)
+                continue;
+            termOrdinals[invertedLists.size()] = t;
+            invertedLists.add(list);
+        }
+
+        int n = invertedLists.size();
+        double[] maxScores = new double[n];
+        for (int i = 0; i < n; i++) {
+            maxScores[i] = evaluator.getMaxScoreForQueryTerm(termOrdinals[i]);
+        }
+
+        // the upper bound of each list's current block, and which block that is
+        int[] boundBlocks = new int[n];
+        double[] blockMaxScores = new double[n];
+        Arrays.fill(boundBlocks, -1);
+
+        // the lists (their index in invertedLists) in increasing order of current docId
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+
+        while (true) {
+            sortByCurrentDocId(invertedLists, order);
+            double threshold = topK.getThreshold();
+
+            // find the pivot. A doc has to score more than the threshold, not just
+            // as much - the docs in the top-k so far all have smaller docIds.
+            int pivot = -1;
+            double upperBound = 0.0;
+            for (int i = 0; i < n; i++) {
+                if (invertedLists.get(order[i]).getCurrentDocId() == Integer.MAX_VALUE)
+                    break;
+                upperBound += maxScores[order[i]];
+                if (upperBound > threshold) {
+                    pivot = i;
+                    break;
+                }
+            }
+            if (pivot < 0) {
+                // none of the docs left can make it
+                break;
+            }
+
+            int pivotDoc = invertedLists.get(order[pivot]).getCurrentDocId();
+
+            // the lists right after the pivot that are at the same doc count too
+            while (pivot + 1 < n
+                    && invertedLists.get(order[pivot + 1]).getCurrentDocId() == pivotDoc) {
+                pivot++;
+            }
+
+            double blockUpperBound = 0.0;
+            for (int i = 0; i <= pivot; i++) {
+                blockUpperBound += getBlockMaxScore(invertedLists, termOrdinals, order[i],
+                        pivotDoc, evaluator, maxScores, boundBlocks, blockMaxScores);
+            }
+
+            if (blockUpperBound > threshold) {
+                if (invertedLists.get(order[0]).getCurrentDocId() == pivotDoc) {
+                    // all the lists up to the pivot are at its doc - score it
+                    scoreDocument(invertedLists, termOrdinals, pivotDoc, evaluator);
+                } else {
+                    // no doc before the pivot's can make it
+                    for (int i = 0; i < pivot; i++) {
+                        invertedLists.get(order[i]).skipTo(pivotDoc);
+                    }
+                }
+            } else {
+                // no doc up to the end of the first of the blocks to end can make it,
+                // nor up to the next doc of the lists after the pivot
+                int next = Integer.MAX_VALUE;
+                for (int i = 0; i <= pivot; i++) {
+                    InvertedList iList = invertedLists.get(order[i]);
+                    int block = iList.findBlock(pivotDoc);
+                    if (block >= 0 && iList.getBlockLastDocId(block) < Integer.MAX_VALUE)
+                        next = Math.min(next, iList.getBlockLastDocId(block) + 1);
+                }
+                if (pivot + 1 < n)
+                    next = Math.min(next, invertedLists.get(order[pivot + 1]).getCurrentDocId());
+
+                for (int i = 0; i <= pivot; i++) {
+                    invertedLists.get(order[i]).skipTo(next);
+                }
+            }
+        }
+
+        return topK.getResults();
+    }
+
+    // scores the doc with the lists that are at it, adding up the scores in the order of
+    // the query terms, just like the DocAtATimeRetriever does, and moves those lists past it
+    private void scoreDocument(ArrayList<InvertedList> invertedLists, int[] termOrdinals,
+            int docId, Evaluator evaluator) {
+        double curDocScore = 0.0;
+        for (int i = 0; i < invertedLists.size(); i++) {
+            InvertedList iList = invertedLists.get(i);
+            if (iList.getCurrentDocId() == docId) {
+                curDocScore += evaluator.getDocScoreForQueryTerm(termOrdinals[i],
+                        iList.getCurrentTermFrequency(), docId);
+                iList.skipTo(docId + 1);
+            }
+        }
+
+        numDocumentsScored++;
+        topK.collect(docId, curDocScore);
+    }
+
+    // the upper bound of the list's score in the block that would have docId.
+    // It is worked out once for every block the list gets to.
+    private double getBlockMaxScore(ArrayList<InvertedList> invertedLists, int[] termOrdinals,
+            int i, int docId, Evaluator evaluator, double[] maxScores, int[] boundBlocks,
+            double[] blockMaxScores) {
+
+        InvertedList iList = invertedLists.get(i);
+        int block = iList.findBlock(docId);
+        if (block < 0) {
+            // the list has run out before docId
+            return 0.0;
+        }
+
+        if (boundBlocks[i] != block) {
+            boundBlocks[i] = block;
+            // a block's bound is never more than the term's
+            blockMaxScores[i] = Math.min(maxScores[i],
+                    evaluator.getMaxScoreForQueryTerm(termOrdinals[i],
+                            iList.getBlockMaxTermFrequency(block),
+                            iList.getBlockMaxBM25TermFrequencyComponent(block)));
+        }
+        return blockMaxScores[i];
+    }
+
+    // insertion sort - the lists are mostly in order from the last time
+    private void sortByCurrentDocId(ArrayList<InvertedList> invertedLists, int[] order) {
+        for (int i = 1; i < order.length; i++) {
+            int list = order[i];
+            int docId = invertedLists.get(list).getCurrentDocId();
+            int j = i;
+            while (j > 0 && invertedLists.get(order[j - 1]).getCurrentDocId() > docId) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = list;
+        }
+    }
+}
@@ -1,13 +1,9 @@
 package retriever;
 
-import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.PriorityQueue;
 
 import index.Index;
 import index.InvertedFileIndex;
@@ -23,98 +19,261 @@ public class DocAtATimeRetriever extends Retriever {
     @SuppressWarnings("unused")
     private ArrayList<Document> documents;
 
-    // number of docs; the retriver will iterate over 0 to numDocs
-    private int numDocs = 0;
+    // skip the docs that can't make it into the top-k (MaxScore)
+    // for the evaluators that allow it
+    private boolean maxScore = false;
 
     public DocAtATimeRetriever(Index i, ArrayList<Document> docs) {
         super(i);
         documents = docs;
     }
 
-    public DocAtATimeRetriever(Index i, int n) {
+    // (the retriever only visits the docs in the query-terms' lists,
+    // so it needn't know how many docs there are)
+    public DocAtATimeRetriever(Index i) {
         super(i);
-        numDocs = n;
+    }
+
+    /**
+     * @deprecated the number of docs isn't used; use {@link #DocAtATimeRetriever(Index)}
+     */
+    @Deprecated
+    public DocAtATimeRetriever(Index i, int n) {
+        this(i);
     }
 
     @Override
     public List<Entry<Integer, Double>> retrieveQuery(String[] query, int k, Evaluator evaluator) {
 
-        PriorityQueue<Map.Entry<Integer, Double>> priorityQueue = new PriorityQueue<Map.Entry<Integer, Double>>(
-                new Comparator<Map.Entry<Integer, Double>>() {
+        // the evaluator is compiled once, here, and only read from after that -
+        // so all the ranges can share it
+        String[] terms = evaluator.compileQuery(query);
+
+        if (numRanges == 1) {
+            topK.reset(k);
+            ArrayList<InvertedList> invertedLists = new ArrayList<InvertedList>();
+            int[] termOrdinals = fetchInvertedLists(terms, invertedLists);
+            numDocumentsScored += scoreRange(invertedLists, termOrdinals, evaluator, 0,
+                    Integer.MAX_VALUE, topK);
+            return topK.getResults();
+        }
+
+        // every range needs cursors of its own into the lists, so each range's task
+        // reads them for itself - the index can be read by any number of threads
+        TopKCollector[] rangeTopKs = new TopKCollector[numRanges];
+        long[] rangeDocumentsScored = new long[numRanges];
+        Runnable[] tasks = new Runnable[numRanges];
+        for (int r = 0; r < numRanges; r++) {
+            int range = r, from = getRangeStart(r), to = getRangeStart(r + 1);
+            rangeTopKs[r] = new TopKCollector(k);
+            tasks[r] = () -> {
+                ArrayList<InvertedList> invertedLists = new ArrayList<InvertedList>();
+                int[] termOrdinals = fetchInvertedLists(terms, invertedLists);
+                rangeDocumentsScored[range] = scoreRange(invertedLists, termOrdinals, evaluator,
+                        from, to, rangeTopKs[range]);
+            };
+        }
+        runRanges(tasks);
 
-                    @Override
-                    public int compare(Entry<Integer, Double> o1, Entry<Integer, Double> o2) {
-                        if (o1.getValue() < o2.getValue()) {
-                            return -1;
-                        } else if (o1.getValue() > o2.getValue()) {
-                            return 1;
-                        }
-                        return 0;
-                    }
-                });
+        for (long scored : rangeDocumentsScored) {
+            numDocumentsScored += scored;
+        }
+        return mergeRanges(rangeTopKs, k);
+    }
 
-        // list of InvertedLists for each query term
-        ArrayList<InvertedList> invertedLists = new ArrayList<InvertedList>();
+    // fetches the InvertedList of each (distinct) query term into invertedLists,
+    // and returns the term's ordinal in the compiled query for each of them
+    private int[] fetchInvertedLists(String[] terms, ArrayList<InvertedList> invertedLists) {
+        int[] termOrdinals = new int[terms.length];
 
         // fetch inverted list of all the query terms
-        for (String q : query) {
+        for (int t = 0; t < terms.length; t++) {
             // Doc-At-A-Time retrieval needs an inverted index
             // so we cast the index object appropriately
-            InvertedList list = ((InvertedFileIndex) index).getInvertedListForTerm(q);
+            InvertedList list = ((InvertedFileIndex) index).getInvertedListForTerm(terms[t]);
             if (list == null) {
                 System.out.println("Didn't find an inverted index associated with this term!");
                 continue;
             }
             // list.printSelf();
+            termOrdinals[invertedLists.size()] = t;
             invertedLists.add(list);
         }
+        return termOrdinals;
+    }
+
+    // scores the docs from 'from' up to (not including) 'to' into the collector,
+    // and returns how many were scored
+    private long scoreRange(ArrayList<InvertedList> invertedLists, int[] termOrdinals,
+            Evaluator evaluator, int from, int to, TopKCollector collector) {
+
+        if (from > 0) {
+            for (InvertedList iList : invertedLists) {
+                iList.skipTo(from);
+            }
+        }
 
         // check if this evaluator accepts even those documents
         // that don't have a query term to assign them a
         // background-probability score
         boolean evaluatorAssignsBackgroundProbability = evaluator.assignsBackgroundProbability();
 
-        // iterate through each document
-        for (int i = 0; i < numDocs; i++) {
-            int docId = i;
-            Double curDocScore = 0.0;
-            boolean docScored = false;
+        // a doc without any of the terms can't be skipped if it gets a score anyway
+        if (maxScore && !evaluatorAssignsBackgroundProbability) {
+            return retrieveWithMaxScore(invertedLists, termOrdinals, evaluator, to, collector);
+        }
+
+        long documentsScored = 0;
+
+        // only the docs in at least one of the lists are candidates -
+        // the cursors of all the lists move forward together, from one
+        // candidate to the next, and every other doc is never looked at
+        int docId = Integer.MAX_VALUE;
+        while ((docId = nextCandidateDocument(invertedLists)) < to) {
+            double curDocScore = 0.0;
 
             // check each term's I-List and accumulate the score for this doc
-            for (InvertedList iList : invertedLists) {
-                HashMap<Integer, Posting> postings = iList.getPostings();
-                if (postings.containsKey(docId)) {
+            for (int i = 0; i < invertedLists.size(); i++) {
+                InvertedList iList = invertedLists.get(i);
+                if (iList.getCurrentDocId() == docId) {
                     // We have the term in this doc.
                     // Ask the evaluator to score this doc w.r.t this query term
-                    docScored = true;
-                    curDocScore += evaluator.getDocScoreForQueryTerm(iList.getTerm(),
-                            postings.get(docId).getTermFrequency(), docId);
+                    curDocScore += evaluator.getDocScoreForQueryTerm(termOrdinals[i],
+                            iList.getCurrentTermFrequency(), docId);
+                    iList.skipTo(docId + 1);
                 } else if (evaluatorAssignsBackgroundProbability) {
                     // the evaluator accepts even those docs which don't have the query term.
-                    docScored = true;
                     // the term-frequency however should be sent as 0 since
                     // the doc doesn't have the term in it.
-                    curDocScore += evaluator.getDocScoreForQueryTerm(iList.getTerm(), 0, docId);
+                    curDocScore += evaluator.getDocScoreForQueryTerm(termOrdinals[i], 0, docId);
                 }
             }
 
-            // add to the Priority-Queue if the doc was scored atleast once!
-            if (docScored)
-                priorityQueue.add(
-                        new AbstractMap.SimpleEntry<Integer, Double>(docId, (-1) * curDocScore));
+            documentsScored++;
+            collector.collect(docId, curDocScore);
         }
 
-        List<Entry<Integer, Double>> result = new ArrayList<Map.Entry<Integer, Double>>();
+        return documentsScored;
+    }
+
+    /*
+     * MaxScore: the lists are sorted by the upper bound of their term's score
+     * (see Evaluator.getMaxScoreForQueryTerm()). Starting from the lowest, the
+     * lists whose bounds add up to less than the top-k threshold are
+     * "non-essential" - a doc that has none but their terms can't make it into
+     * the top-k. So only the docs in the other, "essential", lists are candidates.
+     * A non-essential list is only skipped to a candidate, and not even that once
+     * the candidate's score so far plus the bounds of the lists left can't beat
+     * the threshold. More lists become non-essential as the threshold goes up.
+     */
+    private long retrieveWithMaxScore(ArrayList<InvertedList> invertedLists,
+            int[] termOrdinals, Evaluator evaluator, int to, TopKCollector collector) {
+
+        int n = invertedLists.size();
+        double[] maxScores = new double[n];
+        for (int i = 0; i < n; i++) {
+            maxScores[i] = evaluator.getMaxScoreForQueryTerm(termOrdinals[i]);
+        }
 
-        int i = 0;
-        while (!priorityQueue.isEmpty() && i < k) {
-            Entry<Integer, Double> entry = priorityQueue.poll();
-            entry.setValue(-1 * entry.getValue());
-            result.add(entry);
-            i++;
+        // the lists (their index in invertedLists) in increasing order of upper bound
+        int[] order = new int[n], rank = new int[n];
+        for (int i = 0; i < n; i++) {
+            int j = i;
+            while (j > 0 && maxScores[order[j - 1]] > maxScores[i]) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            rank[order[i]] = i;
         }
 
-        return result;
+        // upper bound on what a doc can score from the lists order[0] .. order[i]
+        double[] cumulativeMaxScores = new double[n];
+        for (int i = 0; i < n; i++) {
+            cumulativeMaxScores[i] = maxScores[order[i]]
+                    + ((i == 0) ? 0.0 : cumulativeMaxScores[i - 1]);
+        }
+
+        // the score of the current candidate for each list
+        double[] scores = new double[n];
+
+        long documentsScored = 0;
+        int firstEssential = 0;
+        while (true) {
+            double threshold = collector.getThreshold();
+            while (firstEssential < n && cumulativeMaxScores[firstEssential] < threshold) {
+                firstEssential++;
+            }
+            if (firstEssential == n) {
+                // not even a doc with all the terms can make it anymore
+                break;
+            }
+
+            int docId = Integer.MAX_VALUE;
+            for (int i = firstEssential; i < n; i++) {
+                docId = Math.min(docId, invertedLists.get(order[i]).getCurrentDocId());
+            }
+            if (docId >= to)
+                break;
+
+            // the essential lists, in the order of the query terms
+            Arrays.fill(scores, 0.0);
+            double curDocScore = 0.0;
+            for (int i = 0; i < n; i++) {
+                InvertedList iList = invertedLists.get(i);
+                if (rank[i] >= firstEssential && iList.getCurrentDocId() == docId) {
+                    scores[i] = evaluator.getDocScoreForQueryTerm(termOrdinals[i],
+                            iList.getCurrentTermFrequency(), docId);
+                    curDocScore += scores[i];
+                    iList.skipTo(docId + 1);
+                }
+            }
+
+            // the non-essential lists, from the one with the highest bound
+            boolean canMakeIt = true;
+            for (int i = firstEssential - 1; i >= 0; i--) {
+                if (curDocScore + cumulativeMaxScores[i] < threshold) {
+                    canMakeIt = false;
+                    break;
+                }
+                InvertedList iList = invertedLists.get(order[i]);
+                iList.skipTo(docId);
+                if (iList.getCurrentDocId() == docId) {
+                    scores[order[i]] = evaluator.getDocScoreForQueryTerm(termOrdinals[order[i]],
+                            iList.getCurrentTermFrequency(), docId);
+                    curDocScore += scores[order[i]];
+                }
+            }
+
+            if (canMakeIt) {
+                // add the scores up in the order of the query terms, so that the doc
+                // gets exactly the score it would have without MaxScore
+                curDocScore = 0.0;
+                for (double score : scores) {
+                    curDocScore += score;
+                }
+                documentsScored++;
+                collector.collect(docId, curDocScore);
+            }
+        }
+
+        return documentsScored;
+    }
+
+    // MaxScore is only used with evaluators that don't assign background probability
+    public void setMaxScore(boolean maxScore) {
+        this.maxScore = maxScore;
+    }
+
+    // the next candidate is the smallest of the current docIds of the lists
+    private int nextCandidateDocument(ArrayList<InvertedList> invertedLists) {
+        int candidate = Integer.MAX_VALUE;
+        for (InvertedList iList : invertedLists) {
+            candidate = Math.min(candidate, iList.getCurrentDocId());
+        }
+        return candidate;
     }
 
     @Override
@@ -138,17 +297,17 @@ public class DocAtATimeRetriever extends Retriever {
         // (consecutive occurrence in a document)
 
         double countAB = 0;
-        for (Entry<Integer, Posting> entry : l1.getPostings().entrySet()) {
-            int docId = entry.getKey();
-            Posting p = entry.getValue();
+        for (int i = 0; i < l1.getDocumentFrequency(); i++) {
+            Posting p = l1.getPostingAt(i);
+            int docId = p.getDocId();
 
-            HashMap<Integer, Posting> entry2 = l2.getPostings();
-            if (entry2.containsKey(docId)) {
+            l2.skipTo(docId);
+            if (l2.getCurrentDocId() == docId) {
                 // both term1 and term2 are in the same doc
-                Posting q = entry2.get(docId);
+                Posting q = l2.getCurrentPosting();
 
                 // System.out.println("docid: " + docId);
-                countAB += getCountOfConsecutivePositions(p.getPositions(), q.getPositions());
+                countAB += getCountOfConsecutivePositions(p, q);
             }
         }
 
@@ -159,8 +318,7 @@ public class DocAtATimeRetriever extends Retriever {
         return (countAB) / (countA + countB);
     }
 
-    private int getCountOfConsecutivePositions(ArrayList<Integer> positionsA,
-            ArrayList<Integer> positionsB) {
+    private int getCountOfConsecutivePositions(Posting positionsA, Posting positionsB) {
 
         int count = 0;
         /*
@@ -172,10 +330,10 @@ public class DocAtATimeRetriever extends Retriever {
          */
         // two pointers to iterate over the position-arrays respectively
         int pointerA = 0, pointerB = 0;
-        int len1 = positionsA.size(), len2 = positionsB.size();
+        int len1 = positionsA.getTermFrequency(), len2 = positionsB.getTermFrequency();
 
         while (pointerA < len1 && pointerB < len2) {
-            int a = positionsA.get(pointerA), b = positionsB.get(pointerB);
+            int a = positionsA.getPosition(pointerA), b = positionsB.getPosition(pointerB);
             if ((a + 1) == b) {
                 // consecutive positions - term A just before term B
                 count++;
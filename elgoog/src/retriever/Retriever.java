@@ -1,7 +1,10 @@
 package retriever;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import index.Index;
 import retriever.evaluation.Evaluator;
@@ -14,6 +17,20 @@ public abstract class Retriever {
     // to construct index from a file on disk.
     protected Index index = null;
 
+    // the k best documents of the query being retrieved.
+    // Its threshold is the score a document has to beat to make it into the results.
+    protected TopKCollector topK = new TopKCollector(0);
+
+    // how many documents have been scored (fully) since the retriever was created
+    protected long numDocumentsScored = 0;
+
+    // The retrievers that can (DocAtATimeRetriever and InferenceNetworkRetriever)
+    // split the docIds into this many ranges of about the same size, and score the
+    // ranges in parallel on the pool's workers - each into its own top-k, which are
+    // merged at the end. One range means the query is scored on the calling thread.
+    protected int numRanges = 1;
+    protected ForkJoinPool pool = ForkJoinPool.commonPool();
+
     public Retriever(Index i) {
         index = i;
     }
@@ -35,6 +52,47 @@ public abstract class Retriever {
         return null;
     }
 
+    public long getNumDocumentsScored() {
+        return numDocumentsScored;
+    }
+
+    public void setNumRanges(int numRanges) {
+        this.numRanges = Math.max(1, numRanges);
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // the first docId of the range (of numRanges); range numRanges is where the last ends
+    protected int getRangeStart(int range) {
+        if (range == numRanges)
+            return Integer.MAX_VALUE;
+        return (int) ((long) index.getNumDocs() * range / numRanges);
+    }
+
+    // runs the tasks (one per range) on the pool and waits for all of them
+    protected void runRanges(Runnable[] tasks) {
+        ArrayList<ForkJoinTask<?>> running = new ArrayList<ForkJoinTask<?>>();
+        for (Runnable task : tasks) {
+            running.add(pool.submit(task));
+        }
+        for (ForkJoinTask<?> task : running) {
+            task.join();
+        }
+    }
+
+    // merges the top-k of every range into the retriever's own
+    protected List<Map.Entry<Integer, Double>> mergeRanges(TopKCollector[] rangeTopKs, int k) {
+        topK.reset(k);
+        for (TopKCollector rangeTopK : rangeTopKs) {
+            for (Map.Entry<Integer, Double> entry : rangeTopK.getResults()) {
+                topK.collect(entry.getKey(), entry.getValue());
+            }
+        }
+        return topK.getResults();
+    }
+
     // This method computes Dice's coefficient for 2 terms.
     protected double computeDiceCoefficient(String a, String b) {
         return 0.0;
@@ -0,0 +1,232 @@
+package retriever;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import index.ImpactOrderedIndex;
+import index.ImpactOrderedList;
+import index.InvertedFileIndex;
+import retriever.evaluation.BM25Evaluator;
+import retriever.evaluation.Evaluator;
+
+/*
+ * Score-at-a-time retrieval over the impact-ordered copy of an index (see
+ * ImpactOrderedIndex). The segments of all the query-terms' lists are gone
+ * through highest (query-weighted) impact first, adding the impacts into an
+ * accumulator per doc, like the TermAtATimeRetriever does. Since the postings
+ * that count the most come first, retrieval can stop early - after a budget
+ * of postings, or of time - and still have the docs that matter most scored.
+ * That makes it an "anytime" retriever: how good the ranking is depends on how
+ * long it's given. How far it got is reported after every query.
+ *
+ * The impacts are BM25 scores (k1 = 1.2, b = 0.75) quantized when the index
+ * was written, so the evaluator has to be a BM25Evaluator - anything else is
+ * refused, rather than have the query scored with a model it didn't ask for.
+ * The evaluator's own scores aren't used. A term that is in the query more
+ * than once has its impacts multiplied by the number of times - BM25's
+ * query-term component with k2 = 100 is close to just that. With no
+ * budget, the ranking is BM25's up to the quantization.
+ */
+
+public class ScoreAtATimeRetriever extends Retriever {
+
+    // how often (in postings) the clock is looked at
+    private static final int TIME_CHECK_INTERVAL = 1024;
+
+    private ImpactOrderedIndex impactOrderedIndex;
+
+    private int numDocs = 0;
+
+    // integer score so far of each doc, and which docs have one
+    private int[] accumulators;
+    private long[] touched;
+
+    // docIds of the segment being gone through
+    private int[] segmentDocIds = new int[TIME_CHECK_INTERVAL];
+
+    // stop after this many postings, or this many nanoseconds
+    private long postingsBudget = Long.MAX_VALUE;
+    private long timeBudget = Long.MAX_VALUE;
+
+    // how far the last query got
+    private long numPostingsProcessed = 0, numPostingsInQuery = 0;
+    private int numSegmentsProcessed = 0, numSegmentsInQuery = 0;
+    private int lowestImpactProcessed = 0;
+    private boolean complete = true;
+
+    public ScoreAtATimeRetriever(InvertedFileIndex i) {
+        super(i);
+        impactOrderedIndex = new ImpactOrderedIndex(i);
+        numDocs = i.getNumDocs();
+        accumulators = new int[numDocs];
+        touched = new long[(numDocs + 63) / 64];
+    }
+
+    // the number of postings a query may go through, or Long.MAX_VALUE for all of them
+    public void setPostingsBudget(long postings) {
+        postingsBudget = postings;
+    }
+
+    // the time (in milliseconds) a query may take, or Long.MAX_VALUE for no limit
+    public void setTimeBudget(long milliseconds) {
+        timeBudget = (milliseconds >= Long.MAX_VALUE / 1000000) ? Long.MAX_VALUE
+                : milliseconds * 1000000;
+    }
+
+    @Override
+    public List<Entry<Integer, Double>> retrieveQuery(String[] query, int k, Evaluator evaluator) {
+        if (!(evaluator instanceof BM25Evaluator))
+            throw new IllegalArgumentException("The impact-ordered index has BM25 scores, "
+                    + "so it can't score a query with " + evaluator);
+
+        long startTime = System.nanoTime();
+        topK.reset(k);
+
+        // each term once, with the number of times it's in the query
+        HashMap<String, Integer> termFrequencyInQuery = new HashMap<String, Integer>();
+        ArrayList<ImpactOrderedList> lists = new ArrayList<ImpactOrderedList>();
+        for (String q : query) {
+            if (termFrequencyInQuery.containsKey(q)) {
+                termFrequencyInQuery.put(q, termFrequencyInQuery.get(q) + 1);
+                continue;
+            }
+            termFrequencyInQuery.put(q, 1);
+
+            ImpactOrderedList list = impactOrderedIndex.getImpactOrderedListForTerm(q);
+            // a term that's in no doc has no impacts to add up
+            if (list == null)
+                continue;
+            lists.add(list);
+        }
+
+        // all the segments of all the lists, as (list, segment) pairs,
+        // in decreasing order of weighted impact
+        numSegmentsInQuery = 0;
+        numPostingsInQuery = 0;
+        for (ImpactOrderedList list : lists) {
+            numSegmentsInQuery += list.getNumSegments();
+            numPostingsInQuery += list.getNumPostings();
+        }
+        // (ImpactOrderedIndex.IMPACT_LEVELS segments at most per list, so a segment fits
+        // in 8 bits, the list in the 24 above, and the weighted impact above those)
+        long[] order = new long[numSegmentsInQuery];
+        int n = 0;
+        for (int l = 0; l < lists.size(); l++) {
+            ImpactOrderedList list = lists.get(l);
+            int weight = termFrequencyInQuery.get(list.getTerm());
+            for (int s = 0; s < list.getNumSegments(); s++) {
+                long impact = (long) list.getImpact(s) * weight;
+                order[n++] = ((Integer.MAX_VALUE - impact) << 32) | ((long) l << 8) | s;
+            }
+        }
+        // ties go to the earlier term
+        Arrays.sort(order);
+
+        numPostingsProcessed = 0;
+        numSegmentsProcessed = 0;
+        lowestImpactProcessed = 0;
+        complete = true;
+
+        for (int i = 0; i < numSegmentsInQuery && complete; i++) {
+            ImpactOrderedList list = lists.get((int) (order[i] >>> 8) & 0xFFFFFF);
+            int segment = (int) order[i] & 0xFF;
+            int impact = Integer.MAX_VALUE - (int) (order[i] >>> 32);
+
+            int length = list.getSegmentLength(segment);
+            if (segmentDocIds.length < length)
+                segmentDocIds = new int[length];
+            list.decodeSegment(segment, segmentDocIds);
+
+            int j = 0;
+            for (; j < length; j++) {
+                if (numPostingsProcessed >= postingsBudget
+                        || (numPostingsProcessed % TIME_CHECK_INTERVAL == 0
+                                && System.nanoTime() - startTime >= timeBudget)) {
+                    complete = false;
+                    break;
+                }
+
+                int docId = segmentDocIds[j];
+                accumulators[docId] += impact;
+                touched[docId >>> 6] |= 1L << docId;
+                numPostingsProcessed++;
+            }
+
+            if (complete)
+                numSegmentsProcessed++;
+            if (j > 0)
+                lowestImpactProcessed = impact;
+        }
+
+        // collect the docs in increasing order of docId, clearing them on the way
+        double scorePerLevel = impactOrderedIndex.getScorePerLevel();
+        for (int w = 0; w < touched.length; w++) {
+            long word = touched[w];
+            if (word == 0)
+                continue;
+
+            touched[w] = 0;
+            while (word != 0) {
+                int docId = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+
+                numDocumentsScored++;
+                topK.collect(docId, accumulators[docId] * scorePerLevel);
+                accumulators[docId] = 0;
+            }
+        }
+
+        return topK.getResults();
+    }
+
+    /**
+     * @return true if the last query went through all of its postings, false if
+     *         it ran out of budget first
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return how many postings the last query went through
+     */
+    public long getNumPostingsProcessed() {
+        return numPostingsProcessed;
+    }
+
+    /**
+     * @return how many postings (with an impact) the last query's terms have
+     */
+    public long getNumPostingsInQuery() {
+        return numPostingsInQuery;
+    }
+
+    /**
+     * @return how many segments the last query went through completely
+     */
+    public int getNumSegmentsProcessed() {
+        return numSegmentsProcessed;
+    }
+
+    public int getNumSegmentsInQuery() {
+        return numSegmentsInQuery;
+    }
+
+    /**
+     * @return the weighted impact of the last segment the last query got to (or 0 if
+     *         none) - no posting it didn't go through counts for more
+     */
+    public int getLowestImpactProcessed() {
+        return lowestImpactProcessed;
+    }
+
+    // how far the last query got, for printing
+    public String getProgress() {
+        return (complete ? "complete" : "stopped early") + ": " + numPostingsProcessed + " of "
+                + numPostingsInQuery + " postings, " + numSegmentsProcessed + " of "
+                + numSegmentsInQuery + " segments, down to impact " + lowestImpactProcessed;
+    }
+}
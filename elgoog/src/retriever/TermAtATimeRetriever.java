@@ -0,0 +1,202 @@
+package retriever;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+
+import index.Index;
+import index.InvertedFileIndex;
+import index.InvertedList;
+import retriever.evaluation.Evaluator;
+
+/*
+ * Term-at-a-time retrieval: each query-term's list is gone through in full,
+ * one after the other, adding the scores of its docs to a dense array of
+ * accumulators (one per doc) - with a bitset of the docs that got anything.
+ * The docs are then collected from the bitset in increasing order of docId.
+ *
+ * Both the arrays are kept from one query to the next, and only the docs
+ * that were touched are cleared - so a query costs about as much as the
+ * postings it goes through, plus a scan of numDocs / 64 words of bitset.
+ *
+ * The scores are added up in the order of the query terms, and the docs are
+ * collected in order of docId, so the top-k is exactly what the
+ * DocAtATimeRetriever returns.
+ *
+ * A query is handed over to a DocAtATimeRetriever when the cost model (see
+ * prefersTermAtATime()) says it'd be faster there.
+ */
+
+public class TermAtATimeRetriever extends Retriever {
+
+    // costs, compared to a doc-at-a-time merge looking at one list for one
+    // candidate doc (about 20ns): of moving the merge on to the next candidate,
+    // of going through a posting term-at-a-time, of scanning a word of the bitset
+    // and what a query costs term-at-a-time over what it does doc-at-a-time
+    // before any posting is looked at. See prefersTermAtATime() for where
+    // they're from.
+    private static final double DAAT_CANDIDATE_COST = 1.3, TAAT_POSTING_COST = 1.9,
+            TAAT_BITSET_WORD_COST = 0.03, TAAT_QUERY_COST = 120;
+
+    private int numDocs = 0;
+
+    // score so far of each doc, and which docs have one
+    private double[] accumulators;
+    private long[] touched;
+
+    // for the queries that are cheaper doc-at-a-time
+    private DocAtATimeRetriever docAtATimeRetriever;
+
+    // let the cost model choose, or always go term-at-a-time
+    private boolean costModel = true;
+
+    public TermAtATimeRetriever(Index i) {
+        super(i);
+        numDocs = i.getNumDocs();
+        accumulators = new double[numDocs];
+        touched = new long[(numDocs + 63) / 64];
+        docAtATimeRetriever = new DocAtATimeRetriever(i);
+    }
+
+    public void setCostModel(boolean costModel) {
+        this.costModel = costModel;
+    }
+
+    @Override
+    public List<Entry<Integer, Double>> retrieveQuery(String[] query, int k, Evaluator evaluator) {
+
+        if (costModel && !prefersTermAtATime(query)) {
+            long before = docAtATimeRetriever.getNumDocumentsScored();
+            List<Entry<Integer, Double>> result = docAtATimeRetriever.retrieveQuery(query, k,
+                    evaluator);
+            numDocumentsScored += docAtATimeRetriever.getNumDocumentsScored() - before;
+            return result;
+        }
+
+        topK.reset(k);
+
+        // list of InvertedLists for each (distinct) query term,
+        // and the term's ordinal in the compiled query
+        ArrayList<InvertedList> invertedLists = new ArrayList<InvertedList>();
+        String[] terms = evaluator.compileQuery(query);
+        int[] termOrdinals = new int[terms.length];
+        for (int t = 0; t < terms.length; t++) {
+            InvertedList list = ((InvertedFileIndex) index).getInvertedListForTerm(terms[t]);
+            // a term that's in no doc is left out of the query, as it is doc-at-a-time
+            if (list == null)
+                continue;
+            termOrdinals[invertedLists.size()] = t;
+            invertedLists.add(list);
+        }
+
+        if (evaluator.assignsBackgroundProbability()) {
+            // every doc in any of the lists gets a score for every term,
+            // so find out which docs those are first
+            for (InvertedList iList : invertedLists) {
+                for (iList.startIteration(); iList.hasMore(); iList.next()) {
+                    int docId = iList.getCurrentDocId();
+                    touched[docId >>> 6] |= 1L << docId;
+                }
+            }
+            for (int i = 0; i < invertedLists.size(); i++) {
+                addBackgroundScores(invertedLists.get(i), termOrdinals[i], evaluator);
+            }
+        } else {
+            for (int i = 0; i < invertedLists.size(); i++) {
+                InvertedList iList = invertedLists.get(i);
+                int termOrdinal = termOrdinals[i];
+                for (iList.startIteration(); iList.hasMore(); iList.next()) {
+                    int docId = iList.getCurrentDocId();
+                    accumulators[docId] += evaluator.getDocScoreForQueryTerm(termOrdinal,
+                            iList.getCurrentTermFrequency(), docId);
+                    touched[docId >>> 6] |= 1L << docId;
+                }
+            }
+        }
+
+        // collect the docs in increasing order of docId, clearing them on the way
+        for (int w = 0; w < touched.length; w++) {
+            long word = touched[w];
+            if (word == 0)
+                continue;
+
+            touched[w] = 0;
+            while (word != 0) {
+                int docId = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+
+                numDocumentsScored++;
+                topK.collect(docId, accumulators[docId]);
+                accumulators[docId] = 0.0;
+            }
+        }
+
+        return topK.getResults();
+    }
+
+    // adds the list's term's score to every touched doc - with a term-frequency
+    // of 0 for the docs that don't have the term
+    private void addBackgroundScores(InvertedList iList, int termOrdinal, Evaluator evaluator) {
+        iList.startIteration();
+
+        for (int w = 0; w < touched.length; w++) {
+            long word = touched[w];
+            while (word != 0) {
+                int docId = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+
+                int termFrequency = 0;
+                if (iList.getCurrentDocId() == docId) {
+                    termFrequency = iList.getCurrentTermFrequency();
+                    iList.next();
+                }
+                accumulators[docId] += evaluator.getDocScoreForQueryTerm(termOrdinal,
+                        termFrequency, docId);
+            }
+        }
+    }
+
+    /*
+     * The cost model. Doc-at-a-time, every candidate doc - every doc that's in
+     * any of the lists - gets every list looked at. Taking the terms to be in
+     * the docs independently of each other, a doc is a candidate with
+     * probability 1 - (1 - df_1 / numDocs) * (1 - df_2 / numDocs) * ...
+     * Term-at-a-time goes through every posting once, but always scans the whole
+     * bitset as well, and has more to set up.
+     *
+     * The costs are a least-squares fit (weighted by 1 / the time) of the times
+     * of 600 BM25 queries, of 1 to 8 terms with lists from 1e-4 to 0.6 of the
+     * docs, on generated indexes of 750, 20,000 and 200,000 docs:
+     * doc-at-a-time came to about 7us + 27ns per candidate + 21ns per candidate
+     * per list, and term-at-a-time to 9.6us + 40ns per posting. The bitset scan
+     * didn't show at all (at 200,000 docs it's 3,125 words), so its cost is
+     * what scanning the bitset of 50 million docs on its own came to, 0.7ns a
+     * word. Going by the model, the queries took 2.1%, 3.5% and 0.1% longer on
+     * the three indexes than the faster of the two for each query would have.
+     * Leaving every single term, and only those, to doc-at-a-time (which is what
+     * the model used to come down to) took 1.8%, 4.4% and 2.5% longer - on a
+     * bigger index a term with a long list is faster term-at-a-time too.
+     */
+    public boolean prefersTermAtATime(String[] query) {
+        long summedDocumentFrequency = 0;
+        int numLists = 0;
+        double notCandidate = 1.0;
+        // a term that is in the query more than once has its list gone through once
+        for (String q : new HashSet<String>(Arrays.asList(query))) {
+            int df = index.getDocumentFrequencyForTerm(q);
+            if (df > 0) {
+                summedDocumentFrequency += df;
+                numLists++;
+                notCandidate *= 1.0 - (double) df / numDocs;
+            }
+        }
+        double numCandidates = numDocs * (1.0 - notCandidate);
+
+        double docAtATimeCost = numCandidates * (DAAT_CANDIDATE_COST + numLists);
+        double termAtATimeCost = TAAT_QUERY_COST + TAAT_POSTING_COST * summedDocumentFrequency
+                + TAAT_BITSET_WORD_COST * touched.length;
+        return termAtATimeCost < docAtATimeCost;
+    }
+}
@@ -0,0 +1,147 @@
+package retriever;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/*
+ * Keeps the k best-scoring documents seen so far.
+ * It is a min-heap of (at most) k documents over parallel primitive arrays,
+ * with the worst of the k at the root - so a document that doesn't beat it is
+ * turned away straight off, without anything being allocated for it.
+ *
+ * Of two documents with the same score, the one with the smaller docId wins.
+ *
+ * A collector can be reused for the next query after a reset().
+ */
+
+public class TopKCollector {
+
+    private int k;
+
+    // the heap: docIds[i] and scores[i] make up node i, which has
+    // nodes 2i+1 and 2i+2 as its children
+    private int[] docIds;
+    private double[] scores;
+
+    private int size = 0;
+
+    public TopKCollector(int k) {
+        reset(k);
+    }
+
+    // empties the collector to collect the k best documents of another query
+    public void reset(int k) {
+        this.k = k;
+        if (docIds == null || docIds.length < k) {
+            docIds = new int[Math.max(1, k)];
+            scores = new double[Math.max(1, k)];
+        }
+        size = 0;
+    }
+
+    /**
+     * @return the score a document has to beat to get into the top k, or
+     *         Double.NEGATIVE_INFINITY while there are fewer than k documents
+     */
+    public double getThreshold() {
+        return (size < k) ? Double.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * @return true if the document made it into the top k (so far)
+     */
+    public boolean collect(int docId, double score) {
+        if (k <= 0)
+            return false;
+
+        if (size < k) {
+            docIds[size] = docId;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+
+        if (!isBetter(docId, score, 0))
+            return false;
+
+        // the root is the worst of the k - replace it
+        docIds[0] = docId;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the collected documents and their scores, best first
+     */
+    public List<Entry<Integer, Double>> getResults() {
+        List<Entry<Integer, Double>> result = new ArrayList<Map.Entry<Integer, Double>>(size);
+
+        // pop the heap (worst first) and then turn it around
+        int[] heapDocIds = docIds.clone();
+        double[] heapScores = scores.clone();
+        int n = size;
+        while (size > 0) {
+            result.add(new AbstractMap.SimpleEntry<Integer, Double>(docIds[0], scores[0]));
+            size--;
+            docIds[0] = docIds[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        Collections.reverse(result);
+
+        // leave the collector as it was
+        docIds = heapDocIds;
+        scores = heapScores;
+        size = n;
+
+        return result;
+    }
+
+    // is (docId, score) better than the document at node i?
+    private boolean isBetter(int docId, double score, int i) {
+        return score > scores[i] || (score == scores[i] && docId < docIds[i]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!isBetter(docIds[parent], scores[parent], i))
+                return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int worst = i, left = 2 * i + 1, right = left + 1;
+            if (left < size && isBetter(docIds[worst], scores[worst], left))
+                worst = left;
+            if (right < size && isBetter(docIds[worst], scores[worst], right))
+                worst = right;
+            if (worst == i)
+                return;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int docId = docIds[i];
+        docIds[i] = docIds[j];
+        docIds[j] = docId;
+
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
@@ -1,6 +1,6 @@
 package retriever.evaluation;
 
-import java.util.ArrayList;
+import java.nio.IntBuffer;
 import java.util.HashMap;
 
 import index.Index;
@@ -12,65 +12,137 @@ public class BM25Evaluator extends Evaluator {
     private int N = 0; // total number of documents in the index/collection
     private double avdl = 0; // average document length in collection
 
-    private double k1 = 1.2, b = 0.75, k2 = 100.0;
+    private static final double k1 = 1.2, b = 0.75, k2 = 100.0;
 
     HashMap<String, Integer> termFrequencyInQuery = null;
 
-    // pre-computed documents lengths for all docs in the collection
-    private ArrayList<Integer> docLengths = null;
+    // the ordinal of each term of the compiled query
+    private HashMap<String, Integer> termOrdinals = new HashMap<String, Integer>();
 
-    // map of "bm25#"<query-term>#"<docid> : just a weird sequence that has less
-    // chance of clashing
-    private HashMap<String, Boolean> seenQueryTerm = null;
+    // documents lengths for all docs in the collection, from the index
+    private IntBuffer docLengths = null;
 
-    public BM25Evaluator(Index i, String[] query, ArrayList<Integer> lengths) {
+    // per term of the compiled query: its idf, its query-term component and
+    // the largest tf-component it has in any doc
+    private double[] idfs = new double[0];
+    private double[] queryTermComponents = new double[0];
+    private double[] maxTermFrequencyComponents = new double[0];
+
+    public BM25Evaluator(Index i, String[] query) {
         index = i;
         N = index.getNumDocs();
-        avdl = (double) index.getNumWordsInCollection() / (double) N;
+        avdl = index.getAverageDocumentLength();
+        docLengths = index.getDocumentLengths();
+
+        // pre-compute the weights of the terms in the query
+        // (a retriever compiles the query it's given again)
+        compileQuery(query);
+    }
 
-        // pre-compute frequency of terms in the query
+    @Override
+    protected void compileQueryTerms() {
+        int n = queryTerms.length;
         termFrequencyInQuery = new HashMap<String, Integer>();
-        for (String s : query) {
-            int count = 1;
-            if (termFrequencyInQuery.containsKey(s)) {
-                count = termFrequencyInQuery.get(s) + 1;
-            }
-            termFrequencyInQuery.put(s, count);
+        termOrdinals = new HashMap<String, Integer>();
+        idfs = new double[n];
+        queryTermComponents = new double[n];
+        maxTermFrequencyComponents = new double[n];
+
+        for (int i = 0; i < n; i++) {
+            termFrequencyInQuery.put(queryTerms[i], queryTermFrequencies[i]);
+            termOrdinals.put(queryTerms[i], i);
+            idfs[i] = getInverseDocumentFrequency(queryTerms[i]);
+            queryTermComponents[i] = getQueryTermComponent(queryTerms[i]);
+            maxTermFrequencyComponents[i] = index
+                    .getMaxBM25TermFrequencyComponentForTerm(queryTerms[i]);
         }
-        docLengths = lengths;
-        seenQueryTerm = new HashMap<String, Boolean>();
     }
 
+    // The score of the term - with its query-term component, so a term that is
+    // in the query more than once should be scored (just) once for a doc.
+    // A term of the compiled query has had its idf and query-term component
+    // worked out already (the inference network's term nodes score by the term,
+    // posting after posting), so only another term has them worked out here.
     @Override
     public double getDocScoreForQueryTerm(String queryTerm, int termFrequency, int docId) {
+        Integer ordinal = termOrdinals.get(queryTerm);
+        if (ordinal != null)
+            return getDocScoreForQueryTerm(ordinal, termFrequency, docId);
+
+        double tfComponent = getTermFrequencyComponent(termFrequency, docLengths.get(docId),
+                avdl);
+        double queryTermComponent = getQueryTermComponent(queryTerm);
+
+        double score = getInverseDocumentFrequency(queryTerm) * tfComponent * queryTermComponent;
+        return score;
+    }
+
+    @Override
+    public double getDocScoreForQueryTerm(int termOrdinal, int termFrequency, int docId) {
+        double tfComponent = getTermFrequencyComponent(termFrequency, docLengths.get(docId),
+                avdl);
+        return idfs[termOrdinal] * tfComponent * queryTermComponents[termOrdinal];
+    }
+
+    // The index keeps the largest tf-component of every term,
+    // which makes this an upper bound on any one document's score
+    @Override
+    public double getMaxScoreForQueryTerm(String queryTerm) {
+        return getMaxScoreForQueryTerm(queryTerm, 0,
+                index.getMaxBM25TermFrequencyComponentForTerm(queryTerm));
+    }
+
+    @Override
+    public double getMaxScoreForQueryTerm(String queryTerm, int maxTermFrequency,
+            double maxBM25TermFrequencyComponent) {
+        return getMaxScore(getInverseDocumentFrequency(queryTerm), maxBM25TermFrequencyComponent,
+                getQueryTermComponent(queryTerm));
+    }
+
+    @Override
+    public double getMaxScoreForQueryTerm(int termOrdinal) {
+        return getMaxScoreForQueryTerm(termOrdinal, 0, maxTermFrequencyComponents[termOrdinal]);
+    }
+
+    @Override
+    public double getMaxScoreForQueryTerm(int termOrdinal, int maxTermFrequency,
+            double maxBM25TermFrequencyComponent) {
+        return getMaxScore(idfs[termOrdinal], maxBM25TermFrequencyComponent,
+                queryTermComponents[termOrdinal]);
+    }
 
-        // check if the term was already evaluated for this doc
-        if (seenQueryTerm.containsKey("bm25#" + queryTerm + "#" + docId)) {
-            // we have already seen this term for this docId
-            // return a score of 0
+    private static double getMaxScore(double idf, double maxBM25TermFrequencyComponent,
+            double queryTermComponent) {
+        // a term in (at least) half the docs scores zero or below,
+        // and a doc without it gets zero for it
+        if (idf <= 0)
             return 0.0;
-        }
 
-        // mark the term as "seen" for this document
-        seenQueryTerm.put("bm25#" + queryTerm + "#" + docId, true);
+        return idf * maxBM25TermFrequencyComponent * queryTermComponent;
+    }
 
+    private double getInverseDocumentFrequency(String queryTerm) {
         // document-frequency of this query-term
         // (how many documents does it appear atleast once)
         int n = index.getDocumentFrequencyForTerm(queryTerm);
 
         double logNumerator = (double) N - (double) n + 0.5;
         double logDenominator = (double) n + 0.5;
+        return Math.log(logNumerator / logDenominator);
+    }
 
-        int dl = docLengths.get(docId);
+    // the part of the score that depends on the term's frequency in the doc
+    // and the length of the doc
+    public static double getTermFrequencyComponent(int termFrequency, int dl, double avdl) {
         double K = k1 * ((1 - b) + (b * dl / avdl));
-        double tfComponent = (k1 + 1) * termFrequency / (K + termFrequency);
+        return (k1 + 1) * termFrequency / (K + termFrequency);
+    }
+
+    private double getQueryTermComponent(String queryTerm) {
         int queryTermFrequency = termFrequencyInQuery.containsKey(queryTerm)
                 ? termFrequencyInQuery.get(queryTerm)
                 : 0;
-        double queryTermComponent = (k2 + 1) * queryTermFrequency / (k2 + queryTermFrequency);
-
-        double score = Math.log(logNumerator / logDenominator) * tfComponent * queryTermComponent;
-        return score;
+        return (k2 + 1) * queryTermFrequency / (k2 + queryTermFrequency);
     }
 
     @Override
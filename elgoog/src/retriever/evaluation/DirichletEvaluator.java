@@ -1,9 +1,8 @@
 package retriever.evaluation;
 
-import java.util.ArrayList;
+import java.nio.IntBuffer;
 
 import index.Index;
-import index.InvertedFileIndex;
 
 /*
  * This is a query-likelihood model which uses
@@ -17,41 +16,63 @@ public class DirichletEvaluator extends Evaluator {
 
     Index index = null;
 
-    // pre-computed documents lengths for all docs in the collection
-    private ArrayList<Integer> docLengths = null;
+    // documents lengths for all docs in the collection, from the index
+    private IntBuffer docLengths = null;
 
     private double mu = 1500.0;
 
-    public DirichletEvaluator(Index i, ArrayList<Integer> lengths) {
+    // mu times the collection-frequency of each term of the compiled query
+    private double[] backgroundNumerators = new double[0];
+
+    public DirichletEvaluator(Index i) {
         index = i;
-        docLengths = lengths;
+        docLengths = index.getDocumentLengths();
     }
 
-    public DirichletEvaluator(double mu, InvertedFileIndex i, ArrayList<Integer> lengths) {
+    public DirichletEvaluator(double mu, Index i) {
         this.mu = mu;
         index = i;
-        docLengths = lengths;
+        docLengths = index.getDocumentLengths();
     }
 
     @Override
     public double getDocScoreForQueryTerm(String queryTerm, int termFrequency, int docId) {
         double denominator = docLengths.get(docId) + mu;
-        double foregroundProbability = (double) termFrequency / (double) denominator;
+        double foregroundProbability = (double) termFrequency / denominator;
         double backgroundProbability = mu * (index.getCollectionFrequencyForTerm(queryTerm))
-                / (double) ((index.getNumWordsInCollection()) * denominator);
+                / (index.getNumWordsInCollection() * denominator);
 
         return Math.log((foregroundProbability + backgroundProbability));
     }
 
+    @Override
+    protected void compileQueryTerms() {
+        backgroundNumerators = new double[queryTerms.length];
+        for (int i = 0; i < queryTerms.length; i++) {
+            backgroundNumerators[i] = mu * (index.getCollectionFrequencyForTerm(queryTerms[i]));
+        }
+    }
+
+    @Override
+    public double getDocScoreForQueryTerm(int termOrdinal, int termFrequency, int docId) {
+        double denominator = docLengths.get(docId) + mu;
+        double foregroundProbability = (double) termFrequency / denominator;
+        double backgroundProbability = backgroundNumerators[termOrdinal]
+                / (index.getNumWordsInCollection() * denominator);
+
+        return queryTermFrequencies[termOrdinal]
+                * Math.log((foregroundProbability + backgroundProbability));
+    }
+
     // when it comes to a window operator (unordered or ordered)
     // we don't want to compute collection-frequency at scoring-time.
     // let the caller provide that for us.
     @Override
     public double getDocScoreForQueryWindow(int termFrequency, int docId, int collectionFrequency) {
         double denominator = docLengths.get(docId) + mu;
-        double foregroundProbability = (double) termFrequency / (double) denominator;
+        double foregroundProbability = (double) termFrequency / denominator;
         double backgroundProbability = mu * collectionFrequency
-                / (double) ((index.getNumWordsInCollection()) * denominator);
+                / (index.getNumWordsInCollection() * denominator);
 
         return Math.log((foregroundProbability + backgroundProbability));
     }
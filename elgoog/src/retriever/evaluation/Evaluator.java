@@ -1,7 +1,16 @@
 package retriever.evaluation;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+
 public abstract class Evaluator {
 
+    // The query, as compiled by compileQuery(): its distinct terms, in the
+    // order in which they first appear in it, and how many times each does.
+    // A term's index in these arrays is its ordinal.
+    protected String[] queryTerms = new String[0];
+    protected int[] queryTermFrequencies = new int[0];
+
     // The evaluator should return true if it needs even those
     // documents to be sent to be scored which don't have the query term
     // by assigning a background probability.
@@ -10,6 +19,78 @@ public abstract class Evaluator {
 
     public abstract double getDocScoreForQueryTerm(String queryTerm, int termFrequency, int docId);
 
+    /*
+     * Compiles the query once, before its docs are scored: each term is given
+     * an ordinal, and the evaluator works out whatever it needs per term (see
+     * compileQueryTerms()) so that scoring a doc by the ordinal doesn't look
+     * anything up. A term that is in the query more than once gets one ordinal,
+     * whose score counts for all the times it's there - so the retriever has to
+     * score it only once.
+     * Returns the distinct terms - the ordinal of a term is its index.
+     */
+    public String[] compileQuery(String[] query) {
+        HashMap<String, Integer> ordinals = new HashMap<String, Integer>();
+        ArrayList<String> terms = new ArrayList<String>();
+        int[] frequencies = new int[query.length];
+        for (String term : query) {
+            Integer ordinal = ordinals.get(term);
+            if (ordinal == null) {
+                ordinal = terms.size();
+                ordinals.put(term, ordinal);
+                terms.add(term);
+            }
+            frequencies[ordinal]++;
+        }
+
+        queryTerms = terms.toArray(new String[terms.size()]);
+        queryTermFrequencies = new int[queryTerms.length];
+        System.arraycopy(frequencies, 0, queryTermFrequencies, 0, queryTerms.length);
+
+        compileQueryTerms();
+        return queryTerms.clone();
+    }
+
+    // for the evaluators to work out their per-term weights, once the
+    // query's terms and their frequencies are known
+    protected void compileQueryTerms() {
+    }
+
+    // The score of a doc for the compiled query's term with this ordinal, for all
+    // the times it's in the query. By default every time counts the same, as with
+    // the query-likelihood models.
+    public double getDocScoreForQueryTerm(int termOrdinal, int termFrequency, int docId) {
+        return queryTermFrequencies[termOrdinal]
+                * getDocScoreForQueryTerm(queryTerms[termOrdinal], termFrequency, docId);
+    }
+
+    // An upper bound on the score any one document can get for the query term.
+    // Retrievers can skip the documents that can't make it into the top-k
+    // with these bounds (MaxScore) - but only for an evaluator that scores
+    // nothing but the documents which have the term, and adds up the scores.
+    // Infinity means no bound is known, and so nothing is skipped.
+    public double getMaxScoreForQueryTerm(String queryTerm) {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    // The same, but only for the documents (e.g. of a block of postings) in which
+    // the term appears at most maxTermFrequency times and whose BM25 tf-components
+    // (see BM25Evaluator) are at most maxBM25TermFrequencyComponent
+    public double getMaxScoreForQueryTerm(String queryTerm, int maxTermFrequency,
+            double maxBM25TermFrequencyComponent) {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    // The same two bounds for the compiled query's term with this ordinal
+    public double getMaxScoreForQueryTerm(int termOrdinal) {
+        return queryTermFrequencies[termOrdinal] * getMaxScoreForQueryTerm(queryTerms[termOrdinal]);
+    }
+
+    public double getMaxScoreForQueryTerm(int termOrdinal, int maxTermFrequency,
+            double maxBM25TermFrequencyComponent) {
+        return queryTermFrequencies[termOrdinal] * getMaxScoreForQueryTerm(
+                queryTerms[termOrdinal], maxTermFrequency, maxBM25TermFrequencyComponent);
+    }
+
     public double getDocScoreForQueryWindow(int termFrequency, int docId, int collectionFrequency) {
         // TODO Auto-generated method stub
         return 0;
@@ -1,6 +1,6 @@
 package retriever.evaluation;
 
-import java.util.ArrayList;
+import java.nio.IntBuffer;
 
 import index.Index;
 
@@ -16,14 +16,17 @@ public class JelinekMercerEvaluator extends Evaluator {
 
     Index index = null;
 
-    // pre-computed documents lengths for all docs in the collection
-    private ArrayList<Integer> docLengths = null;
+    // documents lengths for all docs in the collection, from the index
+    private IntBuffer docLengths = null;
 
     private double lambda = 0.2;
 
-    public JelinekMercerEvaluator(Index i, ArrayList<Integer> lengths) {
+    // the background probability of each term of the compiled query
+    private double[] backgroundProbabilities = new double[0];
+
+    public JelinekMercerEvaluator(Index i) {
         index = i;
-        docLengths = lengths;
+        docLengths = index.getDocumentLengths();
     }
 
     @Override
@@ -36,6 +39,25 @@ public class JelinekMercerEvaluator extends Evaluator {
         return Math.log(foregroundProbability + backgroundProbability);
     }
 
+    @Override
+    protected void compileQueryTerms() {
+        backgroundProbabilities = new double[queryTerms.length];
+        for (int i = 0; i < queryTerms.length; i++) {
+            backgroundProbabilities[i] = lambda
+                    * (index.getCollectionFrequencyForTerm(queryTerms[i]))
+                    / (index.getNumWordsInCollection());
+        }
+    }
+
+    @Override
+    public double getDocScoreForQueryTerm(int termOrdinal, int termFrequency, int docId) {
+        double foregroundProbability = (1 - lambda) * (termFrequency)
+                / (double) (docLengths.get(docId));
+
+        return queryTermFrequencies[termOrdinal]
+                * Math.log(foregroundProbability + backgroundProbabilities[termOrdinal]);
+    }
+
     @Override
     public boolean assignsBackgroundProbability() {
         // The J-M evaluator assigns background probability scores
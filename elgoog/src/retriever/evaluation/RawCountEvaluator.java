@@ -1,7 +1,19 @@
 package retriever.evaluation;
 
+import index.Index;
+
 public class RawCountEvaluator extends Evaluator {
 
+    // only needed for the upper bounds of the scores
+    private Index index = null;
+
+    public RawCountEvaluator() {
+    }
+
+    public RawCountEvaluator(Index i) {
+        index = i;
+    }
+
     @Override
     public double getDocScoreForQueryTerm(String queryTerm, int termFrequency, int docId) {
         // raw-count evaluation just returns the raw-term frequency
@@ -9,6 +21,27 @@ public class RawCountEvaluator extends Evaluator {
         return termFrequency;
     }
 
+    @Override
+    public double getDocScoreForQueryTerm(int termOrdinal, int termFrequency, int docId) {
+        // once for every time the term is in the query
+        return queryTermFrequencies[termOrdinal] * termFrequency;
+    }
+
+    @Override
+    public double getMaxScoreForQueryTerm(String queryTerm) {
+        if (index == null)
+            return Double.POSITIVE_INFINITY;
+
+        // the largest raw-term frequency of the term in any document
+        return getMaxScoreForQueryTerm(queryTerm, index.getMaxTermFrequencyForTerm(queryTerm), 0);
+    }
+
+    @Override
+    public double getMaxScoreForQueryTerm(String queryTerm, int maxTermFrequency,
+            double maxBM25TermFrequencyComponent) {
+        return maxTermFrequency;
+    }
+
     @Override
     public boolean assignsBackgroundProbability() {
         // The raw-count evaluator doesn't assign background probability scores
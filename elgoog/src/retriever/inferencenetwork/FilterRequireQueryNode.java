@@ -2,13 +2,47 @@ package retriever.inferencenetwork;
 
 public class FilterRequireQueryNode extends FilterQueryNode {
 
+    // whether the filter and the query leapfrog each other to the docs they're
+    // both in (see nextCandidateDocument()) - the QueryTreeOptimizer turns this on
+    // only with its score-changing rewrites
+    private boolean leapfrog = false;
+
     public FilterRequireQueryNode(ProximityNode proximityNode, QueryNode querynode) {
         super(proximityNode, querynode);
     }
 
+    void setLeapfrog(boolean leapfrog) {
+        this.leapfrog = leapfrog;
+    }
+
+    // The next candidate is the later of the filter's and the query's. A doc the
+    // filter has is scored even if the query has no posting for it - which an
+    // evaluator that assigns background probability gives a score.
+    //
+    // Leapfrogging, only the docs that are in both the filter and the query's
+    // candidates are scored, so the filter (usually the sparser of the two)
+    // drives: the query is skipped straight to the filter's next doc, and the
+    // filter to the query's, till they're at the same one. The query never has to
+    // step through the docs in between - but the docs it has no posting for aren't
+    // scored at all, so with background probability the results are different.
     @Override
     public int nextCandidateDocument() {
-        return Math.max(filter.nextCandidateDocument(), queryNode.nextCandidateDocument());
+        if (!leapfrog)
+            return Math.max(filter.nextCandidateDocument(), queryNode.nextCandidateDocument());
+
+        int candidate = filter.nextCandidateDocument();
+
+        while (candidate != Integer.MAX_VALUE) {
+            queryNode.skipTo(candidate);
+            int queryCandidate = queryNode.nextCandidateDocument();
+            if (queryCandidate == candidate)
+                break;
+
+            filter.skipTo(queryCandidate);
+            candidate = filter.nextCandidateDocument();
+        }
+
+        return candidate;
     }
 
     @Override
@@ -1,64 +1,102 @@
 package retriever.inferencenetwork;
 
-import java.util.AbstractMap;
-import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.PriorityQueue;
+import java.util.function.Supplier;
 
 import index.Index;
 import retriever.Retriever;
+import retriever.TopKCollector;
 
 public class InferenceNetworkRetriever extends Retriever {
 
+    // whether queries are run through the QueryTreeOptimizer first, and whether
+    // it may do the rewrites that change what's scored as well
+    private boolean optimizeQueries = true;
+    private boolean changeScores = false;
+
     public InferenceNetworkRetriever(Index i) {
         super(i);
     }
 
+    // (turning the optimizer off runs the query as it was built, to compare with)
+    public void setQueryOptimization(boolean optimizeQueries) {
+        this.optimizeQueries = optimizeQueries;
+    }
+
+    // (dropping the terms that are in no doc, lifting required filters above the
+    // ANDs they're in, and leapfrogging filters with their queries - see
+    // QueryTreeOptimizer)
+    public void setScoreChangingRewrites(boolean changeScores) {
+        this.changeScores = changeScores;
+    }
+
+    private QueryNode optimize(QueryNode queryNode) {
+        return optimizeQueries ? QueryTreeOptimizer.optimize(queryNode, changeScores)
+                : queryNode;
+    }
+
     @Override
     public List<Entry<Integer, Double>> retrieveQuery(QueryNode queryNode, int k) {
-        PriorityQueue<Map.Entry<Integer, Double>> priorityQueue = new PriorityQueue<Map.Entry<Integer, Double>>(
-                new Comparator<Map.Entry<Integer, Double>>() {
-
-                    @Override
-                    public int compare(Entry<Integer, Double> o1, Entry<Integer, Double> o2) {
-                        if (o1.getValue() < o2.getValue()) {
-                            return -1;
-                        } else if (o1.getValue() > o2.getValue()) {
-                            return 1;
-                        }
-                        return 0;
-                    }
-                });
+        topK.reset(k);
+        numDocumentsScored += scoreRange(optimize(queryNode), 0, Integer.MAX_VALUE, topK);
+        return topK.getResults();
+    }
+
+    /*
+     * The same, but with the docIds split into ranges that are scored in parallel
+     * (see setNumRanges()). The nodes of a query keep their own cursors into their
+     * lists, so every range needs a query of its own - queryBuilder is asked
+     * for one per range, all on the calling thread, since a builder (say, a
+     * parser) needn't be thread-safe even though the index it reads is.
+     */
+    public List<Entry<Integer, Double>> retrieveQuery(Supplier<QueryNode> queryBuilder, int k) {
+        if (numRanges == 1)
+            return retrieveQuery(queryBuilder.get(), k);
+
+        TopKCollector[] rangeTopKs = new TopKCollector[numRanges];
+        long[] rangeDocumentsScored = new long[numRanges];
+        Runnable[] tasks = new Runnable[numRanges];
+        for (int r = 0; r < numRanges; r++) {
+            QueryNode queryNode = optimize(queryBuilder.get());
+            int range = r, from = getRangeStart(r), to = getRangeStart(r + 1);
+            rangeTopKs[r] = new TopKCollector(k);
+            tasks[r] = () -> {
+                rangeDocumentsScored[range] = scoreRange(queryNode, from, to, rangeTopKs[range]);
+            };
+        }
+        runRanges(tasks);
+
+        for (long scored : rangeDocumentsScored) {
+            numDocumentsScored += scored;
+        }
+        return mergeRanges(rangeTopKs, k);
+    }
+
+    // scores the docs from 'from' up to (not including) 'to' into the collector,
+    // and returns how many were scored
+    private long scoreRange(QueryNode queryNode, int from, int to, TopKCollector collector) {
+        long documentsScored = 0;
+
+        if (from > 0)
+            queryNode.skipTo(from);
 
         int nextDoc = Integer.MAX_VALUE;
 
         // loop till the the network has more documents to score
-        while ((nextDoc = queryNode.nextCandidateDocument()) != Integer.MAX_VALUE) {
+        while ((nextDoc = queryNode.nextCandidateDocument()) < to) {
 
             queryNode.skipTo(nextDoc);
 
             Double score = queryNode.score(nextDoc);
+            documentsScored++;
             if (score != null) {
-                priorityQueue.add(
-                        new AbstractMap.SimpleEntry<Integer, Double>(nextDoc, (-1) * score));
+                collector.collect(nextDoc, score);
             }
 
             queryNode.skipTo(nextDoc + 1);
         }
 
-        List<Entry<Integer, Double>> result = new ArrayList<Map.Entry<Integer, Double>>();
-
-        int i = 0;
-        while (!priorityQueue.isEmpty() && i < k) {
-            Entry<Integer, Double> entry = priorityQueue.poll();
-            entry.setValue(-1 * entry.getValue());
-            result.add(entry);
-            i++;
-        }
-
-        return result;
+        return documentsScored;
     }
 }
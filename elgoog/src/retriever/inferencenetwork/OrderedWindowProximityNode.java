@@ -2,11 +2,10 @@ package retriever.inferencenetwork;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.stream.Collectors;
 
+import index.Index;
+import index.InvertedFileIndex;
 import index.InvertedList;
-import index.Posting;
 import retriever.evaluation.Evaluator;
 
 public class OrderedWindowProximityNode extends WindowProximityNode {
@@ -15,161 +14,199 @@ public class OrderedWindowProximityNode extends WindowProximityNode {
         super(evaluator, w);
     }
 
-    public void createFakeInvertedList() {
-
-        childILists = new ArrayList<InvertedList>(
-                children.stream()
-                        .map(child -> child.getIList())
-                        .collect(Collectors.toList()));
-        assert (children.size() == childILists.size());
-
-        // first intersect the docs to get a candidate list of
-        // documents to comb through searching for windows
-        docSet = intersectDocs(childILists);
-        // System.out.println("the terms appear together in these documents: " +
-        // docSet);
-
-        // now that we have the the set of documents to start with,
-        // search for the actual windows in these documents
-        findOrderedWindows(docSet, childILists);
-
-        // at this point, we have the windows counted in each doc already
-        // prune those docs from docSet which have zero window-count
-        for (Integer docId : windowCounts.keySet()) {
-            if (windowCounts.get(docId) == 0) {
-                // docId is an Integer not an int so the remove() takes
-                // docId as the object to be removed not as the index
-                docSet.remove(docId);
-            }
+    public OrderedWindowProximityNode(Evaluator evaluator, int w, Index index) {
+        super(evaluator, w, index);
+    }
+
+    @Override
+    public void setChildren(ArrayList<? extends ProximityNode> list) {
+        super.setChildren(list);
+
+        // an exact phrase can be matched on the biwords, if the index has them
+        if (windowSize == 1 && index instanceof InvertedFileIndex)
+            useBiwords(((InvertedFileIndex) index).getBiwordIndex());
+    }
+
+    /*
+     * The windows of an exact phrase are where its adjacent pairs of terms are one
+     * right after the other, so with an index of those pairs (biwords) the
+     * children can be the lists of the pairs instead of the terms. A phrase of two
+     * terms is then one list that's read as is, and a longer one is matched on
+     * one position fewer and on lists a lot shorter than the terms'.
+     * The windows come out the same, unless occurrences of the phrase can overlap
+     * (it begins with what it ends with, like "a b a") - a term position shared
+     * by two occurrences is double-dipping, a pair position isn't. Such a phrase,
+     * or one with a pair that isn't in the biword index, stays on the terms.
+     */
+    private void useBiwords(InvertedFileIndex biwordIndex) {
+        if (biwordIndex == null || children.size() < 2)
+            return;
+
+        String[] terms = new String[children.size()];
+        for (int i = 0; i < terms.length; i++) {
+            ProximityNode child = children.get(i);
+            if (!(child instanceof TermProximityNode) || child.getIList() == null)
+                return;
+            terms[i] = child.getIList().getTerm();
+        }
+        if (canOverlap(terms))
+            return;
+
+        ArrayList<TermProximityNode> biwords = new ArrayList<TermProximityNode>();
+        for (int i = 0; i + 1 < terms.length; i++) {
+            InvertedList list = biwordIndex.getInvertedListForTerm(terms[i] + " " + terms[i + 1]);
+            if (list == null)
+                return;
+            biwords.add(new TermProximityNode(evaluator, list));
         }
 
-        // woah, we have the candidate docs and their window-counts all ready!
-        // time to score some docs!
+        // the collection frequency of a pair is exact, and a longer phrase's is
+        // estimated from its pairs: every pair after the first is taken to follow
+        // the pair before it as often as its first term follows the pair before
+        double collectionFrequency = biwords.get(0).getCollectionFrequency();
+        long rarest = biwords.get(0).getCollectionFrequency();
+        for (int i = 1; i < biwords.size(); i++) {
+            collectionFrequency *= (double) biwords.get(i).getCollectionFrequency()
+                    / children.get(i).getCollectionFrequency();
+            rarest = Math.min(rarest, biwords.get(i).getCollectionFrequency());
+        }
+        setCollectionFrequency(Math.max(1, Math.min(rarest, Math.round(collectionFrequency))));
+
+        children = biwords;
     }
 
-    private ArrayList<ArrayList<Integer>> findCandidatePositions(
-            ArrayList<ArrayList<Integer>> positionsA,
-            ArrayList<Integer> positionsB, int window) {
-
-        // System.out.println("received: " + positionsA);
-        // System.out.println("received: " + positionsB);
-        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
-
-        int len1 = positionsA.size(), len2 = positionsB.size();
-
-        // O(n^2): go through all possible pairs
-        for (int i = 0; i < len1; i++) {
-            for (int j = 0; j < len2; j++) {
-                // A has to come before B
-                ArrayList<Integer> A = new ArrayList<Integer>(positionsA.get(i));
-                // get the last position in A as that is what compare against position of B
-                int posA = A.get(A.size() - 1);
-                int posB = positionsB.get(j);
-                if (posA >= posB)
-                    continue;
-                // there must 'window-1' or less terms between posB and posA
-                // i.e. posB-posA-1 <= window-1
-                // or posB-posA <= window
-                if (posB - posA <= window) {
-                    A.add(posB);
-                    result.add(A);
-                } else {
-                    // posB has already exceeded the window limit.
-                    // move to next posA
-                    break;
-                }
+    // can two occurrences of the phrase overlap - i.e. is it the same as itself
+    // shifted by fewer positions than it has?
+    private static boolean canOverlap(String[] terms) {
+        for (int shift = 1; shift < terms.length; shift++) {
+            boolean same = true;
+            for (int i = shift; i < terms.length && same; i++) {
+                same = terms[i].equals(terms[i - shift]);
             }
+            if (same)
+                return true;
         }
-        // System.out.println("result: " + result);
-        return result;
+        return false;
     }
 
-    private void findOrderedWindows(ArrayList<Integer> docs,
-            ArrayList<InvertedList> childILists) {
+    // each child comes at most 'window' positions after the one before it
+    @Override
+    protected double getNumArrangementsPerPosition() {
+        return Math.pow(windowSize, children.size() - 1);
+    }
 
+    // reused from doc to doc: for each child, the first of its positions that
+    // can still be in a window, where its positions end, and its position in the
+    // window being put together;
+    // which positions are used up by the windows found so far, and which can't
+    // be finished into a window (as bitsets, the latter one per child)
+    private int[] floors = new int[0];
+    private int[] ends = new int[0];
+    private int[] window = new int[0];
+    private long[] used = new long[0];
+    private long[] failed = new long[0];
+    private int words = 0;
+
+    private static boolean isSet(long[] bits, int offset, int position) {
+        return (bits[offset + (position >>> 6)] & (1L << position)) != 0;
+    }
+
+    @Override
+    protected void findWindows(int[][] positions, int[] offsets, int[] lengths) {
         /*
-         * we will borrow the 2-pointer algorithm used to calculate Dice's coefficient
-         * score and extend it to work on multiple terms.
-         * The algo looks something like this:
-         * 1) Start with any 2 terms and find all the possible candidate-positions (i.e.
-         * within the window size). We only care about the position of end of window.
-         * 2) Use the candidate-positions in the first array as the next term and pick
-         * another term from the window-query.
-         * 3) Repeat until no more terms are left.
-         * 4) Now we have all possible windows but there is double-dipping since we
-         * looked at ALL possible pairs in (1).
-         * 5) The final step is to prune those windows which have already "seen"
-         * positions and thus avoiding double-dipping across windows.
+         * A window is a position of every child, each one after the one before it and
+         * at most 'window' positions away from it. Of all the windows, the ones that
+         * count are picked in order of their positions (the first child's, then the
+         * second's ..) so that no position is in two windows (no double-dipping).
+         * That's the same as picking, over and over, the first window that has
+         * no used up position.
+         *
+         * So the first child's positions are gone through in order, and each one
+         * is finished into the first window it can be, child by child, going back
+         * to the next candidate for a child when the ones after it can't be
+         * finished. A child's position that couldn't be finished never can be -
+         * positions only ever get used up - so it is noted and never tried again.
+         * Going through a doc is then linear in the number of positions (for a
+         * given window size and number of children), and an exact phrase (#od1)
+         * has just the one candidate per child.
          */
+        int n = positions.length;
+        if (floors.length < n) {
+            floors = new int[n];
+            ends = new int[n];
+            window = new int[n];
+        }
 
-        // loop through all candidate docs
-        for (Integer docId : docs) {
-
-            windowCounts.put(docId, 0);
-
-            int windowCount = 0;
-
-            // get postings for this doc from all children's inverted-lists
-            ArrayList<Posting> postings = new ArrayList<Posting>(
-                    childILists.stream()
-                            .map(list -> list.getPostings().get(docId))
-                            .collect(Collectors.toList()));
-
-            // start with 2 terms
-            ArrayList<ArrayList<Integer>> result = null;
-            for (int i = 0; i < postings.size(); i++) {
-                if (i == 0) {
-                    // since we are just starting, create an arraylist of arraylist where
-                    // each position of the first term is an arraylist in itself
-                    result = new ArrayList<ArrayList<Integer>>(
-                            postings.get(0).getPositions().stream()
-                                    .map(position -> (new ArrayList<Integer>(
-                                            Arrays.asList(position))))
-                                    .collect(Collectors.toList()));
-                    // System.out.println("result: " + result);
-                } else {
-                    // process list1 and the current posting's positions
-                    // and update list1 to the returned result
-                    result = findCandidatePositions(result, postings.get(i).getPositions(),
-                            windowSize);
-                    if (result.size() == 0) {
-                        // if nothing was returned, we are done
-                        // no windows exist!
-                        break;
-                    }
-                }
+        int maxPosition = 0;
+        for (int i = 0; i < n; i++) {
+            if (lengths[i] == 0)
+                return;
+            floors[i] = offsets[i];
+            ends[i] = offsets[i] + lengths[i];
+            maxPosition = Math.max(maxPosition, positions[i][ends[i] - 1]);
+        }
+        words = (maxPosition >>> 6) + 1;
+        if (used.length < words)
+            used = new long[words];
+        if (failed.length < n * words)
+            failed = new long[n * words];
+
+        for (int s = offsets[0]; s < ends[0]; s++) {
+            int start = positions[0][s];
+            if (isSet(used, 0, start))
+                continue;
+
+            // the i-th child can't be before start + i
+            for (int i = 1; i < n; i++) {
+                while (floors[i] < ends[i] && positions[i][floors[i]] < start + i)
+                    floors[i]++;
             }
-            // results has valid windows but with double-dipping
-            // choose only those windows from result which don't double dip
-            HashSet<Integer> seen = new HashSet<Integer>();
-            for (ArrayList<Integer> window : result) {
-                boolean validWindow = true;
-                for (int position : window) {
-                    if (seen.contains(position)) {
-                        // if even one position in this window was seen already,
-                        // we can't use this window
-                        // move to the next window
-                        validWindow = false;
-                        break;
-                    }
-                }
-                if (validWindow) {
-                    // yay! we have a valid window
-                    windowCount += 1;
-                    // add all positions in window to the "seen" list
-                    seen.addAll(window);
-                    // System.out.println("valid window: " + window);
-                    // add only the start-position of this window to the fake inverted list we're
-                    // creating for this ProximityNode
-                    if (iList == null) {
-                        iList = new InvertedList("<WINDOW_HOLDER_TERM>");
-                    }
-                    iList.addPositionToPosting(docId, window.get(0));
+
+            window[0] = start;
+            if (finishWindow(positions, 1)) {
+                // yay! a window - all its positions are used up
+                for (int i = 0; i < n; i++) {
+                    used[window[i] >>> 6] |= 1L << window[i];
                 }
+
+                // only the start-position of this window is kept, as the position
+                // of this ProximityNode
+                addWindow(start);
             }
-            windowCounts.put(docId, windowCount);
-            collectionFrequency += windowCount;
         }
+
+        // leave the bitsets clear for the next doc
+        Arrays.fill(used, 0, words, 0L);
+        Arrays.fill(failed, 0, n * words, 0L);
+    }
+
+    // finishes the window (whose positions up to child i are in place) with the
+    // first unused positions of the rest of the children that it can be finished with
+    private boolean finishWindow(int[][] positions, int i) {
+        if (i == positions.length)
+            return true;
+
+        int[] pos = positions[i];
+        int last = window[i - 1];
+
+        int j = floors[i];
+        while (j < ends[i] && pos[j] <= last)
+            j++;
+
+        // there must 'window-1' or less terms between this child and the last one
+        // i.e. pos - last <= window
+        for (; j < ends[i] && pos[j] - last <= windowSize; j++) {
+            if (isSet(used, 0, pos[j]) || isSet(failed, i * words, pos[j]))
+                continue;
+
+            window[i] = pos[j];
+            if (finishWindow(positions, i + 1))
+                return true;
+
+            failed[i * words + (pos[j] >>> 6)] |= 1L << pos[j];
+        }
+
+        return false;
     }
 
 }
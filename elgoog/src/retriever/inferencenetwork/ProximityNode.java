@@ -11,6 +11,8 @@ public abstract class ProximityNode extends QueryNode {
     // Every Proximity Node deals with an inverted list
     protected InvertedList iList = null;
 
+    private static final int[] NO_POSITIONS = new int[0];
+
     public ProximityNode(Evaluator evaluator) {
         this.evaluator = evaluator;
     }
@@ -27,13 +29,8 @@ public abstract class ProximityNode extends QueryNode {
         }
 
         // nextCandidate for term node is the next doc in the list
-        Posting curPosting = iList.getCurrentPosting();
-        if (curPosting != null) {
-            return curPosting.getDocId();
-        }
-
-        // return max-value if we don't have any more documents to go through
-        return Integer.MAX_VALUE;
+        // or max-value if we don't have any more documents to go through
+        return iList.getCurrentDocId();
     }
 
     @Override
@@ -45,6 +42,39 @@ public abstract class ProximityNode extends QueryNode {
         }
     }
 
+    // positions (in increasing order) of this node in the doc it is at
+    // i.e. nextCandidateDocument() - a copy; the window nodes above it read them
+    // in place with the three methods below
+    protected int[] getPositions() {
+        Posting posting = (iList == null) ? null : iList.getCurrentPosting();
+        if (posting == null)
+            return new int[0];
+
+        return posting.getPositions();
+    }
+
+    // the array the positions are in, from getPositionsOffset() on - it isn't
+    // a copy, so it's only good till the node moves, and mustn't be changed
+    protected int[] getPositionsArray() {
+        return (iList == null) ? NO_POSITIONS : iList.getCurrentPositionsArray();
+    }
+
+    protected int getPositionsOffset() {
+        return (iList == null) ? 0 : iList.getCurrentPositionsOffset();
+    }
+
+    protected int getPositionsLength() {
+        return (iList == null) ? 0 : iList.getCurrentTermFrequency();
+    }
+
+    // number of times this node is in the collection
+    protected long getCollectionFrequency() {
+        if (iList == null)
+            return 0;
+
+        return iList.getCollectionFrequency();
+    }
+
     // should only be used for filter-reject/filter-require operations
     // the proximity node (term/window) checks if this doc satisfies
     // the proximity-operator
@@ -53,12 +83,7 @@ public abstract class ProximityNode extends QueryNode {
         if (iList == null)
             return false;
 
-        Posting curPosting = iList.getCurrentPosting();
-        if (curPosting != null && curPosting.getDocId() == docId) {
-            return true;
-        }
-
-        return false;
+        return iList.getCurrentDocId() == docId;
     }
 
 }
@@ -0,0 +1,304 @@
+package retriever.inferencenetwork;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * A rewrite pass over a query tree, which the InferenceNetworkRetriever runs on
+ * every query before retrieving it. Queries are built by hand, as they read,
+ * and this makes them cheaper to run without changing what they score (up to
+ * the rounding of the arithmetic):
+ *
+ * a) ANDs (and weighted-ANDs) in ANDs are flattened into one node. A weighted-and
+ *    is a weighted sum in log-space, so the nested node's weights just get
+ *    multiplied by the weight it had. The same goes for SUMs in SUMs - a SUM is
+ *    a weighted mean, so the nested node's weights are scaled to the share it
+ *    had - and for ORs in ORs.
+ * b) Windows skip their children rarest-first (see setSkipOrder()).
+ *
+ * Three more rewrites make a query cheaper still, but change what it scores - so
+ * they're only done when asked for, with optimize(queryNode, true):
+ *
+ * c) A term with no inverted list (UtilityFunctions makes a TermProximityNode for
+ *    every term of the query, known or not) is in no doc, and neither is a window
+ *    with such a term in it. They are dropped from the node they're in:
+ *    for an OR or a MAX that changes no score. For an AND it gives the docs
+ *    the scores of the query without the term, rather than -infinity each - the
+ *    same as the other retrievers do with a term they don't know. For a SUM the
+ *    term's share of the mean goes to the rest of the children.
+ * d) A filter that's required, in an AND, is lifted to above the AND - so it
+ *    drives the candidates of the whole AND (see FilterRequireQueryNode) and
+ *    not just of the child it was in. A doc that doesn't pass it isn't scored
+ *    at all - where the AND would have been given a null score for it by the
+ *    child, which it can't add up.
+ * e) A required filter and its query leapfrog each other to the docs they're
+ *    both in (see FilterRequireQueryNode), so the docs of the filter that the
+ *    query has no posting for aren't scored - with an evaluator that assigns
+ *    background probability, they would have been.
+ *
+ * There's nothing to reorder for the belief nodes - they score the docs of any
+ * of their children, so the order they're in costs nothing, and changing it
+ * would just change the order the scores are added up in.
+ *
+ * The tree is rewritten in place, not copied: its nodes are reused in the
+ * rewritten tree, with their children lists (and a filter's queryNode)
+ * reassigned and the windows' skip order set. That costs nothing, as the nodes
+ * keep their cursors into their lists and can't be run twice anyway - a query
+ * to be run again (or without the optimizer, to compare with) is built again.
+ */
+
+public class QueryTreeOptimizer {
+
+    // whether the rewrites c), d) and e), which change what's scored, are done
+    private final boolean changeScores;
+
+    private QueryTreeOptimizer(boolean changeScores) {
+        this.changeScores = changeScores;
+    }
+
+    public static QueryNode optimize(QueryNode queryNode) {
+        return optimize(queryNode, false);
+    }
+
+    public static QueryNode optimize(QueryNode queryNode, boolean changeScores) {
+        QueryNode optimized = new QueryTreeOptimizer(changeScores).rewrite(queryNode);
+        if (optimized != null)
+            return optimized;
+
+        // nothing in the query is in any doc
+        AndBeliefNode nothing = new AndBeliefNode();
+        nothing.children = new ArrayList<QueryNode>();
+        return nothing;
+    }
+
+    // returns the node rewritten, or null if it can't be in any doc (and is to be
+    // dropped - without c), such a node stays as it is)
+    private QueryNode rewrite(QueryNode node) {
+        QueryNode rewritten = rewriteNode(node);
+        return (rewritten != null || changeScores) ? rewritten : node;
+    }
+
+    private QueryNode rewriteNode(QueryNode node) {
+        if (node instanceof ProximityNode)
+            return rewrite((ProximityNode) node);
+        if (node instanceof FilterQueryNode)
+            return rewrite((FilterQueryNode) node);
+
+        if (node instanceof AndBeliefNode || node instanceof WeightedAndBeliefNode)
+            return rewriteAnd((BeliefNode) node);
+        if (node instanceof SumBeliefNode || node instanceof WeightedSumBeliefNode)
+            return rewriteSum((BeliefNode) node);
+        if (node instanceof OrBeliefNode || node instanceof MaxBeliefNode)
+            return rewriteOrMax((BeliefNode) node);
+
+        if (node instanceof BeliefNode) {
+            // (a NOT, say) the children are rewritten, but none is dropped
+            BeliefNode beliefNode = (BeliefNode) node;
+            ArrayList<QueryNode> children = new ArrayList<QueryNode>();
+            for (QueryNode child : beliefNode.children) {
+                QueryNode rewritten = rewrite(child);
+                children.add(rewritten != null ? rewritten : child);
+            }
+            beliefNode.children = children;
+        }
+
+        // a prior, or a belief node as above
+        return node;
+    }
+
+    private ProximityNode rewrite(ProximityNode node) {
+        if (!(node instanceof WindowProximityNode))
+            return (node.getIList() == null && changeScores) ? null : node;
+
+        // a window is only in the docs that all of its children are in
+        WindowProximityNode window = (WindowProximityNode) node;
+        if (window.children == null || window.children.isEmpty())
+            return changeScores ? null : window;
+        for (ProximityNode child : window.children) {
+            if (rewrite(child) == null)
+                return null;
+        }
+
+        int n = window.children.size();
+        int[] documentFrequencies = new int[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            documentFrequencies[i] = getDocumentFrequency(window.children.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(documentFrequencies[a],
+                documentFrequencies[b]));
+
+        int[] skipOrder = new int[n];
+        for (int i = 0; i < n; i++) {
+            skipOrder[i] = order[i];
+        }
+        window.setSkipOrder(skipOrder);
+        return window;
+    }
+
+    // the number of docs a (rewritten) proximity node can be in, at most
+    private int getDocumentFrequency(ProximityNode node) {
+        if (!(node instanceof WindowProximityNode))
+            return (node.getIList() == null) ? 0 : node.getIList().getDocumentFrequency();
+
+        int documentFrequency = Integer.MAX_VALUE;
+        for (ProximityNode child : ((WindowProximityNode) node).children) {
+            documentFrequency = Math.min(documentFrequency, getDocumentFrequency(child));
+        }
+        return documentFrequency;
+    }
+
+    private QueryNode rewrite(FilterQueryNode node) {
+        QueryNode queryNode = rewrite(node.queryNode);
+        if (queryNode == null)
+            return null;
+
+        // a filter that's in no doc lets no doc through if it's required,
+        // and turns none away if it's rejected
+        ProximityNode filter = rewrite(node.filter);
+        if (filter == null)
+            return (node instanceof FilterRequireQueryNode) ? null : queryNode;
+
+        node.queryNode = queryNode;
+        if (changeScores && node instanceof FilterRequireQueryNode)
+            ((FilterRequireQueryNode) node).setLeapfrog(true);
+        return node;
+    }
+
+    // the weight a node gives its i'th child - 1 unless it's a weighted one
+    private static double getWeight(BeliefNode node, int i) {
+        if (node instanceof WeightedAndBeliefNode)
+            return ((WeightedAndBeliefNode) node).getWeights()[i];
+        if (node instanceof WeightedSumBeliefNode)
+            return ((WeightedSumBeliefNode) node).getWeights()[i];
+        return 1.0;
+    }
+
+    private QueryNode rewriteAnd(BeliefNode node) {
+        ArrayList<QueryNode> children = new ArrayList<QueryNode>();
+        ArrayList<Double> weights = new ArrayList<Double>();
+        ArrayList<FilterRequireQueryNode> filters = new ArrayList<FilterRequireQueryNode>();
+
+        for (int i = 0; i < node.children.size(); i++) {
+            QueryNode child = rewrite(node.children.get(i));
+            double weight = getWeight(node, i);
+            if (child == null)
+                continue;
+
+            // a filter is lifted out of the child (nested ones have been lifted as far
+            // as the child already) to above this node, and drives the candidates
+            // of all of it
+            while (changeScores && child instanceof FilterRequireQueryNode) {
+                filters.add((FilterRequireQueryNode) child);
+                child = ((FilterRequireQueryNode) child).queryNode;
+            }
+
+            // (a nested AND has been flattened already, so one level does it)
+            if (child instanceof AndBeliefNode || child instanceof WeightedAndBeliefNode) {
+                BeliefNode and = (BeliefNode) child;
+                for (int j = 0; j < and.children.size(); j++) {
+                    children.add(and.children.get(j));
+                    weights.add(weight * getWeight(and, j));
+                }
+            } else {
+                children.add(child);
+                weights.add(weight);
+            }
+        }
+
+        if (children.isEmpty())
+            return null;
+
+        boolean weighted = false;
+        for (double weight : weights) {
+            weighted |= (weight != 1.0);
+        }
+
+        QueryNode and = children.get(0);
+        if (weighted || children.size() > 1) {
+            BeliefNode beliefNode = weighted ? new WeightedAndBeliefNode(toArray(weights))
+                    : new AndBeliefNode();
+            beliefNode.children = children;
+            and = beliefNode;
+        }
+
+        // (the first filter lifted ends up outermost)
+        for (int i = filters.size() - 1; i >= 0; i--) {
+            filters.get(i).queryNode = and;
+            and = filters.get(i);
+        }
+        return and;
+    }
+
+    private QueryNode rewriteSum(BeliefNode node) {
+        ArrayList<QueryNode> children = new ArrayList<QueryNode>();
+        ArrayList<Double> weights = new ArrayList<Double>();
+
+        for (int i = 0; i < node.children.size(); i++) {
+            QueryNode child = rewrite(node.children.get(i));
+            double weight = getWeight(node, i);
+            if (child == null)
+                continue;
+
+            if (child instanceof SumBeliefNode || child instanceof WeightedSumBeliefNode) {
+                // the nested node's children share out the weight it had
+                BeliefNode sum = (BeliefNode) child;
+                double sumOfWeights = 0;
+                for (int j = 0; j < sum.children.size(); j++) {
+                    sumOfWeights += getWeight(sum, j);
+                }
+                for (int j = 0; j < sum.children.size(); j++) {
+                    children.add(sum.children.get(j));
+                    weights.add(weight * getWeight(sum, j) / sumOfWeights);
+                }
+            } else {
+                children.add(child);
+                weights.add(weight);
+            }
+        }
+
+        if (children.isEmpty())
+            return null;
+
+        boolean weighted = false;
+        for (double weight : weights) {
+            weighted |= (weight != weights.get(0));
+        }
+
+        BeliefNode sum = weighted ? new WeightedSumBeliefNode(toArray(weights))
+                : new SumBeliefNode();
+        sum.children = children;
+        return sum;
+    }
+
+    private QueryNode rewriteOrMax(BeliefNode node) {
+        ArrayList<QueryNode> children = new ArrayList<QueryNode>();
+
+        for (QueryNode child : node.children) {
+            QueryNode rewritten = rewrite(child);
+            if (rewritten == null)
+                continue;
+
+            if (node instanceof OrBeliefNode && rewritten instanceof OrBeliefNode) {
+                children.addAll(((BeliefNode) rewritten).children);
+            } else {
+                children.add(rewritten);
+            }
+        }
+
+        if (children.isEmpty())
+            return null;
+
+        node.children = children;
+        return node;
+    }
+
+    private static double[] toArray(ArrayList<Double> list) {
+        double[] array = new double[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -1,7 +1,5 @@
 package retriever.inferencenetwork;
 
-import java.util.HashMap;
-
 import index.InvertedList;
 import index.Posting;
 import retriever.evaluation.Evaluator;
@@ -25,10 +23,10 @@ public class TermProximityNode extends ProximityNode {
             return Double.NEGATIVE_INFINITY;
         }
 
-        HashMap<Integer, Posting> postings = iList.getPostings();
-        if (postings.containsKey(docId)) {
+        Posting posting = iList.getPosting(docId);
+        if (posting != null) {
             return evaluator.getDocScoreForQueryTerm(iList.getTerm(),
-                    postings.get(docId).getTermFrequency(), docId);
+                    posting.getTermFrequency(), docId);
         } else {
             if (evaluator.assignsBackgroundProbability()) {
                 return evaluator.getDocScoreForQueryTerm(iList.getTerm(), 0, docId);
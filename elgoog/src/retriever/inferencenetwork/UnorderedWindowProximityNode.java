@@ -1,191 +1,316 @@
 package retriever.inferencenetwork;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.stream.Collectors;
+import java.util.Arrays;
 
-import index.InvertedList;
-import index.Posting;
+import index.Index;
 import retriever.evaluation.Evaluator;
 
 public class UnorderedWindowProximityNode extends WindowProximityNode {
 
     public UnorderedWindowProximityNode(Evaluator evaluator, int w) {
-        super(evaluator, w);
+        this(evaluator, w, null);
     }
 
-    public void createFakeInvertedList() {
-
-        // create a list of inverted lists of the children nodes (which are
-        // TermProxNodes). Use streams coz ... why not?
-        childILists = new ArrayList<InvertedList>(
-                children.stream()
-                        .map(child -> child.getIList())
-                        .collect(Collectors.toList()));
-        assert (children.size() == childILists.size());
-
-        // first intersect the docs to get a candidate list of
-        // documents to comb through searching for windows
-        docSet = intersectDocs(childILists);
-        // System.out.println("the terms appear together in these documents: " +
-        // docSet);
-
-        // now that we have the the set of documents to start with,
-        // search for the actual windows in these documents
-        findUnorderedWindows(docSet, childILists);
-
-        // at this point, we have the windows counted in each doc already
-        // prune those docs from docSet which have zero window-count
-        for (Integer docId : windowCounts.keySet()) {
-            if (windowCounts.get(docId) == 0) {
-                // docId is an Integer not an int so the remove() takes
-                // docId as the object to be removed not as the index
-                docSet.remove(docId);
-            }
-        }
+    public UnorderedWindowProximityNode(Evaluator evaluator, int w, Index index) {
+        super(evaluator, w, index);
 
-        // woah, we have the candidate docs and their window-counts all ready!
-        // time to score some docs!
+        // if window-size is zero, this node acts as a Boolean-And Node
+        // where the the terms can be present in any order in a window
+        // of size = document-length.
+        // Here, we just assume it to be INT_MAX since its the same damn thing!
+        if (windowSize == 0)
+            windowSize = Integer.MAX_VALUE;
     }
 
-    private int nextUnseenPostion(ArrayList<Integer> pos, HashSet<Integer> seen) {
-        for (int i = 0; i < pos.size(); i++) {
-            if (!seen.contains(pos.get(i))) {
-                return pos.get(i);
-            }
+    // the children are at distinct positions, in any order, within 'window'
+    // positions of each other: the first one at the given position, and the
+    // rest at any n - 1 of the window - 1 positions after it
+    @Override
+    protected double getNumArrangementsPerPosition() {
+        int n = children.size();
+        double arrangements = 1;
+        for (int k = 1; k < n; k++) {
+            // (window - 1 choose n - 1) * n!
+            arrangements *= (double) (windowSize - k) / k * (k + 1);
         }
-        return Integer.MAX_VALUE;
+        return Math.max(0, arrangements);
     }
 
-    @SuppressWarnings("serial")
-    private void findUnorderedWindows(ArrayList<Integer> docs,
-            ArrayList<InvertedList> childLists) {
+    // reused from doc to doc: the children with the same positions (a term that's
+    // in the window more than once) are one group - the first of them, and how
+    // many of them there are. Where each group is in its positions, and the
+    // position it's at; and the groups in a heap, the one at the least position
+    // on top.
+    private int[] groupChildren = new int[0];
+    private int[] groupSizes = new int[0];
+    private int[] cursors = new int[0];
+    private int[] heads = new int[0];
+    private int[] heap = new int[0];
+
+    // (and for the children that share just some of their positions - see
+    // findOverlappingWindows() - the position each child has for the window being
+    // tried, and which positions are used up by the windows found so far and by
+    // the one being tried, as bitsets)
+    private int[] chosen = new int[0];
+    private long[] used = new long[0];
+    private long[] tried = new long[0];
+
+    @Override
+    protected void findWindows(int[][] positions, int[] offsets, int[] lengths) {
         /*
          * The algorithm to find unordered windows goes like this:
-         * 1) List the current positions
-         * of all terms. The least positioned one is the first one.
-         * 2) Find the largest window of all the possible pairs with the first one.
-         * The largest window should by definition contain all the other terms as well
-         * in this window.
-         * a) if this window < windowSize, great, its a match.
-         * Move all terms to their next position (No double dipping of terms between
-         * windows).
-         * b) if not a match, the terms remain unconsumed so move only the first term's
-         * (the one with the least position) pointer to the next position.
-         * Go to 1.
+         * 1) Every child takes its first position that's still unused - not used
+         * by any previous window, nor by an earlier child for this window. The least
+         * of those positions is the start of the window, the largest its end.
+         * a) if the window fits in windowSize, great, its a match.
+         * All its positions are used up (No double dipping of terms between windows).
+         * b) if not a match, only the start position is used up, the others
+         * remain unconsumed.
+         * Go to 1, till a child has no unused positions left.
+         *
+         * A group of m children with the same positions takes the first m of them
+         * that are unused - and as the ones used up are always its first ones, the
+         * unused ones are the ones from its cursor on. The groups' positions are then
+         * merged, least first, like a k-way merge: when the window doesn't fit, only
+         * the group at the start moves on, one position, and is put back in the heap
+         * - and as the cursors only move forward, the end of the window only grows,
+         * and is kept rather than looked for again. So going through a doc is
+         * O(positions * log groups), rather than rescanning every child on every
+         * step. (When there's a window, every group moves on, by as many positions
+         * as it has children, and the heap is rebuilt.)
          */
+        int n = positions.length;
+        if (groupChildren.length < n) {
+            groupChildren = new int[n];
+            groupSizes = new int[n];
+            cursors = new int[n];
+            heads = new int[n];
+            heap = new int[n];
+        }
 
-        // if window-size is zero, this node acts as a Boolean-And Node
-        // where the the terms can be present in any order in a window
-        // of size = document-length.
-        // Here, we just assume it to be INT_MAX since its the same damn thing!
-        if (windowSize == 0)
-            windowSize = Integer.MAX_VALUE;
+        int numGroups = 0;
+        for (int i = 0; i < n; i++) {
+            if (lengths[i] == 0)
+                return;
+            int g = 0;
+            while (g < numGroups
+                    && !hasSamePositions(positions, offsets, lengths, groupChildren[g], i))
+                g++;
+            if (g == numGroups) {
+                groupChildren[numGroups] = i;
+                groupSizes[numGroups++] = 0;
+            }
+            groupSizes[g]++;
+        }
+
+        // Different groups can still have some positions in common - a term and a
+        // window that begins with it, say. A position used up by one of them is
+        // then gone for the other too, which the cursors can't tell. (Different
+        // terms are never at the same position, so it's only looked for if there's
+        // a window among the children.)
+        if (numGroups > 1 && !hasOnlyTermChildren()
+                && sharePositions(positions, offsets, lengths, numGroups)) {
+            findOverlappingWindows(positions, offsets, lengths);
+            return;
+        }
+
+        int endPos = Integer.MIN_VALUE;
+        for (int g = 0; g < numGroups; g++) {
+            int c = groupChildren[g];
+            if (lengths[c] < groupSizes[g])
+                return;
+            cursors[g] = offsets[c];
+            heads[g] = positions[c][cursors[g]];
+            endPos = Math.max(endPos, positions[c][cursors[g] + groupSizes[g] - 1]);
+            heap[g] = g;
+        }
+        heapify(numGroups);
 
-        // loop through all candidate docs
-        for (Integer docId : docs) {
-
-            // initialize count of windows in this doc to zero
-            windowCounts.put(docId, 0);
-
-            // get postings for this doc from all children's inverted-lists
-            ArrayList<Posting> postings = new ArrayList<Posting>(
-                    childLists.stream()
-                            .map(list -> list.getPostings().get(docId))
-                            .collect(Collectors.toList()));
-
-            // this loop will exit when even one of
-            // the child has no more positions left
-            int windowCount = 0;
-            boolean positionsLeft = true;
-            HashSet<Integer> globalPositionSeen = new HashSet<Integer>();
-            HashSet<Integer> localPositionSeen = new HashSet<Integer>();
-            while (true) {
-
-                localPositionSeen.clear();
-
-                // get the next "unused" positions from all the postings
-                int startPos = Integer.MAX_VALUE;
-                int endPos = Integer.MIN_VALUE;
-                for (int i = 0; i < postings.size(); i++) {
-                    // get next unused position from this position-array
-                    // the returned position should never have been used in any previous window's
-                    // computation neither in the current window's computation
-                    int pos = nextUnseenPostion(postings.get(i).getPositions(),
-                            new HashSet<Integer>() {
-                                {
-                                    addAll(globalPositionSeen);
-                                    addAll(localPositionSeen);
-                                }
-                            });
-                    if (pos == Integer.MAX_VALUE) {
-                        // no more unused positions for this child
-                        // no need to continue searching for windows
-                        positionsLeft = false;
-                        break;
-                    }
-                    // System.out.println("using " + pos + " for term: " + i);
-
-                    // add this pos to current window's consumed positions
-                    localPositionSeen.add(pos);
-
-                    // is this the first-positioned term as of now?
-                    if (pos < startPos) {
-                        startPos = pos;
-                    }
-
-                    // is this the last-positioned term as of now?
-                    if (pos > endPos) {
-                        endPos = pos;
-                    }
+        // this loop will exit when even one of
+        // the groups has no more positions left
+        while (true) {
+            int g = heap[0];
+            int c = groupChildren[g];
+            int startPos = heads[g];
+
+            // we have a range [startPos, endPos] which contains all the terms
+            // check if this range fits the window-size criteria
+            // there must be at most 'windowSize' terms in the window
+            // including startPos and endPos.
+            // i.e. endPos - startPos + 1 <= windowSize
+            if (endPos - startPos + 1 <= windowSize) {
+                // yay! a window - all its positions are used up.
+                // only the start-position of this window is kept, as the position
+                // of this ProximityNode
+                addWindow(startPos);
+
+                endPos = Integer.MIN_VALUE;
+                for (int h = 0; h < numGroups; h++) {
+                    int d = groupChildren[h];
+                    cursors[h] += groupSizes[h];
+                    if (cursors[h] + groupSizes[h] > offsets[d] + lengths[d])
+                        return;
+                    heads[h] = positions[d][cursors[h]];
+                    endPos = Math.max(endPos, positions[d][cursors[h] + groupSizes[h] - 1]);
                 }
+                heapify(numGroups);
+            } else {
+                // we want only the starting term's position to move forward
+                // the others should remain same as they are unused
+                cursors[g]++;
+                if (cursors[g] + groupSizes[g] > offsets[c] + lengths[c])
+                    return;
+                heads[g] = positions[c][cursors[g]];
+                endPos = Math.max(endPos, positions[c][cursors[g] + groupSizes[g] - 1]);
+                siftDown(0, numGroups);
+            }
+        }
+    }
+
+    private static boolean hasSamePositions(int[][] positions, int[] offsets, int[] lengths,
+            int i, int j) {
+        return Arrays.equals(positions[i], offsets[i], offsets[i] + lengths[i], positions[j],
+                offsets[j], offsets[j] + lengths[j]);
+    }
 
-                // if even one of the terms had no more unused positions, break
-                if (!positionsLeft)
+    private boolean hasOnlyTermChildren() {
+        if (children == null)
+            return false;
+        for (ProximityNode child : children) {
+            if (!(child instanceof TermProximityNode))
+                return false;
+        }
+        return true;
+    }
+
+    // whether two groups have a position in common - their positions are merged
+    // on the heap, and one that comes off it twice in a row is in both
+    private boolean sharePositions(int[][] positions, int[] offsets, int[] lengths,
+            int numGroups) {
+        for (int g = 0; g < numGroups; g++) {
+            cursors[g] = offsets[groupChildren[g]];
+            heads[g] = positions[groupChildren[g]][cursors[g]];
+            heap[g] = g;
+        }
+        heapify(numGroups);
+
+        int size = numGroups;
+        int previous = -1;
+        while (size > 0) {
+            int g = heap[0];
+            int c = groupChildren[g];
+            if (heads[g] == previous)
+                return true;
+            previous = heads[g];
+
+            if (++cursors[g] == offsets[c] + lengths[c])
+                heap[0] = heap[--size];
+            else
+                heads[g] = positions[c][cursors[g]];
+            if (size > 0)
+                siftDown(0, size);
+        }
+        return false;
+    }
+
+    // the heap is ordered by the position each group is at
+    private void heapify(int size) {
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i, size);
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        int g = heap[i];
+        int position = heads[g];
+        while (2 * i + 1 < size) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && heads[heap[child + 1]] < heads[heap[child]])
+                child++;
+            if (heads[heap[child]] >= position)
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = g;
+    }
+
+    private static boolean isSet(long[] bits, int position) {
+        return (bits[position >>> 6] & (1L << position)) != 0;
+    }
+
+    /*
+     * The same windows, for children that share some of their positions but not
+     * all: each child keeps a cursor into its positions, which moves past the used
+     * up ones for good, and the positions used up are marked in a bitset rather
+     * than per child, so a position one child has is gone for the others too. It
+     * goes over every child on every step, so it's O(positions * children).
+     */
+    private void findOverlappingWindows(int[][] positions, int[] offsets, int[] lengths) {
+        int n = positions.length;
+        if (chosen.length < n)
+            chosen = new int[n];
+
+        int maxPosition = 0;
+        for (int i = 0; i < n; i++) {
+            cursors[i] = offsets[i];
+            maxPosition = Math.max(maxPosition, positions[i][offsets[i] + lengths[i] - 1]);
+        }
+        int words = (maxPosition >>> 6) + 1;
+        if (used.length < words) {
+            used = new long[words];
+            tried = new long[words];
+        }
+
+        boolean positionsLeft = true;
+        while (positionsLeft) {
+
+            int startPos = Integer.MAX_VALUE;
+            int endPos = Integer.MIN_VALUE;
+            int numChosen = 0;
+            for (int i = 0; i < n; i++) {
+                int[] pos = positions[i];
+                int end = offsets[i] + lengths[i];
+
+                // the positions used by previous windows are gone for good
+                while (cursors[i] < end && isSet(used, pos[cursors[i]]))
+                    cursors[i]++;
+
+                // and the ones the earlier children took for this window just for now
+                int j = cursors[i];
+                while (j < end && (isSet(tried, pos[j]) || isSet(used, pos[j])))
+                    j++;
+
+                if (j == end) {
+                    positionsLeft = false;
                     break;
+                }
+
+                chosen[numChosen++] = pos[j];
+                tried[pos[j] >>> 6] |= 1L << pos[j];
+                startPos = Math.min(startPos, pos[j]);
+                endPos = Math.max(endPos, pos[j]);
+            }
 
-                // we have a range [startPos, endPos] which contains all the terms
-                // check if this range fits the window-size criteria
-                // there must be at most 'windowSize' terms in the window
-                // including startPos and endPos.
-                // i.e. endPos - startPos + 1 <= windowSize
-                if (endPos - startPos + 1 <= windowSize) {
-                    // yay! a window
-                    windowCount += 1;
-                    /*
-                     * System.out.println(
-                     * "Found a window in " + docId + " from " + startPos + " to " + endPos
-                     * + " using: " + localPositionSeen);
-                     */
-
-                    // add all position's used in this window's computation to the
-                    // global-position set so that future windows don't use them
-                    globalPositionSeen.addAll(localPositionSeen);
-
-                    // add only the start-position of this window to the fake inverted list we're
-                    // creating for this ProximityNode
-                    if (iList == null) {
-                        iList = new InvertedList("<WINDOW_HOLDER_TERM>");
-                    }
-                    iList.addPositionToPosting(docId, startPos);
-                } else {
-
-                    /*
-                     * System.out.println(
-                     * "Found a window in " + docId + " from " + startPos + " to " + endPos
-                     * + " but greater than the required windowSize");
-                     */
-                    // we want only the starting term's position to move forward
-                    // the others should remain same as they are unused
-                    // To achieve this, add only startPos to the global-position set
-                    // the others, by virtue of not being added to the global-position set,
-                    // will be picked up for future window computations
-                    globalPositionSeen.add(startPos);
+            for (int i = 0; i < numChosen; i++) {
+                tried[chosen[i] >>> 6] &= ~(1L << chosen[i]);
+            }
+
+            if (!positionsLeft)
+                break;
+
+            if (endPos - startPos + 1 <= windowSize) {
+                for (int i = 0; i < n; i++) {
+                    used[chosen[i] >>> 6] |= 1L << chosen[i];
                 }
+                addWindow(startPos);
+            } else {
+                used[startPos >>> 6] |= 1L << startPos;
             }
-            windowCounts.put(docId, windowCount);
-            collectionFrequency += windowCount;
         }
+
+        // leave the bitset clear for the next doc
+        Arrays.fill(used, 0, words, 0L);
     }
 
 }
@@ -8,6 +8,11 @@ public class WeightedSumBeliefNode extends BeliefNode {
         this.weights = weights;
     }
 
+    // (for the QueryTreeOptimizer, which merges the weights of nested nodes)
+    double[] getWeights() {
+        return weights;
+    }
+
     @Override
     public Double score(int docId) {
         double score = 0.0, wsum = 0.0;
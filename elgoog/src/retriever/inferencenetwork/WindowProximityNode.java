@@ -1,95 +1,239 @@
 package retriever.inferencenetwork;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 
-import index.InvertedList;
-import index.Posting;
+import index.Index;
 import retriever.evaluation.Evaluator;
 
+/*
+ * A window node is a cursor over the docs in which its children (terms, or
+ * other windows) make at least one window. Nothing is worked out up front:
+ * skipTo() leapfrogs the children to the next doc that they are all in, and
+ * only then are the windows in that doc looked for - so a doc the retrieval
+ * never asks about (because a filter or the top-k has no use for it) costs
+ * nothing more than skipping over it.
+ *
+ * Since the windows aren't all found up front, neither is the number of them
+ * in the collection. It is estimated from the children's collection
+ * frequencies (see estimateCollectionFrequency()), unless it's known already and
+ * set with setCollectionFrequency().
+ */
+
 public abstract class WindowProximityNode extends ProximityNode {
 
     // window-size of this node
     int windowSize = 0;
 
-    // maintain a list of docs that have all the children nodes
-    // of this proximity node i.e. intersection of documents in
-    // the inverted-lists of children
-    protected ArrayList<Integer> docSet = null;
-
     // Window nodes can have any other ProximityNodes as their children
     protected ArrayList<? extends ProximityNode> children;
 
-    // holds the inverted lists of children
-    protected ArrayList<InvertedList> childILists = null;
+    // the index whose statistics go into the estimate of the collection frequency,
+    // or null if there's none
+    protected Index index = null;
+
+    // the order in which moveTo() skips the children (the positions are still
+    // matched in the children's own order), or null for their own order
+    private int[] skipOrder = null;
 
-    // holds count of window occurrences for all docs
-    HashMap<Integer, Integer> windowCounts = new HashMap<Integer, Integer>();
+    // the doc the cursor is at - -1 until it is first moved,
+    // and Integer.MAX_VALUE once there are no more docs with a window
+    private int currentDocId = -1;
 
-    // collection frequency of this window i.e. across all documents
-    int collectionFrequency = 0;
+    // number of windows in the current doc and the start-position of each
+    private int windowCount = 0;
+    private int[] windowStarts = new int[8];
+
+    // reused from doc to doc: where each child's positions in the candidate doc
+    // are - its own arrays, read in place rather than copied out (see findWindows())
+    private int[][] childPositions = new int[0][];
+    private int[] childOffsets = new int[0];
+    private int[] childLengths = new int[0];
+
+    // collection frequency of this window i.e. across all documents,
+    // or -1 if it's yet to be estimated
+    private long collectionFrequency = -1;
 
     public WindowProximityNode(Evaluator evaluator, int windowSize) {
+        this(evaluator, windowSize, null);
+    }
+
+    public WindowProximityNode(Evaluator evaluator, int windowSize, Index index) {
         super(evaluator);
         this.windowSize = windowSize;
-        // TODO Auto-generated constructor stub
+        this.index = index;
     }
 
     public void setChildren(ArrayList<? extends ProximityNode> list) {
         children = list;
+        skipOrder = null;
+    }
 
-        // create the inverted list for window-nodes
-        // they are same as traditional inverted lists except that the positions
-        // are really just start-positions of windows
-        createFakeInvertedList();
+    // Which doc the children are next all in doesn't depend on the order they're
+    // skipped in, but it's found with fewer skips when the rarest child goes first
+    // - it jumps the furthest. (The QueryTreeOptimizer sets this, after the children.)
+    void setSkipOrder(int[] order) {
+        skipOrder = order;
     }
 
-    public abstract void createFakeInvertedList();
+    // for when the number of times the window is in the collection is known
+    // (say, from an index of phrases) and need not be estimated
+    public void setCollectionFrequency(long frequency) {
+        collectionFrequency = frequency;
+    }
+
+    @Override
+    protected long getCollectionFrequency() {
+        if (collectionFrequency < 0)
+            collectionFrequency = estimateCollectionFrequency();
+        return collectionFrequency;
+    }
 
-    protected ArrayList<Integer> intersectDocs(ArrayList<InvertedList> iLists) {
+    // the number of ways there are for the children to make a window which begins
+    // at a given position, with the children's positions distinct
+    protected abstract double getNumArrangementsPerPosition();
+
+    /*
+     * If the children's positions were independent of each other (and uniformly
+     * spread over the collection of C words), a child with collection frequency cf
+     * would be at any given position with probability cf / C. The expected number
+     * of windows would then be C * (number of arrangements per position) * the
+     * product of those probabilities. A doc can't have more windows than its
+     * rarest child has positions, so neither can the collection.
+     * Without an index to get C from, that rarest child's frequency is the estimate.
+     */
+    protected long estimateCollectionFrequency() {
+        if (children == null || children.isEmpty())
+            return 0;
+
+        long rarest = Long.MAX_VALUE;
+        for (ProximityNode child : children) {
+            rarest = Math.min(rarest, child.getCollectionFrequency());
+        }
+        if (rarest == 0 || index == null)
+            return rarest;
 
-        ArrayList<Integer> results = new ArrayList<Integer>();
-        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
-        int numChildren = children.size();
-        for (InvertedList iList : iLists) {
-            for (Integer docId : iList.getPostings().keySet()) {
-                counts.put(docId, counts.getOrDefault(docId, 0) + 1);
-            }
+        double numWordsInCollection = index.getNumWordsInCollection();
+        double expected = numWordsInCollection * getNumArrangementsPerPosition();
+        for (ProximityNode child : children) {
+            expected *= child.getCollectionFrequency() / numWordsInCollection;
         }
 
-        // the docs which have all the terms will have their count = numChildren
-        // i.e. they appear atleast once in all childrens' inverted-list
-        for (Integer docId : counts.keySet()) {
-            if (counts.get(docId) == numChildren) {
-                results.add(docId);
+        // a window that could be there at all is taken to be there at least once
+        return Math.max(1, Math.min(rarest, Math.round(expected)));
+    }
+
+    // looks for the windows made by the children's positions in a doc, and calls
+    // addWindow() with the start-position of each. The i'th child's positions are
+    // positions[i][offsets[i]] .. positions[i][offsets[i] + lengths[i] - 1], in
+    // increasing order - the arrays are the children's own, and mustn't be changed.
+    protected abstract void findWindows(int[][] positions, int[] offsets, int[] lengths);
+
+    // windows have to be added in increasing order of their start-positions
+    protected void addWindow(int startPosition) {
+        if (windowCount == windowStarts.length)
+            windowStarts = Arrays.copyOf(windowStarts, 2 * windowCount);
+        windowStarts[windowCount++] = startPosition;
+    }
+
+    // moves the cursor to the first doc, at or after docId, that has a window
+    private void moveTo(int docId) {
+        int n = (children == null) ? 0 : children.size();
+        int candidate = (n == 0) ? Integer.MAX_VALUE : docId;
+
+        while (candidate != Integer.MAX_VALUE) {
+            // skip the children in turn to the candidate doc, and make whichever of
+            // them is beyond it the new candidate, till they're all at the same doc
+            int childrenAtCandidate = 0;
+            for (int i = 0; childrenAtCandidate < n && candidate != Integer.MAX_VALUE; i++) {
+                int c = (skipOrder == null) ? i % n : skipOrder[i % n];
+                ProximityNode child = children.get(c);
+                child.skipTo(candidate);
+                int childDocId = child.nextCandidateDocument();
+                if (childDocId == candidate) {
+                    childrenAtCandidate++;
+                } else {
+                    candidate = childDocId;
+                    childrenAtCandidate = 1;
+                }
+            }
+            if (candidate == Integer.MAX_VALUE)
+                break;
+
+            // they're all in this doc - but do they make a window?
+            if (childPositions.length != n) {
+                childPositions = new int[n][];
+                childOffsets = new int[n];
+                childLengths = new int[n];
+            }
+            for (int i = 0; i < n; i++) {
+                ProximityNode child = children.get(i);
+                childPositions[i] = child.getPositionsArray();
+                childOffsets[i] = child.getPositionsOffset();
+                childLengths[i] = child.getPositionsLength();
             }
+            windowCount = 0;
+            findWindows(childPositions, childOffsets, childLengths);
+            if (windowCount > 0) {
+                currentDocId = candidate;
+                return;
+            }
+
+            candidate++;
         }
 
-        // sort in ascending order of docId and then return
-        Collections.sort(results);
-        return results;
+        currentDocId = Integer.MAX_VALUE;
+        windowCount = 0;
+    }
+
+    @Override
+    public int nextCandidateDocument() {
+        if (currentDocId < 0)
+            moveTo(0);
+        return currentDocId;
+    }
+
+    @Override
+    public void skipTo(int docId) {
+        if (docId > currentDocId)
+            moveTo(docId);
+    }
+
+    @Override
+    protected boolean canScoreDoc(int docId) {
+        return nextCandidateDocument() == docId;
+    }
+
+    // the start-positions of the windows in the current doc
+    @Override
+    protected int[] getPositions() {
+        return Arrays.copyOf(windowStarts, windowCount);
+    }
+
+    @Override
+    protected int[] getPositionsArray() {
+        return windowStarts;
+    }
+
+    @Override
+    protected int getPositionsOffset() {
+        return 0;
+    }
+
+    @Override
+    protected int getPositionsLength() {
+        return windowCount;
     }
 
     @Override
     public Double score(int docId) {
 
-        if (iList == null) {
-            // if no iList exists, the probability-score is 0
-            // so the log-space score is log(0) i.e. -ve infinity.
-            return Double.NEGATIVE_INFINITY;
-        }
+        int collectionFrequency = (int) Math.min(getCollectionFrequency(), Integer.MAX_VALUE);
 
         // since we would have been asked to skipTo(docId) previously,
-        // if the currentPosting is not docId, we don't have docId in our list
-        Posting curPosting = iList.getCurrentPosting();
-        if (curPosting != null && curPosting.getDocId() == docId) {
-            /*
-             * System.out.println(
-             * docId + ": " + windowCounts.get(docId) + ", total: " + collectionFrequency);
-             */
-            return evaluator.getDocScoreForQueryWindow(windowCounts.get(docId), docId,
-                    collectionFrequency);
+        // if the cursor is not at docId, docId has no window
+        if (nextCandidateDocument() == docId) {
+            return evaluator.getDocScoreForQueryWindow(windowCount, docId, collectionFrequency);
         } else {
             if (evaluator.assignsBackgroundProbability()) {
                 return evaluator.getDocScoreForQueryWindow(0, docId, collectionFrequency);
@@ -0,0 +1,231 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import compression.Compressor;
+import compression.PForDeltaEncoder;
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import index.InvertedList;
+import index.MappedInvertedFileIndex;
+import reader.Document;
+import retriever.evaluation.Evaluator;
+import retriever.evaluation.RawCountEvaluator;
+import retriever.inferencenetwork.InferenceNetworkRetriever;
+import retriever.inferencenetwork.OrderedWindowProximityNode;
+import retriever.inferencenetwork.TermProximityNode;
+
+/*
+ * Checks the biword index, and the #od1 nodes that are matched on it, against
+ * the same docs indexed without one:
+ *
+ * - the biword index has a list for each pair of adjacent terms there are at
+ *   least BIWORD_THRESHOLD of in the docs, with every position of the pair, and
+ *   none for the rest of the pairs.
+ * - a phrase all of whose pairs are in it is matched on the pairs, and has to
+ *   come out with the same docs, and number of windows in each, as it does on
+ *   the term positions. The scores differ only by the window's collection
+ *   frequency - the pair's own for a phrase of two terms, and the estimate from
+ *   its pairs for a longer one - so the positional #od1 is given the same one to
+ *   compare the scores with.
+ * - a phrase with a pair that isn't in the biword index, or one whose
+ *   occurrences can overlap, is matched on the terms, the same as without it.
+ *
+ * Both the InvertedFileIndex and the MappedInvertedFileIndex are checked, each
+ * with the compressors the retriever tests use.
+ */
+
+public class BiwordTest {
+
+    private static final int BIWORD_THRESHOLD = 20, NUM_PHRASES = 300;
+
+    // scores a doc by the number of windows in it
+    private static Evaluator windowCounter = new RawCountEvaluator() {
+        @Override
+        public double getDocScoreForQueryWindow(int termFrequency, int docId,
+                int collectionFrequency) {
+            return termFrequency;
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<Document> docs = RetrievalTestIndex.createDocuments();
+
+        // the positions of each pair of adjacent terms, counted from the docs
+        HashMap<String, Integer> pairCounts = new HashMap<String, Integer>();
+        for (Document doc : docs) {
+            String[] terms = doc.getTermVector();
+            for (int i = 0; i + 1 < terms.length; i++) {
+                pairCounts.merge(terms[i] + " " + terms[i + 1], 1, Integer::sum);
+            }
+        }
+
+        ArrayList<String[]> phrases = createPhrases(new Random(7));
+
+        int numChecks = 0, numMismatches = 0;
+        int numOnBiwords = 0, numMissingBiword = 0, numOverlapping = 0;
+        for (Compressor compressor : new Compressor[] { new VByteEncoder(),
+                new PForDeltaEncoder() }) {
+            RetrievalTestIndex plainIndex = new RetrievalTestIndex(docs, compressor);
+            RetrievalTestIndex testIndex = new RetrievalTestIndex(docs, compressor,
+                    BIWORD_THRESHOLD);
+            InvertedFileIndex plain = plainIndex.getIndex();
+
+            for (boolean mapped : new boolean[] { false, true }) {
+                InvertedFileIndex index = mapped
+                        ? new MappedInvertedFileIndex(testIndex.getPath())
+                        : new InvertedFileIndex(testIndex.getPath());
+                String description = compressor.getClass().getSimpleName()
+                        + (mapped ? " mmap" : " file");
+
+                InvertedFileIndex biwords = index.getBiwordIndex();
+                numChecks++;
+                if (biwords == null || biwords instanceof MappedInvertedFileIndex != mapped) {
+                    numMismatches++;
+                    System.out.println("MISMATCH " + description + ": biword index " + biwords);
+                    continue;
+                }
+                numMismatches += checkBiwordLists(description, biwords, pairCounts);
+                numChecks += pairCounts.size();
+
+                if (plain.getBiwordIndex() != null) {
+                    numMismatches++;
+                    System.out.println("MISMATCH " + description + ": a biword index "
+                            + "for an index written without one");
+                }
+
+                InferenceNetworkRetriever retriever = new InferenceNetworkRetriever(index);
+                InferenceNetworkRetriever plainRetriever = new InferenceNetworkRetriever(plain);
+                for (String model : new String[] { "count", "dirichlet", "jelinek-mercer" }) {
+                    Evaluator evaluator = model.equals("count") ? windowCounter
+                            : RetrievalTestIndex.createEvaluator(model, index, null);
+                    for (String[] phrase : phrases) {
+                        OrderedWindowProximityNode node = new OrderedWindowProximityNode(
+                                evaluator, 1, index);
+                        node.setChildren(terms(phrase, evaluator, index));
+
+                        OrderedWindowProximityNode positional = new OrderedWindowProximityNode(
+                                evaluator, 1, plain);
+                        positional.setChildren(terms(phrase, evaluator, plain));
+
+                        // what the node should have done with the phrase
+                        boolean onBiwords = !canOverlap(phrase);
+                        for (int i = 0; i + 1 < phrase.length && onBiwords; i++) {
+                            onBiwords = pairCounts.getOrDefault(phrase[i] + " " + phrase[i + 1],
+                                    0) >= BIWORD_THRESHOLD;
+                        }
+                        if (onBiwords)
+                            positional.setCollectionFrequency(
+                                    getCollectionFrequency(phrase, pairCounts, plain));
+                        if (model.equals("count")) {
+                            if (onBiwords)
+                                numOnBiwords++;
+                            else if (canOverlap(phrase))
+                                numOverlapping++;
+                            else
+                                numMissingBiword++;
+                        }
+
+                        List<Map.Entry<Integer, Double>> expected = plainRetriever
+                                .retrieveQuery(positional, RetrievalTestIndex.NUM_DOCS);
+                        List<Map.Entry<Integer, Double>> actual = retriever.retrieveQuery(node,
+                                RetrievalTestIndex.NUM_DOCS);
+                        numChecks++;
+                        if (!RetrievalTestIndex.isSameTopK(description + " " + model + " #od1("
+                                + String.join(" ", phrase) + ")", expected, actual))
+                            numMismatches++;
+                    }
+                }
+            }
+
+            testIndex.delete();
+            plainIndex.delete();
+        }
+
+        System.out.println(numMismatches + " of " + numChecks + " biword checks differ ("
+                + numOnBiwords + " phrases on biwords, " + numMissingBiword
+                + " with a pair missing, " + numOverlapping + " that can overlap)");
+        if (numMismatches > 0 || numOnBiwords == 0 || numMissingBiword == 0
+                || numOverlapping == 0)
+            System.exit(1);
+    }
+
+    // the biword index has a list for a pair if and only if there are enough of it,
+    // and it has them all
+    private static int checkBiwordLists(String description, InvertedFileIndex biwords,
+            HashMap<String, Integer> pairCounts) {
+        int numMismatches = 0;
+        for (Map.Entry<String, Integer> pair : pairCounts.entrySet()) {
+            InvertedList list = biwords.getInvertedListForTerm(pair.getKey());
+            int expected = (pair.getValue() >= BIWORD_THRESHOLD) ? pair.getValue() : 0;
+            int actual = (list == null) ? 0 : list.getCollectionFrequency();
+            if (expected != actual) {
+                numMismatches++;
+                System.out.println("MISMATCH " + description + ": \"" + pair.getKey() + "\" has "
+                        + actual + " positions in the biword index, expected " + expected);
+            }
+        }
+        return numMismatches;
+    }
+
+    // phrases of 2 to 4 terms, from common to rare - some in no doc, some with a
+    // term that isn't in the index, and some that repeat a term
+    private static ArrayList<String[]> createPhrases(Random random) {
+        ArrayList<String[]> phrases = new ArrayList<String[]>();
+        for (String phrase : new String[] { "t0 t1", "t0 t0", "t0 t0 t0", "t0 t1 t0",
+                "t1 t0 t2", "t0 t1 t2 t3", "t0 unknown", "t0 rare0" }) {
+            phrases.add(phrase.split(" "));
+        }
+        while (phrases.size() < NUM_PHRASES) {
+            String[] phrase = new String[2 + random.nextInt(3)];
+            for (int i = 0; i < phrase.length; i++) {
+                phrase[i] = "t" + (int) (RetrievalTestIndex.NUM_TERMS
+                        * Math.pow(random.nextDouble(), 3));
+            }
+            phrases.add(phrase);
+        }
+        return phrases;
+    }
+
+    private static ArrayList<TermProximityNode> terms(String[] phrase, Evaluator evaluator,
+            InvertedFileIndex index) {
+        ArrayList<TermProximityNode> terms = new ArrayList<TermProximityNode>();
+        for (String term : phrase) {
+            terms.add(new TermProximityNode(evaluator, index.getInvertedListForTerm(term)));
+        }
+        return terms;
+    }
+
+    // the collection frequency a phrase matched on biwords gets: its pair's, or
+    // for a longer one, the chain of its pairs' - each pair following the one
+    // before as often as its first term does
+    private static long getCollectionFrequency(String[] phrase, HashMap<String, Integer> pairCounts,
+            InvertedFileIndex index) {
+        long first = pairCounts.get(phrase[0] + " " + phrase[1]);
+        double estimate = first;
+        long rarest = first;
+        for (int i = 1; i + 1 < phrase.length; i++) {
+            long pair = pairCounts.get(phrase[i] + " " + phrase[i + 1]);
+            estimate *= (double) pair / index.getCollectionFrequencyForTerm(phrase[i]);
+            rarest = Math.min(rarest, pair);
+        }
+        return Math.max(1, Math.min(rarest, Math.round(estimate)));
+    }
+
+    // whether two occurrences of the phrase can share positions, like "a b a"
+    private static boolean canOverlap(String[] phrase) {
+        for (int shift = 1; shift < phrase.length; shift++) {
+            boolean same = true;
+            for (int i = shift; i < phrase.length && same; i++) {
+                same = phrase[i].equals(phrase[i - shift]);
+            }
+            if (same)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+package test;
+
+import java.util.ArrayList;
+
+import compression.Compressor;
+import compression.PForDeltaEncoder;
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import retriever.BlockMaxWandRetriever;
+import retriever.DocAtATimeRetriever;
+
+/*
+ * Checks that the BlockMaxWandRetriever returns the same top-k as the
+ * DocAtATimeRetriever, for every query, k and model - on an index written with
+ * each of the compressors, as the block bounds are written with the blocks.
+ */
+
+public class BlockMaxWandTest {
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<String[]> queries = RetrievalTestIndex.createQueries(200, 11);
+        int numChecks = 0, numMismatches = 0;
+
+        for (Compressor compressor : new Compressor[] { new VByteEncoder(),
+                new PForDeltaEncoder() }) {
+            RetrievalTestIndex testIndex = new RetrievalTestIndex(compressor);
+            InvertedFileIndex index = testIndex.getIndex();
+
+            DocAtATimeRetriever exhaustive = new DocAtATimeRetriever(index);
+            BlockMaxWandRetriever blockMaxWand = new BlockMaxWandRetriever(index);
+
+            for (String[] query : queries) {
+                for (int k : RetrievalTestIndex.KS) {
+                    for (String model : RetrievalTestIndex.MODELS) {
+                        numChecks++;
+                        if (!RetrievalTestIndex.isSameTopK(
+                                String.join(" ", query) + " k=" + k + " " + model + " "
+                                        + compressor.getClass().getSimpleName(),
+                                exhaustive.retrieveQuery(query, k,
+                                        RetrievalTestIndex.createEvaluator(model, index, query)),
+                                blockMaxWand.retrieveQuery(query, k,
+                                        RetrievalTestIndex.createEvaluator(model, index, query))))
+                            numMismatches++;
+                    }
+                }
+            }
+            testIndex.delete();
+
+            System.out.println(compressor.getClass().getSimpleName() + ": Block-Max WAND scored "
+                    + blockMaxWand.getNumDocumentsScored() + " docs, exhaustive "
+                    + exhaustive.getNumDocumentsScored());
+        }
+
+        System.out.println(numMismatches + " of " + numChecks + " top-k's differ");
+        if (numMismatches > 0)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,173 @@
+package test;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import index.MappedInvertedFileIndex;
+
+/*
+ * Checks that threads sharing one index read the same lists from it as a single
+ * thread does. For each of the read paths, a fresh index is opened (so the
+ * dictionary and the document lengths get loaded by whichever thread gets
+ * there first), and the threads are let go at once - each reading every term's
+ * list and every doc's length, starting at a different term, a few times over.
+ *
+ * Then it's all done again with one more thread, which is interrupted before
+ * every list it reads. That closes the index file (a FileChannel is
+ * interruptible) - only that thread's read may fail for it, not anyone else's.
+ */
+
+public class ConcurrentReadTest {
+
+    private static final int NUM_THREADS = 8, NUM_ROUNDS = 3, NUM_TRIALS = 10;
+
+    public static void main(String[] args) throws Exception {
+        RetrievalTestIndex testIndex = new RetrievalTestIndex(new VByteEncoder());
+        InvertedFileIndex index = testIndex.getIndex();
+
+        // what a single thread reads
+        ArrayList<String> terms = index.getVocabListFromIndex();
+        int[][] expectedLists = new int[terms.size()][];
+        for (int t = 0; t < terms.size(); t++) {
+            expectedLists[t] = index.getInvertedListForTerm(terms.get(t)).getList(false);
+        }
+        int[] expectedLengths = new int[index.getNumDocs()];
+        for (int d = 0; d < expectedLengths.length; d++) {
+            expectedLengths[d] = index.getNumWordsInDocument(d);
+        }
+
+        int numMismatches = 0;
+        for (boolean mmap : new boolean[] { false, true }) {
+            for (int trial = 0; trial < NUM_TRIALS; trial++) {
+                InvertedFileIndex shared = mmap ? new MappedInvertedFileIndex(testIndex.getPath())
+                        : new InvertedFileIndex(testIndex.getPath());
+                int mismatches = readConcurrently(shared, terms, expectedLists,
+                        expectedLengths, false);
+                if (mismatches > 0)
+                    System.out.println("MISMATCH " + (mmap ? "mmap" : "file") + " trial " + trial
+                            + ": " + mismatches + " reads differ");
+                numMismatches += mismatches;
+            }
+        }
+
+        // the same, with one more thread that keeps getting interrupted while it
+        // reads - which closes the file the reads of the index share
+        int numInterrupted = 0;
+        for (boolean mmap : new boolean[] { false, true }) {
+            for (int trial = 0; trial < NUM_TRIALS; trial++) {
+                InvertedFileIndex shared = mmap ? new MappedInvertedFileIndex(testIndex.getPath())
+                        : new InvertedFileIndex(testIndex.getPath());
+                int mismatches = readConcurrently(shared, terms, expectedLists,
+                        expectedLengths, true);
+
+                // and once they're done, the index is read as well as ever
+                for (int t = 0; t < terms.size(); t++) {
+                    int[] list = shared.getInvertedListForTerm(terms.get(t)).getList(false);
+                    if (!Arrays.equals(list, expectedLists[t]))
+                        mismatches++;
+                }
+                if (mismatches > 0)
+                    System.out.println("MISMATCH " + (mmap ? "mmap" : "file")
+                            + " interrupted trial " + trial + ": " + mismatches
+                            + " reads differ");
+                numMismatches += mismatches;
+                numInterrupted += interruptedReads.getAndSet(0);
+            }
+        }
+        testIndex.delete();
+
+        System.out.println(numMismatches + " reads differ, of " + NUM_THREADS + " threads x "
+                + NUM_ROUNDS + " rounds x " + NUM_TRIALS + " trials over " + terms.size()
+                + " lists and " + expectedLengths.length + " docs, on each read path ("
+                + numInterrupted + " reads interrupted)");
+        if (numMismatches > 0 || numInterrupted == 0)
+            System.exit(1);
+    }
+
+    // number of reads of the interrupted thread that failed for it
+    private static AtomicInteger interruptedReads = new AtomicInteger();
+
+    // lets NUM_THREADS threads read the shared index at once, and returns how
+    // many of their reads differ from the expected ones (or failed)
+    private static int readConcurrently(InvertedFileIndex shared, ArrayList<String> terms,
+            int[][] expectedLists, int[] expectedLengths, boolean interrupting)
+            throws InterruptedException {
+        if (interrupting) {
+            // the dictionary and lengths are loaded first - it's the reads of the
+            // lists that are interrupted
+            shared.getInvertedListForTerm(terms.get(0)).getList(false);
+            shared.getNumWordsInDocument(0);
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger mismatches = new AtomicInteger();
+        Throwable[] failures = new Throwable[NUM_THREADS];
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int i = 0; i < NUM_THREADS; i++) {
+            int thread = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int round = 0; round < NUM_ROUNDS; round++) {
+                        for (int j = 0; j < terms.size(); j++) {
+                            int t = (j + thread * terms.size() / NUM_THREADS) % terms.size();
+                            int[] list = shared.getInvertedListForTerm(terms.get(t))
+                                    .getList(false);
+                            if (!Arrays.equals(list, expectedLists[t]))
+                                mismatches.incrementAndGet();
+                        }
+                        for (int d = 0; d < expectedLengths.length; d++) {
+                            if (shared.getNumWordsInDocument(d) != expectedLengths[d])
+                                mismatches.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures[thread] = e;
+                }
+            });
+            threads[i].start();
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        Thread interrupted = new Thread(() -> {
+            while (!done.get()) {
+                for (int t = 0; t < terms.size() && !done.get(); t++) {
+                    Thread.currentThread().interrupt();
+                    try {
+                        int[] list = shared.getInvertedListForTerm(terms.get(t)).getList(false);
+                        if (!Arrays.equals(list, expectedLists[t]))
+                            mismatches.incrementAndGet();
+                    } catch (UncheckedIOException e) {
+                        // the read that was interrupted can fail - just not the others
+                        interruptedReads.incrementAndGet();
+                    }
+                    Thread.interrupted();
+                }
+            }
+        });
+        if (interrupting)
+            interrupted.start();
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        if (interrupting)
+            interrupted.join();
+
+        for (Throwable failure : failures) {
+            if (failure != null) {
+                failure.printStackTrace();
+                mismatches.incrementAndGet();
+            }
+        }
+        return mismatches.get();
+    }
+}
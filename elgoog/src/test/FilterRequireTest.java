@@ -0,0 +1,164 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import retriever.evaluation.DirichletEvaluator;
+import retriever.evaluation.Evaluator;
+import retriever.evaluation.JelinekMercerEvaluator;
+import retriever.evaluation.RawCountEvaluator;
+import retriever.inferencenetwork.AndBeliefNode;
+import retriever.inferencenetwork.BeliefNode;
+import retriever.inferencenetwork.FilterRequireQueryNode;
+import retriever.inferencenetwork.InferenceNetworkRetriever;
+import retriever.inferencenetwork.OrBeliefNode;
+import retriever.inferencenetwork.ProximityNode;
+import retriever.inferencenetwork.QueryNode;
+import retriever.inferencenetwork.SumBeliefNode;
+import retriever.inferencenetwork.TermProximityNode;
+import retriever.inferencenetwork.UnorderedWindowProximityNode;
+
+/*
+ * Checks that a FilterRequireQueryNode picks its candidates the way it always
+ * has - the later of the filter's and the query's next doc, so that a doc of
+ * the filter the query has no posting for is scored too (with background
+ * probability, if the evaluator assigns it) - unless the score-changing
+ * rewrites are asked for. Random filters (common, rare and unknown terms, and
+ * windows) over random ANDs, SUMs and ORs are run through the node, with the
+ * optimizer and without, and against a copy of the node as it was.
+ */
+
+public class FilterRequireTest {
+
+    private static final int NUM_QUERIES = 200;
+
+    // (every doc that's scored comes back)
+    private static final int ALL_DOCS = RetrievalTestIndex.NUM_DOCS;
+
+    private static InvertedFileIndex index;
+    private static Evaluator evaluator;
+
+    // the node before it leapfrogged the filter and the query
+    private static class BaselineFilterRequireNode extends QueryNode {
+        private ProximityNode filter;
+        private QueryNode queryNode;
+
+        BaselineFilterRequireNode(ProximityNode filter, QueryNode queryNode) {
+            this.filter = filter;
+            this.queryNode = queryNode;
+        }
+
+        @Override
+        public int nextCandidateDocument() {
+            return Math.max(filter.nextCandidateDocument(), queryNode.nextCandidateDocument());
+        }
+
+        @Override
+        public Double score(int docId) {
+            // (a proximity node can score the doc it's at, and no other)
+            if (filter.nextCandidateDocument() == docId)
+                return queryNode.score(docId);
+            return null;
+        }
+
+        @Override
+        public void skipTo(int docId) {
+            filter.skipTo(docId);
+            queryNode.skipTo(docId);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        RetrievalTestIndex testIndex = new RetrievalTestIndex(new VByteEncoder());
+        index = testIndex.getIndex();
+
+        InferenceNetworkRetriever unoptimized = new InferenceNetworkRetriever(index);
+        unoptimized.setQueryOptimization(false);
+        InferenceNetworkRetriever optimized = new InferenceNetworkRetriever(index);
+        InferenceNetworkRetriever changingScores = new InferenceNetworkRetriever(index);
+        changingScores.setScoreChangingRewrites(true);
+
+        int numChecks = 0, numMismatches = 0, numChangedByLeapfrog = 0;
+        for (Evaluator e : new Evaluator[] { new DirichletEvaluator(index),
+                new JelinekMercerEvaluator(index), new RawCountEvaluator(index) }) {
+            evaluator = e;
+            String model = e.getClass().getSimpleName();
+            for (int seed = 0; seed < NUM_QUERIES; seed++) {
+                numChecks++;
+                if (!RetrievalTestIndex.isSameTopK("query " + seed + " " + model,
+                        unoptimized.retrieveQuery(buildQuery(seed, true), ALL_DOCS),
+                        unoptimized.retrieveQuery(buildQuery(seed, false), ALL_DOCS)))
+                    numMismatches++;
+
+                numChecks++;
+                if (!RetrievalTestIndex.isSameTopK("query " + seed + " " + model + " optimized",
+                        unoptimized.retrieveQuery(buildQuery(seed, true), ALL_DOCS),
+                        optimized.retrieveQuery(buildQuery(seed, false), ALL_DOCS)))
+                    numMismatches++;
+
+                // (only counted - leapfrogging is meant to change them)
+                if (!unoptimized.retrieveQuery(buildQuery(seed, true), ALL_DOCS).equals(
+                        changingScores.retrieveQuery(buildQuery(seed, false), ALL_DOCS)))
+                    numChangedByLeapfrog++;
+            }
+        }
+        testIndex.delete();
+
+        System.out.println(numMismatches + " of " + numChecks + " queries differ from the "
+                + "baseline node; " + numChangedByLeapfrog + " of " + 3 * NUM_QUERIES
+                + " are changed by leapfrogging");
+        if (numMismatches > 0)
+            System.exit(1);
+    }
+
+    private static QueryNode buildQuery(int seed, boolean baseline) throws Exception {
+        Random random = new Random(seed);
+        ProximityNode filter = buildFilter(random);
+
+        BeliefNode query;
+        switch (random.nextInt(3)) {
+        case 0:
+            query = new AndBeliefNode();
+            break;
+        case 1:
+            query = new SumBeliefNode();
+            break;
+        default:
+            query = new OrBeliefNode();
+            break;
+        }
+        ArrayList<QueryNode> children = new ArrayList<QueryNode>();
+        for (int i = 1 + random.nextInt(3); i > 0; i--) {
+            children.add(buildTerm(random));
+        }
+        query.setChildren(children);
+
+        return baseline ? new BaselineFilterRequireNode(filter, query)
+                : new FilterRequireQueryNode(filter, query);
+    }
+
+    private static ProximityNode buildFilter(Random random) {
+        if (random.nextInt(4) > 0)
+            return buildTerm(random);
+
+        UnorderedWindowProximityNode window = new UnorderedWindowProximityNode(evaluator,
+                4 + random.nextInt(8), index);
+        ArrayList<ProximityNode> children = new ArrayList<ProximityNode>();
+        children.add(buildTerm(random));
+        children.add(buildTerm(random));
+        window.setChildren(children);
+        return window;
+    }
+
+    // mostly common terms, some rare, and now and then one that's in no doc
+    private static TermProximityNode buildTerm(Random random) {
+        double x = random.nextDouble();
+        String term = (x < 0.05) ? "unknown"
+                : (x < 0.3) ? "rare" + random.nextInt(RetrievalTestIndex.NUM_RARE_TERMS)
+                        : "t" + (int) (RetrievalTestIndex.NUM_TERMS
+                                * Math.pow(random.nextDouble(), 2));
+        return new TermProximityNode(evaluator, index.getInvertedListForTerm(term));
+    }
+}
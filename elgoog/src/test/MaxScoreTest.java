@@ -0,0 +1,48 @@
+package test;
+
+import java.util.ArrayList;
+
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import retriever.DocAtATimeRetriever;
+
+/*
+ * Checks that the DocAtATimeRetriever returns the same top-k with MaxScore
+ * (see setMaxScore()) as without, for every query, k and model.
+ */
+
+public class MaxScoreTest {
+
+    public static void main(String[] args) throws Exception {
+        RetrievalTestIndex testIndex = new RetrievalTestIndex(new VByteEncoder());
+        InvertedFileIndex index = testIndex.getIndex();
+
+        DocAtATimeRetriever exhaustive = new DocAtATimeRetriever(index);
+        DocAtATimeRetriever maxScore = new DocAtATimeRetriever(index);
+        maxScore.setMaxScore(true);
+
+        ArrayList<String[]> queries = RetrievalTestIndex.createQueries(200, 7);
+        int numChecks = 0, numMismatches = 0;
+        for (String[] query : queries) {
+            for (int k : RetrievalTestIndex.KS) {
+                for (String model : RetrievalTestIndex.MODELS) {
+                    numChecks++;
+                    if (!RetrievalTestIndex.isSameTopK(
+                            String.join(" ", query) + " k=" + k + " " + model,
+                            exhaustive.retrieveQuery(query, k,
+                                    RetrievalTestIndex.createEvaluator(model, index, query)),
+                            maxScore.retrieveQuery(query, k,
+                                    RetrievalTestIndex.createEvaluator(model, index, query))))
+                        numMismatches++;
+                }
+            }
+        }
+        testIndex.delete();
+
+        System.out.println(numMismatches + " of " + numChecks + " top-k's differ; MaxScore scored "
+                + maxScore.getNumDocumentsScored() + " docs, exhaustive "
+                + exhaustive.getNumDocumentsScored());
+        if (numMismatches > 0)
+            System.exit(1);
+    }
+}
@@ -0,0 +1,172 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import reader.Document;
+import retriever.evaluation.DirichletEvaluator;
+import retriever.evaluation.Evaluator;
+import retriever.evaluation.RawCountEvaluator;
+import retriever.inferencenetwork.InferenceNetworkRetriever;
+import retriever.inferencenetwork.OrderedWindowProximityNode;
+import retriever.inferencenetwork.TermProximityNode;
+
+/*
+ * Checks that the OrderedWindowProximityNode finds the same windows as the
+ * matcher it replaced, which listed every chain of positions that fits in the
+ * window and then kept, in order, the chains with no position used by one kept
+ * before it. The docs are random strings of a handful of words, so a word is in
+ * a doc many times over and next to itself, and the queries repeat words too
+ * (#od(a a b) - the same positions for two children). Every doc has to get the
+ * same number of windows, and the same score for them, as countWindows() says.
+ */
+
+public class OrderedWindowTest {
+
+    private static final String[] WORDS = { "a", "b", "c", "d", "e" };
+
+    private static final int NUM_DOCS = 300, NUM_QUERIES = 200;
+
+    private static final int[] WINDOW_SIZES = { 1, 2, 3, 5, 10 };
+
+    // scores a doc by the number of windows in it
+    private static Evaluator windowCounter = new RawCountEvaluator() {
+        @Override
+        public double getDocScoreForQueryWindow(int termFrequency, int docId,
+                int collectionFrequency) {
+            return termFrequency;
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(42);
+        ArrayList<Document> docs = new ArrayList<Document>();
+        for (int d = 0; d < NUM_DOCS; d++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 1 + random.nextInt(d % 10 == 0 ? 2000 : 100); i > 0; i--) {
+                // skewed, so "a" is the most frequent
+                text.append(WORDS[(int) (WORDS.length * Math.pow(random.nextDouble(), 2))])
+                        .append(' ');
+            }
+            docs.add(new Document(d, "test#scene" + d, text.toString().trim()));
+        }
+        RetrievalTestIndex testIndex = new RetrievalTestIndex(docs, new VByteEncoder());
+        InvertedFileIndex index = testIndex.getIndex();
+        InferenceNetworkRetriever retriever = new InferenceNetworkRetriever(index);
+
+        ArrayList<String[]> queries = new ArrayList<String[]>();
+        for (String query : new String[] { "a a", "a a a", "a a b", "a b a", "b a a", "a b" }) {
+            queries.add(query.split(" "));
+        }
+        while (queries.size() < NUM_QUERIES) {
+            String[] query = new String[2 + random.nextInt(3)];
+            for (int i = 0; i < query.length; i++) {
+                query[i] = WORDS[random.nextInt(3)];
+            }
+            queries.add(query);
+        }
+
+        int numChecks = 0, numMismatches = 0;
+        for (Evaluator evaluator : new Evaluator[] { windowCounter,
+                new DirichletEvaluator(index) }) {
+            for (String[] query : queries) {
+                // the node's estimate of the window's collection frequency, without
+                // an index to go by, is that of its rarest term
+                int collectionFrequency = Integer.MAX_VALUE;
+                for (String term : query) {
+                    collectionFrequency = Math.min(collectionFrequency,
+                            index.getCollectionFrequencyForTerm(term));
+                }
+
+                for (int windowSize : WINDOW_SIZES) {
+                    HashMap<Integer, Double> expected = new HashMap<Integer, Double>();
+                    for (Document doc : docs) {
+                        int count = countWindows(doc.getTermVector(), query, windowSize);
+                        if (count > 0)
+                            expected.put(doc.getDocumentUniqueId(),
+                                    evaluator.getDocScoreForQueryWindow(count,
+                                            doc.getDocumentUniqueId(), collectionFrequency));
+                    }
+
+                    OrderedWindowProximityNode node = new OrderedWindowProximityNode(evaluator,
+                            windowSize);
+                    ArrayList<TermProximityNode> children = new ArrayList<TermProximityNode>();
+                    for (String term : query) {
+                        children.add(new TermProximityNode(evaluator,
+                                index.getInvertedListForTerm(term)));
+                    }
+                    node.setChildren(children);
+                    HashMap<Integer, Double> found = new HashMap<Integer, Double>();
+                    for (Map.Entry<Integer, Double> e : retriever.retrieveQuery(node, NUM_DOCS)) {
+                        found.put(e.getKey(), e.getValue());
+                    }
+
+                    numChecks++;
+                    if (!expected.equals(found)) {
+                        numMismatches++;
+                        System.out.println("MISMATCH #od" + windowSize + "("
+                                + String.join(" ", query) + ") "
+                                + evaluator.getClass().getSimpleName() + ": " + found
+                                + ", expected " + expected);
+                    }
+                }
+            }
+        }
+        testIndex.delete();
+
+        System.out.println(numMismatches + " of " + numChecks + " ordered windows differ");
+        if (numMismatches > 0)
+            System.exit(1);
+    }
+
+    /*
+     * The old matcher: every chain of positions, one per term, each within
+     * 'window' positions after the one before it - listed in order of the first
+     * term's position, then the second's, and so on. The chains are then gone
+     * through in that order, and one is a window if none of its positions is in
+     * a window already.
+     */
+    private static int countWindows(String[] doc, String[] terms, int window) {
+        ArrayList<int[]> chains = new ArrayList<int[]>();
+        for (int p = 0; p < doc.length; p++) {
+            if (doc[p].equals(terms[0]))
+                chains.add(new int[] { p });
+        }
+        for (int t = 1; t < terms.length; t++) {
+            ArrayList<int[]> longer = new ArrayList<int[]>();
+            for (int[] chain : chains) {
+                int last = chain[chain.length - 1];
+                for (int p = last + 1; p < doc.length && p - last <= window; p++) {
+                    if (doc[p].equals(terms[t])) {
+                        int[] next = Arrays.copyOf(chain, chain.length + 1);
+                        next[chain.length] = p;
+                        longer.add(next);
+                    }
+                }
+            }
+            chains = longer;
+        }
+
+        HashSet<Integer> seen = new HashSet<Integer>();
+        int count = 0;
+        for (int[] chain : chains) {
+            boolean valid = true;
+            for (int position : chain) {
+                valid &= !seen.contains(position);
+            }
+            if (valid) {
+                for (int position : chain) {
+                    seen.add(position);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
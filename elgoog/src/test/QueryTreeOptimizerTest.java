@@ -0,0 +1,211 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import retriever.evaluation.DirichletEvaluator;
+import retriever.evaluation.Evaluator;
+import retriever.evaluation.JelinekMercerEvaluator;
+import retriever.inferencenetwork.AndBeliefNode;
+import retriever.inferencenetwork.BeliefNode;
+import retriever.inferencenetwork.FilterRejectQueryNode;
+import retriever.inferencenetwork.FilterRequireQueryNode;
+import retriever.inferencenetwork.InferenceNetworkRetriever;
+import retriever.inferencenetwork.MaxBeliefNode;
+import retriever.inferencenetwork.OrBeliefNode;
+import retriever.inferencenetwork.OrderedWindowProximityNode;
+import retriever.inferencenetwork.ProximityNode;
+import retriever.inferencenetwork.QueryNode;
+import retriever.inferencenetwork.SumBeliefNode;
+import retriever.inferencenetwork.TermProximityNode;
+import retriever.inferencenetwork.UnorderedWindowProximityNode;
+import retriever.inferencenetwork.WeightedAndBeliefNode;
+import retriever.inferencenetwork.WeightedSumBeliefNode;
+import retriever.inferencenetwork.WindowProximityNode;
+
+/*
+ * Checks that the QueryTreeOptimizer changes no scores: random query trees -
+ * nested ANDs, SUMs, ORs and MAXes (weighted and not), windows of terms and of
+ * windows, filters, and terms that are in no doc - are run with the optimizer
+ * and without, and every doc has to get the same score both ways (up to the
+ * rounding of the arithmetic, as the flattened nodes add up in another order).
+ *
+ * The rewrites that do change scores (see setScoreChangingRewrites()) are
+ * checked on trees without unknown terms or required filters, where they change
+ * nothing - and on ANDs with a required filter in them, whose filter is lifted:
+ * those have to score the same as the AND with the filter put above it by hand
+ * (both leapfrogging the filter, as the score-changing rewrites have it do).
+ *
+ * Every tree is built twice from the same seed, as a tree can only be run once.
+ */
+
+public class QueryTreeOptimizerTest {
+
+    private static final int NUM_QUERIES = 300;
+
+    // (every doc that's scored comes back)
+    private static final int ALL_DOCS = RetrievalTestIndex.NUM_DOCS;
+
+    private static InvertedFileIndex index;
+    private static Evaluator evaluator;
+
+    // whether the trees may have terms that are in no doc, and required filters
+    private static boolean unknownTerms, requiredFilters;
+
+    public static void main(String[] args) throws Exception {
+        RetrievalTestIndex testIndex = new RetrievalTestIndex(new VByteEncoder());
+        index = testIndex.getIndex();
+
+        InferenceNetworkRetriever unoptimized = new InferenceNetworkRetriever(index);
+        unoptimized.setQueryOptimization(false);
+        InferenceNetworkRetriever optimized = new InferenceNetworkRetriever(index);
+        InferenceNetworkRetriever changingScores = new InferenceNetworkRetriever(index);
+        changingScores.setScoreChangingRewrites(true);
+
+        int numChecks = 0, numMismatches = 0;
+        for (Evaluator e : new Evaluator[] { new DirichletEvaluator(index),
+                new JelinekMercerEvaluator(index) }) {
+            evaluator = e;
+            for (int seed = 0; seed < NUM_QUERIES; seed++) {
+                unknownTerms = requiredFilters = true;
+                numChecks++;
+                if (!isSameScores(seed, unoptimized.retrieveQuery(buildQuery(seed), ALL_DOCS),
+                        optimized.retrieveQuery(buildQuery(seed), ALL_DOCS)))
+                    numMismatches++;
+
+                unknownTerms = requiredFilters = false;
+                numChecks++;
+                if (!isSameScores(seed, unoptimized.retrieveQuery(buildQuery(seed), ALL_DOCS),
+                        changingScores.retrieveQuery(buildQuery(seed), ALL_DOCS)))
+                    numMismatches++;
+
+                numChecks++;
+                if (!isSameScores(seed,
+                        changingScores.retrieveQuery(buildFilteredAnd(seed, true), ALL_DOCS),
+                        changingScores.retrieveQuery(buildFilteredAnd(seed, false), ALL_DOCS)))
+                    numMismatches++;
+            }
+        }
+        testIndex.delete();
+
+        System.out.println(numMismatches + " of " + numChecks + " queries scored differently");
+        if (numMismatches > 0)
+            System.exit(1);
+    }
+
+    // whether every doc has the same score in both (which have all the docs scored)
+    private static boolean isSameScores(int seed, List<Map.Entry<Integer, Double>> expected,
+            List<Map.Entry<Integer, Double>> actual) {
+        HashMap<Integer, Double> scores = new HashMap<Integer, Double>();
+        for (Map.Entry<Integer, Double> e : actual) {
+            scores.put(e.getKey(), e.getValue());
+        }
+
+        boolean same = (expected.size() == actual.size());
+        for (Map.Entry<Integer, Double> e : expected) {
+            Double score = scores.get(e.getKey());
+            same &= (score != null && isSameScore(e.getValue(), score));
+        }
+        if (!same)
+            System.out.println("MISMATCH query " + seed + ": " + expected.size()
+                    + " docs unoptimized, " + actual.size() + " optimized");
+        return same;
+    }
+
+    private static boolean isSameScore(double a, double b) {
+        if (a == b || (Double.isNaN(a) && Double.isNaN(b)))
+            return true;
+        return Math.abs(a - b) <= 1e-9 * Math.max(1, Math.abs(a));
+    }
+
+    private static QueryNode buildQuery(int seed) throws Exception {
+        Random random = new Random(seed);
+        QueryNode query = buildTree(random, 0);
+        if (random.nextInt(3) == 0 && requiredFilters)
+            return new FilterRequireQueryNode(buildProximity(random, 0), query);
+        if (random.nextInt(6) == 0)
+            return new FilterRejectQueryNode(buildProximity(random, 0), query);
+        return query;
+    }
+
+    // an AND of two trees, the first one filtered - or, lifted by hand, the AND
+    // of the two filtered
+    private static QueryNode buildFilteredAnd(int seed, boolean lifted) throws Exception {
+        Random random = new Random(seed);
+        ProximityNode filter = buildProximity(random, 0);
+        QueryNode first = buildTree(random, 1), second = buildTree(random, 1);
+
+        AndBeliefNode and = new AndBeliefNode();
+        ArrayList<QueryNode> children = new ArrayList<QueryNode>();
+        children.add(lifted ? first : new FilterRequireQueryNode(filter, first));
+        children.add(second);
+        and.setChildren(children);
+        return lifted ? new FilterRequireQueryNode(filter, and) : and;
+    }
+
+    private static QueryNode buildTree(Random random, int depth) throws Exception {
+        if (depth > 2 || random.nextInt(4) == 0)
+            return buildProximity(random, 0);
+
+        int n = 1 + random.nextInt(4);
+        ArrayList<QueryNode> children = new ArrayList<QueryNode>();
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            children.add(buildTree(random, depth + 1));
+            weights[i] = 0.5 + random.nextInt(4);
+        }
+
+        BeliefNode node;
+        switch (random.nextInt(6)) {
+        case 0:
+            node = new AndBeliefNode();
+            break;
+        case 1:
+            node = new WeightedAndBeliefNode(weights);
+            break;
+        case 2:
+            node = new SumBeliefNode();
+            break;
+        case 3:
+            node = new WeightedSumBeliefNode(weights);
+            break;
+        case 4:
+            node = new OrBeliefNode();
+            break;
+        default:
+            node = new MaxBeliefNode();
+            break;
+        }
+        node.setChildren(children);
+        return node;
+    }
+
+    // a term, or now and then a window of terms (or of a window)
+    private static ProximityNode buildProximity(Random random, int depth) {
+        if (depth > 1 || random.nextInt(3) > 0) {
+            String term = "t" + (int) (RetrievalTestIndex.NUM_TERMS
+                    * Math.pow(random.nextDouble(), 2));
+            if (random.nextInt(12) == 0 && unknownTerms)
+                term = "unknown";
+            return new TermProximityNode(evaluator, index.getInvertedListForTerm(term));
+        }
+
+        boolean ordered = random.nextBoolean();
+        int windowSize = ordered ? 1 + random.nextInt(3) : 2 + random.nextInt(8);
+        WindowProximityNode window = ordered
+                ? new OrderedWindowProximityNode(evaluator, windowSize, index)
+                : new UnorderedWindowProximityNode(evaluator, windowSize, index);
+        ArrayList<ProximityNode> children = new ArrayList<ProximityNode>();
+        int n = 2 + random.nextInt(2);
+        for (int i = 0; i < n; i++) {
+            children.add(buildProximity(random, depth + 1));
+        }
+        window.setChildren(children);
+        return window;
+    }
+}
@@ -0,0 +1,115 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import apps.UtilityFunctions;
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import retriever.DocAtATimeRetriever;
+import retriever.evaluation.DirichletEvaluator;
+import retriever.inferencenetwork.AndBeliefNode;
+import retriever.inferencenetwork.BeliefNode;
+import retriever.inferencenetwork.InferenceNetworkRetriever;
+import retriever.inferencenetwork.OrBeliefNode;
+import retriever.inferencenetwork.QueryNode;
+import retriever.inferencenetwork.SumBeliefNode;
+import retriever.inferencenetwork.UnorderedWindowProximityNode;
+
+/*
+ * Checks that splitting the docIds into ranges that are scored in parallel
+ * (see Retriever.setNumRanges()) returns the same top-k as scoring them all on
+ * one thread - for the DocAtATimeRetriever, with and without MaxScore, and for
+ * the InferenceNetworkRetriever. Some of the numbers of ranges leave ranges
+ * with none of a query's docs in them, and with k larger than the number of
+ * docs, every range's top-k is kept whole by the merge.
+ */
+
+public class RangeParallelismTest {
+
+    private static final int[] NUM_RANGES = { 2, 3, 8 };
+
+    public static void main(String[] args) throws Exception {
+        RetrievalTestIndex testIndex = new RetrievalTestIndex(new VByteEncoder());
+        InvertedFileIndex index = testIndex.getIndex();
+
+        ArrayList<String[]> queries = RetrievalTestIndex.createQueries(100, 17);
+        int numChecks = 0, numMismatches = 0;
+
+        DocAtATimeRetriever serial = new DocAtATimeRetriever(index);
+        DocAtATimeRetriever parallel = new DocAtATimeRetriever(index);
+        for (int numRanges : NUM_RANGES) {
+            parallel.setNumRanges(numRanges);
+            for (boolean maxScore : new boolean[] { false, true }) {
+                serial.setMaxScore(maxScore);
+                parallel.setMaxScore(maxScore);
+                for (String[] query : queries) {
+                    for (int k : RetrievalTestIndex.KS) {
+                        for (String model : RetrievalTestIndex.MODELS) {
+                            numChecks++;
+                            if (!RetrievalTestIndex.isSameTopK(
+                                    String.join(" ", query) + " k=" + k + " " + model + " ranges="
+                                            + numRanges + (maxScore ? " max-score" : ""),
+                                    serial.retrieveQuery(query, k, RetrievalTestIndex
+                                            .createEvaluator(model, index, query)),
+                                    parallel.retrieveQuery(query, k, RetrievalTestIndex
+                                            .createEvaluator(model, index, query))))
+                                numMismatches++;
+                        }
+                    }
+                }
+            }
+        }
+
+        InferenceNetworkRetriever serialNetwork = new InferenceNetworkRetriever(index);
+        InferenceNetworkRetriever parallelNetwork = new InferenceNetworkRetriever(index);
+        DirichletEvaluator evaluator = new DirichletEvaluator(index);
+        for (int numRanges : NUM_RANGES) {
+            parallelNetwork.setNumRanges(numRanges);
+            for (int q = 0; q < queries.size(); q++) {
+                String query = String.join(" ", queries.get(q));
+                int type = q % 4;
+                Supplier<QueryNode> queryBuilder = () -> buildQuery(type, query, evaluator, index);
+                for (int k : RetrievalTestIndex.KS) {
+                    numChecks++;
+                    List<Map.Entry<Integer, Double>> expected = serialNetwork
+                            .retrieveQuery(queryBuilder.get(), k);
+                    if (!RetrievalTestIndex.isSameTopK(
+                            query + " k=" + k + " network-" + type + " ranges=" + numRanges,
+                            expected, parallelNetwork.retrieveQuery(queryBuilder, k)))
+                        numMismatches++;
+                }
+            }
+        }
+        testIndex.delete();
+
+        System.out.println(numMismatches + " of " + numChecks + " top-k's differ");
+        if (numMismatches > 0)
+            System.exit(1);
+    }
+
+    // an AND, a SUM, an OR or an unordered window of the query's terms
+    private static QueryNode buildQuery(int type, String query, DirichletEvaluator evaluator,
+            InvertedFileIndex index) {
+        if (type == 3) {
+            UnorderedWindowProximityNode window = new UnorderedWindowProximityNode(evaluator,
+                    4 * query.split(" ").length);
+            window.setChildren(
+                    UtilityFunctions.getTermProximityNodesFromQuery(query, evaluator, index));
+            return window;
+        }
+
+        BeliefNode node = (type == 0) ? new AndBeliefNode()
+                : (type == 1) ? new SumBeliefNode() : new OrBeliefNode();
+        try {
+            node.setChildren(
+                    UtilityFunctions.getTermProximityNodesFromQuery(query, evaluator, index));
+        } catch (Exception e) {
+            // (only a NOT is particular about its children)
+            throw new IllegalStateException(e);
+        }
+        return node;
+    }
+}
@@ -0,0 +1,168 @@
+package test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import compression.Compressor;
+import index.Index;
+import index.InvertedFileIndex;
+import reader.Document;
+import retriever.evaluation.BM25Evaluator;
+import retriever.evaluation.DirichletEvaluator;
+import retriever.evaluation.Evaluator;
+import retriever.evaluation.JelinekMercerEvaluator;
+import retriever.evaluation.RawCountEvaluator;
+
+/*
+ * A small generated index for the retriever tests, and the queries they run on
+ * it. It's made so the retrievers that skip docs get the awkward cases:
+ *
+ * - every doc is one of two lengths, and has the common terms only a few times,
+ *   so many docs get exactly the same score - and every 7th doc is a copy of the
+ *   one before it, so some have the same score for every query. Which of them
+ *   makes it into the top-k is down to the docId.
+ * - the rare terms are in just a few docs each, so a query of them has fewer
+ *   matching docs than most of the k's it's run with.
+ * - there are several times as many docs as postings in a block (see
+ *   PostingBlocks), so the common terms' lists are several blocks long.
+ */
+
+class RetrievalTestIndex {
+
+    static final int NUM_DOCS = 700, NUM_TERMS = 50, NUM_RARE_TERMS = 6;
+
+    // the k's each query is run with - the last is more than the number of docs
+    static final int[] KS = { 1, 3, 10, 25, 100, NUM_DOCS + 1 };
+
+    static final String[] MODELS = { "bm25", "raw-count", "dirichlet", "jelinek-mercer" };
+
+    private File directory;
+    private String path;
+
+    private InvertedFileIndex index;
+
+    RetrievalTestIndex(Compressor compressor) throws IOException {
+        this(createDocuments(), compressor);
+    }
+
+    // an index of the given docs instead
+    RetrievalTestIndex(ArrayList<Document> docs, Compressor compressor) throws IOException {
+        this(docs, compressor, 0);
+    }
+
+    // ... with a biword index too, of the pairs there are at least biwordThreshold of
+    // (see InvertedFileIndex.setBiwordThreshold())
+    RetrievalTestIndex(ArrayList<Document> docs, Compressor compressor, int biwordThreshold)
+            throws IOException {
+        directory = Files.createTempDirectory("elgoog-test").toFile();
+        path = new File(directory, "index").getPath();
+
+        InvertedFileIndex writer = new InvertedFileIndex(path);
+        writer.setBiwordThreshold(biwordThreshold);
+        writer.createIndexFromDocumentStore(docs);
+        writer.writeSelfToDisk(compressor);
+        // (and the impact-ordered copy, for score-at-a-time)
+        writer.writeImpactOrderedToDisk();
+
+        // the tests read it back the way it's read anywhere else
+        index = new InvertedFileIndex(path);
+    }
+
+    InvertedFileIndex getIndex() {
+        return index;
+    }
+
+    // (to open more instances of the index with)
+    String getPath() {
+        return path;
+    }
+
+    void delete() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    // the docs of the index (the same ones every time)
+    static ArrayList<Document> createDocuments() {
+        Random random = new Random(42);
+        ArrayList<Document> docs = new ArrayList<Document>();
+        String previous = null;
+        for (int d = 0; d < NUM_DOCS; d++) {
+            if (d % 7 == 6) {
+                docs.add(new Document(d, "test#scene" + d, previous));
+                continue;
+            }
+
+            int length = random.nextBoolean() ? 30 : 60;
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                // skewed, so t0 is in most docs and t49 in hardly any
+                int term = (int) (NUM_TERMS * Math.pow(random.nextDouble(), 3));
+                text.append(i > 0 ? " " : "").append("t").append(term);
+            }
+            // rare<r> is in r + 1 docs (and the copy, if the next one is one)
+            for (int r = 0; r < NUM_RARE_TERMS; r++) {
+                if (d % 97 <= r && d / 97 == r)
+                    text.append(" rare").append(r);
+            }
+            previous = text.toString();
+            docs.add(new Document(d, "test#scene" + d, previous));
+        }
+        return docs;
+    }
+
+    // queries of 1 to 5 terms - mostly common ones, some rare, and now and then
+    // one that's in no doc at all
+    static ArrayList<String[]> createQueries(int numQueries, long seed) {
+        Random random = new Random(seed);
+        ArrayList<String[]> queries = new ArrayList<String[]>();
+        for (int q = 0; q < numQueries; q++) {
+            String[] query = new String[1 + random.nextInt(5)];
+            for (int i = 0; i < query.length; i++) {
+                double x = random.nextDouble();
+                if (x < 0.03)
+                    query[i] = "unknown";
+                else if (x < 0.25)
+                    query[i] = "rare" + random.nextInt(NUM_RARE_TERMS);
+                else
+                    query[i] = "t" + (int) (NUM_TERMS * Math.pow(random.nextDouble(), 2));
+            }
+            queries.add(query);
+        }
+        return queries;
+    }
+
+    // a new evaluator for every retrieval, as BM25 takes the query
+    static Evaluator createEvaluator(String model, Index index, String[] query) {
+        switch (model) {
+        case "bm25":
+            return new BM25Evaluator(index, query);
+        case "raw-count":
+            return new RawCountEvaluator(index);
+        case "dirichlet":
+            return new DirichletEvaluator(index);
+        case "jelinek-mercer":
+            return new JelinekMercerEvaluator(index);
+        default:
+            throw new IllegalArgumentException("Unknown model " + model);
+        }
+    }
+
+    // prints the two top-k's if they differ, and returns whether they're the same
+    static boolean isSameTopK(String description, List<Map.Entry<Integer, Double>> expected,
+            List<Map.Entry<Integer, Double>> actual) {
+        if (expected.equals(actual))
+            return true;
+        System.out.println("MISMATCH " + description);
+        System.out.println("  expected " + expected);
+        System.out.println("  actual   " + actual);
+        return false;
+    }
+}
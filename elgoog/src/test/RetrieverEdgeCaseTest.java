@@ -0,0 +1,222 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import apps.UtilityFunctions;
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import reader.Document;
+import retriever.BlockMaxWandRetriever;
+import retriever.DocAtATimeRetriever;
+import retriever.Retriever;
+import retriever.ScoreAtATimeRetriever;
+import retriever.TermAtATimeRetriever;
+import retriever.evaluation.BM25Evaluator;
+import retriever.evaluation.Evaluator;
+import retriever.inferencenetwork.InferenceNetworkRetriever;
+import retriever.inferencenetwork.QueryNode;
+import retriever.inferencenetwork.SumBeliefNode;
+
+/*
+ * The cases the retrievers that skip or split up the docs are most likely to get
+ * wrong, on a collection made so the right answer is known without scoring it:
+ *
+ * - every doc is the same length and has "common" in it once, so the score of a
+ *   doc depends only on how many times the other query terms are in it. Docs 10
+ *   and 300 have "tie" twice; docs 190 to 209 once each, and score exactly the
+ *   same - so with k = 5 the threshold is their score, and which of them get in
+ *   is down to the docId (the smaller wins), and the ones after have to be turned
+ *   away though they don't score less than it. For "tie common", every doc
+ *   without "tie" ties with all the others.
+ * - "rare" is in 3 docs, so a k of more than that gets just the 3.
+ * - a query that's empty, or has only terms that aren't in the index, gets
+ *   nothing; and a term that isn't in the index changes nothing about the rest.
+ * - the docs are split into ranges at 200 (2 ranges) and at 133 and 266 (3),
+ *   all in the middle of "common"'s blocks of 128 postings (see PostingBlocks) -
+ *   and 200 is one of the docs with "rare" in it, and in the middle of the ties.
+ *
+ * Every retriever has to return exactly the docs expected, in the order
+ * expected, for every model; the ones that score exactly have to score them the
+ * same as the DocAtATimeRetriever does, while score-at-a-time (BM25 only) and
+ * the inference network (a SUM of the terms, with the models that score a doc
+ * without a term) just have to get the same docs.
+ */
+
+public class RetrieverEdgeCaseTest {
+
+    private static final int NUM_DOCS = 400;
+
+    private static final int[] TOP_DOCS = { 10, 300 }, RARE_DOCS = { 5, 200, 399 };
+    private static final int FIRST_TIE = 190, LAST_TIE = 209;
+
+    private static final int[] NUM_RANGES = { 2, 3 };
+
+    private static int numChecks = 0, numMismatches = 0;
+
+    public static void main(String[] args) throws Exception {
+        ArrayList<Document> docs = new ArrayList<Document>();
+        for (int d = 0; d < NUM_DOCS; d++) {
+            String text = "common filler filler filler";
+            boolean rare = Arrays.binarySearch(RARE_DOCS, d) >= 0;
+            if (Arrays.binarySearch(TOP_DOCS, d) >= 0)
+                text = "tie tie common filler";
+            else if (d >= FIRST_TIE && d <= LAST_TIE)
+                text = rare ? "tie rare common filler" : "tie common filler filler";
+            else if (rare)
+                text = "rare common filler filler";
+            docs.add(new Document(d, "test#scene" + d, text));
+        }
+        RetrievalTestIndex testIndex = new RetrievalTestIndex(docs, new VByteEncoder());
+        InvertedFileIndex index = testIndex.getIndex();
+
+        // the docs "tie" is in, best first
+        ArrayList<Integer> tieDocs = new ArrayList<Integer>();
+        for (int d : TOP_DOCS) {
+            tieDocs.add(d);
+        }
+        for (int d = FIRST_TIE; d <= LAST_TIE; d++) {
+            tieDocs.add(d);
+        }
+        // ... and then all the rest, for "tie common"
+        ArrayList<Integer> allDocs = new ArrayList<Integer>(tieDocs);
+        for (int d = 0; d < NUM_DOCS; d++) {
+            if (!allDocs.contains(d))
+                allDocs.add(d);
+        }
+        ArrayList<Integer> rareDocs = new ArrayList<Integer>();
+        for (int d : RARE_DOCS) {
+            rareDocs.add(d);
+        }
+        ArrayList<Integer> noDocs = new ArrayList<Integer>();
+
+        ArrayList<String[]> queries = new ArrayList<String[]>();
+        ArrayList<List<Integer>> expectedDocs = new ArrayList<List<Integer>>();
+        ArrayList<int[]> ks = new ArrayList<int[]>();
+        addCase(queries, expectedDocs, ks, "tie", tieDocs, 1, 2, 3, 5, 22, 30);
+        addCase(queries, expectedDocs, ks, "tie common", allDocs, 1, 5, 25, NUM_DOCS, 500);
+        addCase(queries, expectedDocs, ks, "rare", rareDocs, 1, 3, 10);
+        addCase(queries, expectedDocs, ks, "unknown rare", rareDocs, 2, 10);
+        addCase(queries, expectedDocs, ks, "rare unknown unknown", rareDocs, 10);
+        addCase(queries, expectedDocs, ks, "unknown", noDocs, 1, 10);
+        addCase(queries, expectedDocs, ks, "unknown other", noDocs, 10);
+        addCase(queries, expectedDocs, ks, "", noDocs, 1, 10);
+
+        DocAtATimeRetriever exhaustive = new DocAtATimeRetriever(index);
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<Retriever> retrievers = new ArrayList<Retriever>();
+        for (boolean maxScore : new boolean[] { false, true }) {
+            for (int numRanges : new int[] { 1, 2, 3 }) {
+                DocAtATimeRetriever retriever = new DocAtATimeRetriever(index);
+                retriever.setMaxScore(maxScore);
+                retriever.setNumRanges(numRanges);
+                names.add("doc-at-a-time" + (maxScore ? " max-score" : "") + " ranges="
+                        + numRanges);
+                retrievers.add(retriever);
+            }
+        }
+        names.add("block-max-wand");
+        retrievers.add(new BlockMaxWandRetriever(index));
+        for (boolean costModel : new boolean[] { false, true }) {
+            TermAtATimeRetriever retriever = new TermAtATimeRetriever(index);
+            retriever.setCostModel(costModel);
+            names.add("term-at-a-time" + (costModel ? " cost-model" : ""));
+            retrievers.add(retriever);
+        }
+        ScoreAtATimeRetriever scoreAtATime = new ScoreAtATimeRetriever(index);
+        InferenceNetworkRetriever network = new InferenceNetworkRetriever(index);
+
+        for (int q = 0; q < queries.size(); q++) {
+            String[] query = queries.get(q);
+            for (int k : ks.get(q)) {
+                List<Integer> expected = expectedDocs.get(q).subList(0,
+                        Math.min(k, expectedDocs.get(q).size()));
+                String description = "\"" + String.join(" ", query) + "\" k=" + k;
+
+                for (String model : RetrievalTestIndex.MODELS) {
+                    List<Map.Entry<Integer, Double>> reference = exhaustive.retrieveQuery(query,
+                            k, RetrievalTestIndex.createEvaluator(model, index, query));
+                    check(description + " " + model + " doc-at-a-time", expected, reference);
+
+                    for (int r = 0; r < retrievers.size(); r++) {
+                        List<Map.Entry<Integer, Double>> actual = retrievers.get(r).retrieveQuery(
+                                query, k, RetrievalTestIndex.createEvaluator(model, index, query));
+                        String name = description + " " + model + " " + names.get(r);
+                        check(name, expected, actual);
+                        numChecks++;
+                        if (!RetrievalTestIndex.isSameTopK(name, reference, actual))
+                            numMismatches++;
+                    }
+                }
+
+                // score-at-a-time has no impacts for a term that's in more than half the
+                // docs (they'd be zero or less with BM25), so the docs with just "common"
+                // in them aren't scored
+                List<Integer> impactDocs = new ArrayList<Integer>(expectedDocs.get(q));
+                List<String> terms = Arrays.asList(query);
+                impactDocs.removeIf(d -> !(terms.contains("tie") && tieDocs.contains(d))
+                        && !(terms.contains("rare") && rareDocs.contains(d)));
+                check(description + " score-at-a-time",
+                        impactDocs.subList(0, Math.min(k, impactDocs.size())),
+                        scoreAtATime.retrieveQuery(query, k, new BM25Evaluator(index, query)));
+
+                // an empty query has no SUM to make
+                if (query.length == 0)
+                    continue;
+                for (String model : new String[] { "dirichlet", "jelinek-mercer" }) {
+                    Evaluator evaluator = RetrievalTestIndex.createEvaluator(model, index, query);
+                    Supplier<QueryNode> queryBuilder = () -> {
+                        SumBeliefNode sum = new SumBeliefNode();
+                        try {
+                            sum.setChildren(UtilityFunctions.getTermProximityNodesFromQuery(
+                                    String.join(" ", query), evaluator, index));
+                        } catch (Exception e) {
+                            // (only a NOT is particular about its children)
+                            throw new IllegalStateException(e);
+                        }
+                        return sum;
+                    };
+                    network.setNumRanges(1);
+                    check(description + " " + model + " network", expected,
+                            network.retrieveQuery(queryBuilder.get(), k));
+                    for (int numRanges : NUM_RANGES) {
+                        network.setNumRanges(numRanges);
+                        check(description + " " + model + " network ranges=" + numRanges,
+                                expected, network.retrieveQuery(queryBuilder, k));
+                    }
+                }
+            }
+        }
+        testIndex.delete();
+
+        System.out.println(numMismatches + " of " + numChecks + " edge-case checks differ");
+        if (numMismatches > 0)
+            System.exit(1);
+    }
+
+    private static void addCase(ArrayList<String[]> queries, ArrayList<List<Integer>> expectedDocs,
+            ArrayList<int[]> ks, String query, List<Integer> docs, int... queryKs) {
+        queries.add(query.isEmpty() ? new String[0] : query.split(" "));
+        expectedDocs.add(docs);
+        ks.add(queryKs);
+    }
+
+    // the docs of the top-k have to be the ones expected, in that order
+    private static void check(String description, List<Integer> expected,
+            List<Map.Entry<Integer, Double>> actual) {
+        ArrayList<Integer> actualDocs = new ArrayList<Integer>();
+        for (Map.Entry<Integer, Double> e : actual) {
+            actualDocs.add(e.getKey());
+        }
+        numChecks++;
+        if (!actualDocs.equals(expected)) {
+            numMismatches++;
+            System.out.println("MISMATCH " + description);
+            System.out.println("  expected docs " + expected);
+            System.out.println("  actual        " + actual);
+        }
+    }
+}
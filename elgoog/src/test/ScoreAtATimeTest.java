@@ -0,0 +1,152 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import compression.VByteEncoder;
+import index.ImpactOrderedIndex;
+import index.InvertedFileIndex;
+import index.MappedInvertedFileIndex;
+import retriever.DocAtATimeRetriever;
+import retriever.ScoreAtATimeRetriever;
+import retriever.evaluation.BM25Evaluator;
+import retriever.evaluation.DirichletEvaluator;
+import retriever.evaluation.Evaluator;
+
+/*
+ * Checks the ScoreAtATimeRetriever against BM25 as the DocAtATimeRetriever
+ * scores it. The impacts are quantized, so the scores can't be the same: each of
+ * a doc's terms can be off by up to one impact level. So every doc in the top-k
+ * has to have its BM25 score to within that, and every doc left out of it can't
+ * have scored more than the k'th by more than that either.
+ *
+ * The impacts leave out the postings of terms in half the docs or more (which
+ * BM25 scores zero or below), and weigh a term by the number of times it's in
+ * the query, which is only close to what BM25 does - so the queries here are
+ * of distinct terms that are in fewer than half the docs.
+ *
+ * It's also checked that a query stopped by a budget of postings has scored no
+ * more than it would have, and that a model other than BM25 is refused.
+ */
+
+public class ScoreAtATimeTest {
+
+    public static void main(String[] args) throws Exception {
+        RetrievalTestIndex testIndex = new RetrievalTestIndex(new VByteEncoder());
+        InvertedFileIndex index = testIndex.getIndex();
+        double scorePerLevel = new ImpactOrderedIndex(index).getScorePerLevel();
+
+        ArrayList<String[]> queries = new ArrayList<String[]>();
+        for (String[] query : RetrievalTestIndex.createQueries(200, 17)) {
+            LinkedHashSet<String> terms = new LinkedHashSet<String>();
+            for (String term : query) {
+                if (2 * index.getDocumentFrequencyForTerm(term) < index.getNumDocs())
+                    terms.add(term);
+            }
+            if (!terms.isEmpty())
+                queries.add(terms.toArray(new String[0]));
+        }
+
+        DocAtATimeRetriever exhaustive = new DocAtATimeRetriever(index);
+        int numChecks = 0, numMismatches = 0;
+        for (boolean mmap : new boolean[] { false, true }) {
+            InvertedFileIndex shared = mmap ? new MappedInvertedFileIndex(testIndex.getPath())
+                    : new InvertedFileIndex(testIndex.getPath());
+            ScoreAtATimeRetriever scoreAtATime = new ScoreAtATimeRetriever(shared);
+
+            for (String[] query : queries) {
+                HashMap<Integer, Double> exact = new HashMap<Integer, Double>();
+                for (Map.Entry<Integer, Double> e : exhaustive.retrieveQuery(query,
+                        RetrievalTestIndex.NUM_DOCS + 1, new BM25Evaluator(index, query))) {
+                    exact.put(e.getKey(), e.getValue());
+                }
+                double tolerance = query.length * scorePerLevel;
+
+                for (int k : RetrievalTestIndex.KS) {
+                    String description = (mmap ? "mmap " : "file ") + String.join(" ", query)
+                            + " k=" + k;
+                    List<Map.Entry<Integer, Double>> result = scoreAtATime.retrieveQuery(query,
+                            k, new BM25Evaluator(shared, query));
+
+                    numChecks++;
+                    if (!scoreAtATime.isComplete() || result.size() != Math.min(k, exact.size())
+                            || !isTopKOf(result, k, exact, tolerance)) {
+                        numMismatches++;
+                        System.out.println("MISMATCH " + description + ": " + result
+                                + ", BM25 " + exact);
+                    }
+                }
+
+                // stopped halfway, every doc has at most the score it would have had
+                long numPostings = scoreAtATime.getNumPostingsInQuery();
+                scoreAtATime.setPostingsBudget(numPostings / 2);
+                List<Map.Entry<Integer, Double>> partial = scoreAtATime.retrieveQuery(query,
+                        RetrievalTestIndex.NUM_DOCS + 1, new BM25Evaluator(shared, query));
+                long numProcessed = scoreAtATime.getNumPostingsProcessed();
+                scoreAtATime.setPostingsBudget(Long.MAX_VALUE);
+                HashMap<Integer, Double> complete = new HashMap<Integer, Double>();
+                for (Map.Entry<Integer, Double> e : scoreAtATime.retrieveQuery(query,
+                        RetrievalTestIndex.NUM_DOCS + 1, new BM25Evaluator(shared, query))) {
+                    complete.put(e.getKey(), e.getValue());
+                }
+                numChecks++;
+                boolean partialOk = true;
+                for (Map.Entry<Integer, Double> e : partial) {
+                    partialOk &= complete.containsKey(e.getKey())
+                            && e.getValue() <= complete.get(e.getKey());
+                }
+                if (!partialOk || numProcessed != numPostings / 2) {
+                    numMismatches++;
+                    System.out.println("MISMATCH " + String.join(" ", query)
+                            + " stopped after " + numPostings / 2 + " postings: " + partial
+                            + ", complete " + complete);
+                }
+            }
+
+            // the impacts are BM25's, so no other model may be asked for
+            for (Evaluator evaluator : new Evaluator[] { null, new DirichletEvaluator(shared) }) {
+                numChecks++;
+                try {
+                    scoreAtATime.retrieveQuery(queries.get(0), 10, evaluator);
+                    numMismatches++;
+                    System.out.println("MISMATCH " + (mmap ? "mmap" : "file")
+                            + ": a query was scored with " + evaluator);
+                } catch (IllegalArgumentException e) {
+                    // as it should be
+                }
+            }
+        }
+        testIndex.delete();
+
+        System.out.println(numMismatches + " of " + numChecks
+                + " score-at-a-time checks differ from BM25 by more than the quantization");
+        if (numMismatches > 0)
+            System.exit(1);
+    }
+
+    // whether the result is a top-k of the exact scores, give or take the tolerance
+    private static boolean isTopKOf(List<Map.Entry<Integer, Double>> result, int k,
+            HashMap<Integer, Double> exact, double tolerance) {
+        HashMap<Integer, Double> found = new HashMap<Integer, Double>();
+        for (Map.Entry<Integer, Double> e : result) {
+            Double score = exact.get(e.getKey());
+            if (score == null || Math.abs(score - e.getValue()) > tolerance)
+                return false;
+            found.put(e.getKey(), e.getValue());
+        }
+        if (result.size() < k)
+            return true;
+
+        // a doc left out scored no more than the k'th, so without the quantization
+        // it can't be much more than that
+        double kthScore = result.get(result.size() - 1).getValue();
+        for (Map.Entry<Integer, Double> e : exact.entrySet()) {
+            if (!found.containsKey(e.getKey()) && e.getValue() > kthScore + tolerance)
+                return false;
+        }
+        return true;
+    }
+}
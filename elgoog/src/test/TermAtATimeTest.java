@@ -0,0 +1,51 @@
+package test;
+
+import java.util.ArrayList;
+
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import retriever.DocAtATimeRetriever;
+import retriever.TermAtATimeRetriever;
+
+/*
+ * Checks that the TermAtATimeRetriever returns the same top-k as the
+ * DocAtATimeRetriever, for every query, k and model - both when it always goes
+ * term-at-a-time and when its cost model chooses.
+ */
+
+public class TermAtATimeTest {
+
+    public static void main(String[] args) throws Exception {
+        RetrievalTestIndex testIndex = new RetrievalTestIndex(new VByteEncoder());
+        InvertedFileIndex index = testIndex.getIndex();
+
+        DocAtATimeRetriever exhaustive = new DocAtATimeRetriever(index);
+        TermAtATimeRetriever termAtATime = new TermAtATimeRetriever(index);
+
+        ArrayList<String[]> queries = RetrievalTestIndex.createQueries(200, 13);
+        int numChecks = 0, numMismatches = 0;
+        for (boolean costModel : new boolean[] { false, true }) {
+            termAtATime.setCostModel(costModel);
+            for (String[] query : queries) {
+                for (int k : RetrievalTestIndex.KS) {
+                    for (String model : RetrievalTestIndex.MODELS) {
+                        numChecks++;
+                        if (!RetrievalTestIndex.isSameTopK(
+                                String.join(" ", query) + " k=" + k + " " + model
+                                        + (costModel ? " cost-model" : ""),
+                                exhaustive.retrieveQuery(query, k,
+                                        RetrievalTestIndex.createEvaluator(model, index, query)),
+                                termAtATime.retrieveQuery(query, k,
+                                        RetrievalTestIndex.createEvaluator(model, index, query))))
+                            numMismatches++;
+                    }
+                }
+            }
+        }
+        testIndex.delete();
+
+        System.out.println(numMismatches + " of " + numChecks + " top-k's differ");
+        if (numMismatches > 0)
+            System.exit(1);
+    }
+}
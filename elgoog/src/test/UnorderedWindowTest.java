@@ -1,6 +1,24 @@
 package test;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import compression.VByteEncoder;
+import index.InvertedFileIndex;
+import reader.Document;
+import retriever.evaluation.Evaluator;
+import retriever.evaluation.RawCountEvaluator;
+import retriever.inferencenetwork.InferenceNetworkRetriever;
+import retriever.inferencenetwork.OrderedWindowProximityNode;
+import retriever.inferencenetwork.ProximityNode;
+import retriever.inferencenetwork.TermProximityNode;
+import retriever.inferencenetwork.UnorderedWindowProximityNode;
 
 public class UnorderedWindowTest {
 
@@ -52,6 +70,199 @@ public class UnorderedWindowTest {
 
         }
 
+        try {
+            checkWindowNode();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /*
+     * The same text, and a few made from it, indexed - and the windows the
+     * UnorderedWindowProximityNode finds in each doc counted against the ones
+     * countWindows() finds in its words, for the search string above and for
+     * frequent terms (which the node has to go through a lot of positions for).
+     * And windows of a term and a phrase (#uw(term #od1(phrase))) - a phrase that
+     * begins with the term has some of the term's positions, which a window
+     * using one of them uses up for the other too.
+     */
+    private static String[] windowQueries = { searchString, "cressida pandaru", "hector troilu",
+            "helen paris troilu", "the and", "a the i", "he he", "s the of", "to to to" };
+
+    private static String[][] nestedQueries = { { "pandaru", "pandaru cressida" },
+            { "he", "he is" }, { "cressida", "cressida what" }, { "troilu", "hector troilu" },
+            { "the", "of the" } };
+
+    // scores a doc by the number of windows in it
+    private static Evaluator windowCounter = new RawCountEvaluator() {
+        @Override
+        public double getDocScoreForQueryWindow(int termFrequency, int docId,
+                int collectionFrequency) {
+            return termFrequency;
+        }
+    };
+
+    private static void checkWindowNode() throws Exception {
+        String[] words = textString.trim().split("\\s+");
+        ArrayList<Document> docs = new ArrayList<Document>();
+        docs.add(new Document(0, "troilus#scene2", String.join(" ", words)));
+        docs.add(new Document(1, "test#search", searchString));
+
+        // a long doc, of the text 10 times over
+        docs.add(new Document(2, "test#long",
+                String.join(" ", Collections.nCopies(10, String.join(" ", words)))));
+
+        // the same words in another order
+        List<String> shuffled = new ArrayList<String>();
+        Collections.addAll(shuffled, words);
+        Collections.shuffle(shuffled, new Random(42));
+        docs.add(new Document(3, "test#shuffled", String.join(" ", shuffled)));
+
+        RetrievalTestIndex testIndex = new RetrievalTestIndex(docs, new VByteEncoder());
+        InvertedFileIndex index = testIndex.getIndex();
+        InferenceNetworkRetriever retriever = new InferenceNetworkRetriever(index);
+
+        int numMismatches = 0;
+        for (String query : windowQueries) {
+            String[] terms = query.split("\\s+");
+            for (int window : new int[] { terms.length, 3 * terms.length, 0 }) {
+                HashMap<Integer, Double> expected = new HashMap<Integer, Double>();
+                for (Document doc : docs) {
+                    int count = countWindows(doc.getTermVector(), terms, window);
+                    if (count > 0)
+                        expected.put(doc.getDocumentUniqueId(), (double) count);
+                }
+
+                UnorderedWindowProximityNode node = new UnorderedWindowProximityNode(
+                        windowCounter, window);
+                ArrayList<TermProximityNode> children = new ArrayList<TermProximityNode>();
+                for (String term : terms) {
+                    children.add(new TermProximityNode(windowCounter,
+                            index.getInvertedListForTerm(term)));
+                }
+                node.setChildren(children);
+                HashMap<Integer, Double> found = new HashMap<Integer, Double>();
+                for (Map.Entry<Integer, Double> e : retriever.retrieveQuery(node, docs.size())) {
+                    found.put(e.getKey(), e.getValue());
+                }
+
+                boolean same = expected.equals(found);
+                if (!same)
+                    numMismatches++;
+                System.out.println((same ? "" : "MISMATCH ") + "#uw" + window + "(" + query
+                        + "): " + found + (same ? "" : ", expected " + expected));
+            }
+        }
+
+        for (String[] query : nestedQueries) {
+            String[] phrase = query[1].split("\\s+");
+            for (int window : new int[] { 2, 6, 0 }) {
+                HashMap<Integer, Double> expected = new HashMap<Integer, Double>();
+                for (Document doc : docs) {
+                    String[] terms = doc.getTermVector();
+                    int count = countWindows(new int[][] { findPositions(terms, query[0]),
+                            findPhrasePositions(terms, phrase) }, window);
+                    if (count > 0)
+                        expected.put(doc.getDocumentUniqueId(), (double) count);
+                }
+
+                OrderedWindowProximityNode phraseNode = new OrderedWindowProximityNode(
+                        windowCounter, 1);
+                ArrayList<TermProximityNode> phraseTerms = new ArrayList<TermProximityNode>();
+                for (String term : phrase) {
+                    phraseTerms.add(new TermProximityNode(windowCounter,
+                            index.getInvertedListForTerm(term)));
+                }
+                phraseNode.setChildren(phraseTerms);
+                UnorderedWindowProximityNode node = new UnorderedWindowProximityNode(
+                        windowCounter, window);
+                ArrayList<ProximityNode> children = new ArrayList<ProximityNode>();
+                children.add(new TermProximityNode(windowCounter,
+                        index.getInvertedListForTerm(query[0])));
+                children.add(phraseNode);
+                node.setChildren(children);
+                HashMap<Integer, Double> found = new HashMap<Integer, Double>();
+                for (Map.Entry<Integer, Double> e : retriever.retrieveQuery(node, docs.size())) {
+                    found.put(e.getKey(), e.getValue());
+                }
+
+                boolean same = expected.equals(found);
+                if (!same)
+                    numMismatches++;
+                System.out.println((same ? "" : "MISMATCH ") + "#uw" + window + "(" + query[0]
+                        + " #od1(" + query[1] + ")): " + found
+                        + (same ? "" : ", expected " + expected));
+            }
+        }
+        testIndex.delete();
+
+        System.out.println(numMismatches + " of "
+                + (windowQueries.length + nestedQueries.length) * 3 + " window counts differ");
+        if (numMismatches > 0)
+            System.exit(1);
+    }
+
+    /*
+     * Counts the windows the plain way: every term takes the first of its
+     * positions that no window has used up, nor an earlier term of this window
+     * (a term that's in the query twice takes two positions). If they're within
+     * 'window' words, that's a window and they're all used up; if not, only the
+     * first of them is. Till a term has no position left.
+     */
+    private static int countWindows(String[] doc, String[] terms, int window) {
+        int[][] positions = new int[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            positions[i] = findPositions(doc, terms[i]);
+        }
+        return countWindows(positions, window);
+    }
+
+    // ... for any children, given their positions
+    private static int countWindows(int[][] positions, int window) {
+        if (window == 0)
+            window = Integer.MAX_VALUE;
+
+        HashSet<Integer> used = new HashSet<Integer>();
+        int count = 0;
+        while (true) {
+            HashSet<Integer> taken = new HashSet<Integer>();
+            int start = Integer.MAX_VALUE, end = Integer.MIN_VALUE;
+            for (int[] childPositions : positions) {
+                int position = -1;
+                for (int p : childPositions) {
+                    if (!used.contains(p) && !taken.contains(p)) {
+                        position = p;
+                        break;
+                    }
+                }
+                if (position < 0)
+                    return count;
+                taken.add(position);
+                start = Math.min(start, position);
+                end = Math.max(end, position);
+            }
+
+            if (end - start + 1 <= window) {
+                count++;
+                used.addAll(taken);
+            } else {
+                used.add(start);
+            }
+        }
+    }
+
+    private static int[] findPositions(String[] doc, String term) {
+        return IntStream.range(0, doc.length).filter(p -> doc[p].equals(term)).toArray();
+    }
+
+    // where the phrase begins - its terms are all different, so its occurrences
+    // don't overlap, and each is a window of the #od1
+    private static int[] findPhrasePositions(String[] doc, String[] phrase) {
+        return IntStream.range(0, doc.length - phrase.length + 1)
+                .filter(p -> IntStream.range(0, phrase.length)
+                        .allMatch(i -> doc[p + i].equals(phrase[i])))
+                .toArray();
     }
 
 }